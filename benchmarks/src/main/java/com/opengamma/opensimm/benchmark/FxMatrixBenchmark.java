@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.benchmark;
+
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.opengamma.opensimm.basics.FxMatrix;
+import com.opengamma.opensimm.util.Pair;
+
+/**
+ * Benchmarks for building and querying an {@link FxMatrix}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FxMatrixBenchmark {
+
+  @Param({"10", "40", "150"})
+  private int currencies;
+
+  private Map<Pair<Currency, Currency>, Double> rates;
+  private FxMatrix matrix;
+  private List<Currency> currencyList;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SyntheticMarketData marketData = SyntheticMarketData.generate(0, 0, currencies, 1L);
+    rates = marketData.getFxRates();
+    matrix = marketData.getFxMatrix();
+    currencyList = marketData.getCurrencies();
+  }
+
+  @Benchmark
+  public FxMatrix addRates() {
+    return FxMatrix.builder().addRates(rates).build();
+  }
+
+  @Benchmark
+  public void getRate(Blackhole blackhole) {
+    Currency base = SyntheticMarketData.BASE_CURRENCY;
+    for (Currency currency : currencyList) {
+      blackhole.consume(matrix.getRate(currency, base));
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opengamma.opensimm.basics.FxMatrix;
+import com.opengamma.opensimm.basics.PortfolioExposure;
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.RiskFactorProperties;
+import com.opengamma.opensimm.load.BinaryShocksLoader;
+import com.opengamma.opensimm.load.BinaryShocksWriter;
+import com.opengamma.opensimm.load.FxRateLoader;
+import com.opengamma.opensimm.load.FxShocksLoader;
+import com.opengamma.opensimm.load.PortfolioLoader;
+import com.opengamma.opensimm.load.RiskFactorBaseLevelsLoader;
+import com.opengamma.opensimm.load.RiskFactorDefinitionsLoader;
+import com.opengamma.opensimm.load.RiskFactorShocksLoader;
+import com.opengamma.opensimm.util.Pair;
+
+/**
+ * Benchmarks for each of the CSV loaders, using files
+ * generated into a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoaderBenchmark {
+
+  @Param({"1000", "10000"})
+  private int riskFactors;
+
+  @Param({"1250"})
+  private int scenarios;
+
+  @Param({"40"})
+  private int currencies;
+
+  @Param({"10000"})
+  private int portfolioSize;
+
+  private Path directory;
+  private Map<RiskFactor, RiskFactorProperties> definitions;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("opensimm-benchmark");
+    SyntheticMarketData marketData = SyntheticMarketData.generate(riskFactors, scenarios, currencies, 1L);
+    marketData.writeCsvFiles(directory, portfolioSize);
+    definitions = marketData.getRiskFactors();
+    BinaryShocksWriter.convert(file("risk-factor-shocks"), directory.resolve("risk-factor-shocks.bin").toFile());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      files.forEach(f -> f.toFile().delete());
+    }
+    Files.delete(directory);
+  }
+
+  @Benchmark
+  public Map<RiskFactor, RiskFactorProperties> riskFactorDefinitions() {
+    return RiskFactorDefinitionsLoader.of(file("risk-factor-definitions")).load();
+  }
+
+  @Benchmark
+  public Map<RiskFactor, Double> riskFactorBaseLevels() {
+    return RiskFactorBaseLevelsLoader.of(file("risk-factor-base-levels")).load();
+  }
+
+  @Benchmark
+  public Map<RiskFactor, List<Double>> riskFactorShocks() {
+    return RiskFactorShocksLoader.of(file("risk-factor-shocks")).load();
+  }
+
+  @Benchmark
+  public Map<RiskFactor, List<Double>> binaryRiskFactorShocks() {
+    return BinaryShocksLoader.of(directory.resolve("risk-factor-shocks.bin").toFile()).loadRiskFactorShocks();
+  }
+
+  @Benchmark
+  public FxMatrix fxRates() {
+    return FxRateLoader.of(file("fx-rates")).load();
+  }
+
+  @Benchmark
+  public Map<Pair<Currency, Currency>, List<Double>> fxShocks() {
+    return FxShocksLoader.of(file("fx-rate-shocks")).load();
+  }
+
+  @Benchmark
+  public List<PortfolioExposure> portfolio() {
+    return PortfolioLoader.of(file("portfolio-derivatives"), definitions.keySet()).load();
+  }
+
+  private File file(String name) {
+    return directory.resolve(name + ".csv").toFile();
+  }
+}
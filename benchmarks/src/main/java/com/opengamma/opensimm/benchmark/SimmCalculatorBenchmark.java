@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opengamma.opensimm.MarginSession;
+import com.opengamma.opensimm.SimmCalculator;
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.basics.Portfolio;
+import com.opengamma.opensimm.basics.PortfolioExposure;
+import com.opengamma.opensimm.util.Pair;
+
+/**
+ * Benchmarks for constructing and using a {@link SimmCalculator}.
+ * <p>
+ * Each dimension of the market data can be varied independently
+ * with the JMH {@code -p} option to see how cost scales with it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimmCalculatorBenchmark {
+
+  private static final double VAR_LEVEL = 0.99;
+
+  @Param({"1000", "10000"})
+  private int riskFactors;
+
+  @Param({"250", "1250"})
+  private int scenarios;
+
+  @Param({"10", "40"})
+  private int currencies;
+
+  @Param({"1000"})
+  private int portfolioSize;
+
+  @Param({"100"})
+  private int portfolioCount;
+
+  private SyntheticMarketData marketData;
+  private SimmCalculator calculator;
+  private List<PortfolioExposure> portfolio;
+  private List<PortfolioExposure> emptyMargin;
+  private Map<Integer, Portfolio> portfolios;
+  private MarginSession session;
+  private List<PortfolioExposure> trade;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    marketData = SyntheticMarketData.generate(riskFactors, scenarios, currencies, 1L);
+    calculator = marketData.calculatorBuilder(VAR_LEVEL).build();
+    portfolio = marketData.portfolio(portfolioSize);
+    emptyMargin = marketData.portfolio(0);
+    portfolios = marketData.portfolios(portfolioCount, portfolioSize);
+    session = calculator.session(Portfolio.of(portfolio));
+    trade = marketData.portfolio(10);
+  }
+
+  @Benchmark
+  public SimmCalculator construction() {
+    return marketData.calculatorBuilder(VAR_LEVEL).build();
+  }
+
+  @Benchmark
+  public Map<AssetClass, Double> varByAssetClass() {
+    return calculator.varByAssetClass(portfolio);
+  }
+
+  @Benchmark
+  public Map<Integer, Map<AssetClass, Double>> varByAssetClassForPortfolios() {
+    return calculator.varByAssetClass(portfolios);
+  }
+
+  @Benchmark
+  public Map<AssetClass, Double> whatIf() {
+    return session.whatIf(trade);
+  }
+
+  @Benchmark
+  public Map<AssetClass, List<Pair<Integer, Double>>> pnlVectorsByAssetClass() {
+    return calculator.pnlVectorsByAssetClass(portfolio, emptyMargin, emptyMargin);
+  }
+}
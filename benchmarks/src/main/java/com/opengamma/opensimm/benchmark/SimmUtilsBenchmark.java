@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.benchmark;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.DoubleStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.StandardRiskFactor;
+import com.opengamma.opensimm.util.SimmUtils;
+
+/**
+ * Benchmarks for the percentile and profits computations in {@link SimmUtils}.
+ * <p>
+ * The primitive percentile benchmark includes the cost of copying
+ * the values, as the selection is performed on a copy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimmUtilsBenchmark {
+
+  private static final double VAR_LEVEL = 0.99;
+
+  @Param({"250", "1250", "5000"})
+  private int scenarios;
+
+  @Param({"100", "1000"})
+  private int riskFactors;
+
+  private double[] values;
+  private List<Double> valuesList;
+  private double[][] movements;
+  private double[] exposures;
+  private double[] buffer;
+  private Map<RiskFactor, List<Double>> movementsMap;
+  private Map<RiskFactor, Double> exposuresMap;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(1L);
+    values = random.doubles(scenarios).toArray();
+    valuesList = DoubleStream.of(values).boxed().collect(toList());
+
+    movements = new double[riskFactors][];
+    exposures = new double[riskFactors];
+    movementsMap = new LinkedHashMap<>();
+    exposuresMap = new LinkedHashMap<>();
+    for (int i = 0; i < riskFactors; i++) {
+      RiskFactor riskFactor = StandardRiskFactor.of("RF-" + i);
+      movements[i] = random.doubles(scenarios).map(d -> d - 0.5).toArray();
+      exposures[i] = random.nextDouble() * 1_000_000;
+      movementsMap.put(riskFactor, DoubleStream.of(movements[i]).boxed().collect(toList()));
+      exposuresMap.put(riskFactor, exposures[i]);
+    }
+    buffer = new double[scenarios];
+  }
+
+  @Benchmark
+  public double percentile() {
+    return SimmUtils.percentile(values, VAR_LEVEL);
+  }
+
+  @Benchmark
+  public double percentileOfList() {
+    return SimmUtils.percentile(valuesList, VAR_LEVEL);
+  }
+
+  @Benchmark
+  public double[] profits() {
+    return SimmUtils.profits(movements, exposures, buffer);
+  }
+
+  @Benchmark
+  public List<Double> profitsOfMaps() {
+    return SimmUtils.profits(movementsMap, exposuresMap);
+  }
+}
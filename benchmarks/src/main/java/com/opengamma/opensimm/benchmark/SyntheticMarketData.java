@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.benchmark;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+import com.opengamma.opensimm.SimmCalculator;
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.basics.FxMatrix;
+import com.opengamma.opensimm.basics.FxRiskFactor;
+import com.opengamma.opensimm.basics.Portfolio;
+import com.opengamma.opensimm.basics.PortfolioExposure;
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.RiskFactorProperties;
+import com.opengamma.opensimm.basics.RiskType;
+import com.opengamma.opensimm.basics.StandardRiskFactor;
+import com.opengamma.opensimm.util.Pair;
+
+/**
+ * Generates reproducible, random market data and portfolios of a
+ * configurable size for use in benchmarks.
+ * <p>
+ * Risk factors are spread evenly across the asset classes. Every risk
+ * factor and currency pair has the same number of shocks so the data
+ * always passes the calculator's validation. The same seed always
+ * produces the same data.
+ */
+public final class SyntheticMarketData {
+
+  /**
+   * The base currency of the generated data. All FX rates are quoted against it.
+   */
+  public static final Currency BASE_CURRENCY = Currency.getInstance("USD");
+
+  private static final AssetClass[] ASSET_CLASSES = AssetClass.values();
+
+  private final Random random;
+  private final List<Currency> currencies;
+  private final Map<RiskFactor, RiskFactorProperties> riskFactors = new LinkedHashMap<>();
+  private final Map<RiskFactor, Double> riskFactorLevels = new LinkedHashMap<>();
+  private final Map<RiskFactor, List<Double>> riskFactorShocks = new LinkedHashMap<>();
+  private final Map<Pair<Currency, Currency>, Double> fxRates = new LinkedHashMap<>();
+  private final Map<Pair<Currency, Currency>, List<Double>> fxShocks = new LinkedHashMap<>();
+  private final Map<RiskFactor, String> names = new LinkedHashMap<>();
+  private final Map<RiskFactor, String> shockDefinitions = new LinkedHashMap<>();
+
+  /**
+   * Generate market data of the specified size.
+   *
+   * @param riskFactorCount  the number of (non-FX) risk factors
+   * @param scenarioCount  the number of shocks for every risk factor and currency pair
+   * @param currencyCount  the number of currencies, including the base currency
+   * @param seed  the seed for the random number generator
+   * @return the generated data
+   */
+  public static SyntheticMarketData generate(int riskFactorCount, int scenarioCount, int currencyCount, long seed) {
+    return new SyntheticMarketData(riskFactorCount, scenarioCount, currencyCount, seed);
+  }
+
+  // Private constructor
+  private SyntheticMarketData(int riskFactorCount, int scenarioCount, int currencyCount, long seed) {
+    this.random = new Random(seed);
+    this.currencies = selectCurrencies(currencyCount);
+
+    for (int i = 0; i < riskFactorCount; i++) {
+      String name = String.format("RF-%06d", i);
+      RiskFactor riskFactor = StandardRiskFactor.of(name);
+      AssetClass assetClass = ASSET_CLASSES[i % ASSET_CLASSES.length];
+      boolean exposure = i % 5 == 0;
+      boolean relative = exposure || i % 3 == 0;
+
+      RiskFactorProperties properties = relative ?
+          RiskFactorProperties.relativeShock(
+              assetClass, exposure ? RiskType.EXPOSURE : RiskType.SENSITIVITY, exposure ? 0 : 0.01) :
+          RiskFactorProperties.absoluteShock(assetClass, RiskType.SENSITIVITY);
+      riskFactors.put(riskFactor, properties);
+      names.put(riskFactor, name);
+      shockDefinitions.put(riskFactor, relative ? (exposure ? "RE" : "RE,0.01") : "AB");
+      riskFactorLevels.put(riskFactor, exposure ? 50 + 100 * random.nextDouble() : 0.01 + 0.04 * random.nextDouble());
+      riskFactorShocks.put(riskFactor, relative ? shocks(scenarioCount, 1, 0.01) : shocks(scenarioCount, 0, 0.001));
+    }
+
+    currencies.stream()
+        .filter(ccy -> !ccy.equals(BASE_CURRENCY))
+        .forEach(ccy -> {
+          Pair<Currency, Currency> pair = Pair.of(ccy, BASE_CURRENCY);
+          fxRates.put(pair, 0.5 + 1.5 * random.nextDouble());
+          fxShocks.put(pair, shocks(scenarioCount, 1, 0.005));
+        });
+  }
+
+  /**
+   * Create a builder for a calculator populated with the generated data.
+   *
+   * @param varLevel  the VaR level for the calculator
+   * @return a builder populated with the data
+   */
+  public SimmCalculator.SimmCalculatorBuilder calculatorBuilder(double varLevel) {
+    return SimmCalculator.builder()
+        .varLevel(varLevel)
+        .baseCurrency(BASE_CURRENCY)
+        .riskFactors(riskFactors)
+        .riskFactorLevels(riskFactorLevels)
+        .fxMatrix(getFxMatrix())
+        .riskFactorShocks(riskFactorShocks)
+        .fxShocks(fxShocks);
+  }
+
+  /**
+   * Generate a random portfolio of exposures to the standard and FX risk factors.
+   *
+   * @param size  the number of exposures in the portfolio
+   * @return the portfolio exposures
+   */
+  public List<PortfolioExposure> portfolio(int size) {
+    List<RiskFactor> standard = new ArrayList<>(riskFactors.keySet());
+    return IntStream.range(0, size)
+        .mapToObj(i -> {
+          // Roughly one in ten exposures is to an FX risk factor
+          RiskFactor riskFactor = random.nextInt(10) == 0 ?
+              FxRiskFactor.of(randomCurrency()) :
+              standard.get(random.nextInt(standard.size()));
+          return PortfolioExposure.of(riskFactor, (random.nextDouble() - 0.5) * 2_000_000, randomCurrency());
+        })
+        .collect(toList());
+  }
+
+  /**
+   * Generate a number of random portfolios, each with no initial or variation margin.
+   *
+   * @param count  the number of portfolios
+   * @param size  the number of exposures in each portfolio
+   * @return the portfolios, keyed by their index
+   */
+  public Map<Integer, Portfolio> portfolios(int count, int size) {
+    Map<Integer, Portfolio> portfolios = new LinkedHashMap<>();
+    IntStream.range(0, count).forEach(i -> portfolios.put(i, Portfolio.of(portfolio(size))));
+    return portfolios;
+  }
+
+  /**
+   * Write the generated data to CSV files in the specified directory. The
+   * files have the same names and formats as the SIMM sample data, with
+   * the portfolio written as {@code portfolio-derivatives.csv}.
+   *
+   * @param directory  the directory to write to
+   * @param portfolioSize  the number of exposures in the portfolio file
+   * @throws IOException if there is a problem writing the files
+   */
+  public void writeCsvFiles(Path directory, int portfolioSize) throws IOException {
+    write(directory.resolve("risk-factor-definitions.csv"), "RiskFactorName,AssetClass,RiskType,ShockType,Shift", out ->
+        riskFactors.forEach((rf, props) -> out.println(name(rf) + "," + props.getAssetClass().name() + "," +
+            props.getRiskType().name() + "," + shockDefinitions.get(rf))));
+    write(directory.resolve("risk-factor-base-levels.csv"), "RiskFactorName,BaseLevel", out ->
+        riskFactorLevels.forEach((rf, level) -> out.println(name(rf) + "," + level)));
+    write(directory.resolve("risk-factor-shocks.csv"), "RiskFactorName,Shocks", out ->
+        riskFactorShocks.forEach((rf, shocks) -> out.println(name(rf) + "," + join(shocks))));
+    write(directory.resolve("fx-rates.csv"), "CurrencyPair,Rate", out ->
+        fxRates.forEach((pair, rate) -> out.println(pair(pair) + "," + rate)));
+    write(directory.resolve("fx-rate-shocks.csv"), "CurrencyPair,Shocks", out ->
+        fxShocks.forEach((pair, shocks) -> out.println(pair(pair) + "," + join(shocks))));
+    write(directory.resolve("portfolio-derivatives.csv"), "RiskFactorName,Amount,Currency", out ->
+        portfolio(portfolioSize).forEach(pe ->
+            out.println(name(pe.getRiskFactor()) + "," + pe.getAmount() + "," + pe.getCurrency())));
+  }
+
+  /**
+   * Get the risk factor definitions.
+   *
+   * @return the risk factor definitions
+   */
+  public Map<RiskFactor, RiskFactorProperties> getRiskFactors() {
+    return riskFactors;
+  }
+
+  /**
+   * Get the FX rates as currency pairs, each quoted against the base currency.
+   *
+   * @return the FX rates
+   */
+  public Map<Pair<Currency, Currency>, Double> getFxRates() {
+    return fxRates;
+  }
+
+  /**
+   * Get an FX matrix containing the FX rates.
+   *
+   * @return the FX matrix
+   */
+  public FxMatrix getFxMatrix() {
+    return FxMatrix.builder().addRates(fxRates).build();
+  }
+
+  /**
+   * Get the currencies, including the base currency.
+   *
+   * @return the currencies
+   */
+  public List<Currency> getCurrencies() {
+    return currencies;
+  }
+
+  private List<Double> shocks(int count, double mean, double stdDev) {
+    return DoubleStream.generate(() -> mean + stdDev * random.nextGaussian())
+        .limit(count)
+        .boxed()
+        .collect(toList());
+  }
+
+  private Currency randomCurrency() {
+    return currencies.get(random.nextInt(currencies.size()));
+  }
+
+  // The base currency followed by other real currencies in code order
+  private static List<Currency> selectCurrencies(int count) {
+    List<Currency> selected = new ArrayList<>();
+    selected.add(BASE_CURRENCY);
+    Currency.getAvailableCurrencies()
+        .stream()
+        .filter(ccy -> !ccy.equals(BASE_CURRENCY) && !ccy.getCurrencyCode().startsWith("X"))
+        .sorted((c1, c2) -> c1.getCurrencyCode().compareTo(c2.getCurrencyCode()))
+        .limit(count - 1)
+        .forEach(selected::add);
+    return selected;
+  }
+
+  private String name(RiskFactor riskFactor) {
+    return riskFactor instanceof FxRiskFactor ?
+        ((FxRiskFactor) riskFactor).getCurrency().getCurrencyCode() :
+        names.get(riskFactor);
+  }
+
+  private static String pair(Pair<Currency, Currency> pair) {
+    return pair.getFirst() + "/" + pair.getSecond();
+  }
+
+  private static String join(List<Double> values) {
+    return values.stream().map(String::valueOf).collect(joining(","));
+  }
+
+  private static void write(Path file, String header, Consumer<PrintWriter> rows) throws IOException {
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+      out.println(header);
+      rows.accept(out);
+    }
+  }
+}
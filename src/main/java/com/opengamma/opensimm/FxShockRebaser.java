@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm;
+
+import static com.opengamma.opensimm.util.CollectionUtils.toDoubleArray;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.opengamma.opensimm.util.ArgChecker;
+import com.opengamma.opensimm.util.Pair;
+
+/**
+ * Converts FX shocks defined for currency pairs into shocks for
+ * each currency relative to a base currency.
+ * <p>
+ * The currency pairs form a graph with a currency at each node. The
+ * graph is walked once from the base currency, and the shocks for
+ * each newly reached currency are derived from those of the currency
+ * it was reached from, multiplying by the pair shocks if the pair is
+ * traversed in its quoted direction and dividing by them otherwise.
+ * Each shock vector is therefore calculated with a single pass over
+ * the scenarios, rather than building an FX matrix per scenario.
+ * <p>
+ * The currency pairs are expected to be consistent, such that the
+ * shocks along any path between two currencies are the same. Where
+ * there is more than one path, the first one found is used.
+ */
+final class FxShockRebaser {
+
+  /**
+   * The shocks for each currency relative to the base currency.
+   */
+  private final Map<Currency, double[]> shocks;
+
+  /**
+   * The base currency.
+   */
+  private final Currency baseCurrency;
+
+  /**
+   * Create the rebased shocks for the specified base currency.
+   *
+   * @param baseCurrency  the base currency
+   * @param fxShocks  the shocks for each currency pair, which must
+   *   all have the same number of scenarios
+   * @return the rebased shocks
+   */
+  static FxShockRebaser of(Currency baseCurrency, Map<Pair<Currency, Currency>, List<Double>> fxShocks) {
+    return new FxShockRebaser(baseCurrency, fxShocks);
+  }
+
+  // Private constructor
+  private FxShockRebaser(Currency baseCurrency, Map<Pair<Currency, Currency>, List<Double>> fxShocks) {
+    this.baseCurrency = ArgChecker.notNull(baseCurrency, "baseCurrency");
+    ArgChecker.notNull(fxShocks, "fxShocks");
+    this.shocks = rebase(baseCurrency, fxShocks);
+  }
+
+  /**
+   * Get the shocks of the specified currency relative to the base
+   * currency, with one entry per scenario. Each shock is the rate
+   * for converting one unit of the base currency into the currency.
+   * The returned array must not be modified.
+   *
+   * @param currency  the currency to get the shocks for
+   * @return the shocks for the currency
+   * @throws IllegalArgumentException if the currency cannot be
+   *   reached from the base currency through the currency pairs
+   */
+  double[] getShocks(Currency currency) {
+    double[] currencyShocks = shocks.get(currency);
+    if (currencyShocks == null) {
+      throw new IllegalArgumentException(
+          "No FX shocks found for " + baseCurrency + "/" + currency +
+          " - FX shocks are only available for: " + shocks.keySet());
+    }
+    return currencyShocks;
+  }
+
+  //-------------------------------------------------------------------------
+  // Walk the currency graph breadth first from the base currency,
+  // calculating the shocks of each currency when it is first reached
+  private static Map<Currency, double[]> rebase(
+      Currency baseCurrency,
+      Map<Pair<Currency, Currency>, List<Double>> fxShocks) {
+
+    if (fxShocks.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    int scenarioCount = fxShocks.values().iterator().next().size();
+    Map<Currency, List<Edge>> edges = new HashMap<>();
+    fxShocks.forEach((pair, pairShocks) -> {
+      ArgChecker.isTrue(pairShocks.size() == scenarioCount, "All shocks must be the same length");
+      double[] values = toDoubleArray(pairShocks);
+      edges.computeIfAbsent(pair.getFirst(), ccy -> new ArrayList<>())
+          .add(new Edge(pair.getSecond(), values, false));
+      edges.computeIfAbsent(pair.getSecond(), ccy -> new ArrayList<>())
+          .add(new Edge(pair.getFirst(), values, true));
+    });
+
+    double[] baseShocks = new double[scenarioCount];
+    Arrays.fill(baseShocks, 1.0);
+    Map<Currency, double[]> result = new HashMap<>();
+    result.put(baseCurrency, baseShocks);
+
+    Deque<Currency> queue = new ArrayDeque<>();
+    queue.add(baseCurrency);
+    while (!queue.isEmpty()) {
+      Currency from = queue.remove();
+      double[] fromShocks = result.get(from);
+      for (Edge edge : edges.getOrDefault(from, Collections.emptyList())) {
+        if (!result.containsKey(edge.to)) {
+          result.put(edge.to, apply(fromShocks, edge));
+          queue.add(edge.to);
+        }
+      }
+    }
+    return result;
+  }
+
+  // Calculate the shocks of the currency at the end of an edge
+  private static double[] apply(double[] fromShocks, Edge edge) {
+    double[] toShocks = new double[fromShocks.length];
+    double[] pairShocks = edge.shocks;
+    if (edge.inverse) {
+      for (int s = 0; s < toShocks.length; s++) {
+        toShocks[s] = fromShocks[s] / pairShocks[s];
+      }
+    } else {
+      for (int s = 0; s < toShocks.length; s++) {
+        toShocks[s] = fromShocks[s] * pairShocks[s];
+      }
+    }
+    return toShocks;
+  }
+
+  //-------------------------------------------------------------------------
+  // A currency pair traversed from one of its currencies to the other
+  private static final class Edge {
+
+    private final Currency to;
+    private final double[] shocks;
+    private final boolean inverse;
+
+    private Edge(Currency to, double[] shocks, boolean inverse) {
+      this.to = to;
+      this.shocks = shocks;
+      this.inverse = inverse;
+    }
+  }
+
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm;
+
+import static com.opengamma.opensimm.util.SimmUtils.percentile;
+import static com.opengamma.opensimm.util.SimmUtils.percentileInPlace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.basics.Portfolio;
+import com.opengamma.opensimm.basics.PortfolioExposure;
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.util.ArgChecker;
+
+/**
+ * A session for answering what-if questions about a portfolio, such
+ * as the change in margin caused by adding a new trade.
+ * <p>
+ * On creation, the P&amp;L vector of the base portfolio is calculated
+ * for each asset class and retained. The VaR for the base portfolio
+ * plus a set of additional exposures is then calculated by adding
+ * only the market movements of the risk factors those exposures affect
+ * to the retained P&amp;L vectors. The cost is therefore proportional
+ * to the size of the change rather than the size of the portfolio, and
+ * asset classes which are not affected by the change are not
+ * recalculated at all.
+ * <p>
+ * Changes can also be added to the base portfolio permanently, for
+ * example once a trade has been accepted.
+ * <p>
+ * A session is created using {@link SimmCalculator#session(Portfolio)}.
+ * The session uses the calculator's market data snapshot as it was
+ * when the session was created, so the results are not affected if
+ * the calculator's snapshot is subsequently replaced. Sessions hold
+ * mutable state and are not thread-safe.
+ */
+public final class MarginSession {
+
+  /**
+   * The calculator holding the market movements.
+   */
+  private final SimmCalculator calculator;
+
+  /**
+   * The market data snapshot used by the session.
+   */
+  private final MarketDataSnapshot marketData;
+
+  /**
+   * The P&amp;L vector of the base portfolio for each asset class.
+   */
+  private final Map<AssetClass, double[]> profits;
+
+  /**
+   * The VaR of the base portfolio for each asset class.
+   */
+  private final Map<AssetClass, Double> var = new EnumMap<>(AssetClass.class);
+
+  /**
+   * Working space for each asset class, holding the updated profits
+   * for a what-if calculation and the values reordered when the
+   * percentile is computed.
+   */
+  private final Map<AssetClass, double[]> scratch = new EnumMap<>(AssetClass.class);
+
+  /**
+   * Create a session for the specified calculator and base portfolio.
+   *
+   * @param calculator  the calculator to use
+   * @param portfolio  the base portfolio
+   * @return a new session
+   */
+  static MarginSession of(SimmCalculator calculator, Portfolio portfolio) {
+    return new MarginSession(calculator, portfolio);
+  }
+
+  // Private constructor
+  private MarginSession(SimmCalculator calculator, Portfolio portfolio) {
+    this.calculator = ArgChecker.notNull(calculator, "calculator");
+    ArgChecker.notNull(portfolio, "portfolio");
+
+    this.marketData = calculator.getSnapshot();
+    this.profits = calculator.calculateProfits(marketData, portfolio);
+    profits.forEach((assetClass, assetClassProfits) -> {
+      scratch.put(assetClass, new double[assetClassProfits.length]);
+      var.put(assetClass, calculateVar(assetClass, assetClassProfits));
+    });
+  }
+
+  /**
+   * Get the VaR by asset class of the base portfolio, including any
+   * exposures which have been added to it.
+   *
+   * @return the VaR by asset class
+   */
+  public Map<AssetClass, Double> getVar() {
+    return Collections.unmodifiableMap(new EnumMap<>(var));
+  }
+
+  /**
+   * Calculate the VaR by asset class that would result from adding
+   * the specified exposures to the base portfolio. The base portfolio
+   * is not changed.
+   * <p>
+   * The result is the same as calculating the VaR of the base portfolio
+   * and the additional exposures from scratch, subject to rounding.
+   *
+   * @param exposures  the additional risk factor exposures, such as
+   *   those of a new trade
+   * @return the VaR by asset class including the additional exposures
+   */
+  public Map<AssetClass, Double> whatIf(List<PortfolioExposure> exposures) {
+    ArgChecker.notNull(exposures, "exposures");
+
+    Map<AssetClass, Double> result = new EnumMap<>(var);
+    affectedRows(exposures).forEach((assetClass, rows) -> {
+      double[] updated = scratch.get(assetClass);
+      System.arraycopy(profits.get(assetClass), 0, updated, 0, updated.length);
+      addMovements(assetClass, rows, updated);
+      result.put(assetClass, percentileInPlace(updated, calculator.getVarLevel()));
+    });
+    return result;
+  }
+
+  /**
+   * Add the specified exposures to the base portfolio permanently,
+   * returning the new VaR by asset class.
+   *
+   * @param exposures  the additional risk factor exposures, such as
+   *   those of an accepted trade
+   * @return the VaR by asset class of the updated base portfolio
+   */
+  public Map<AssetClass, Double> add(List<PortfolioExposure> exposures) {
+    ArgChecker.notNull(exposures, "exposures");
+
+    affectedRows(exposures).forEach((assetClass, rows) -> {
+      double[] assetClassProfits = profits.get(assetClass);
+      addMovements(assetClass, rows, assetClassProfits);
+      var.put(assetClass, calculateVar(assetClass, assetClassProfits));
+    });
+    return getVar();
+  }
+
+  //-------------------------------------------------------------------------
+  // Find the rows of the movement matrices affected by the exposures,
+  // with the adjusted exposure for each row, grouped by asset class.
+  // Exposures to risk factors which have no movements are ignored.
+  private Map<AssetClass, List<RowExposure>> affectedRows(List<PortfolioExposure> exposures) {
+    Map<AssetClass, List<RowExposure>> rows = new EnumMap<>(AssetClass.class);
+
+    marketData.convertExposures(exposures).forEach((riskFactor, exposure) -> {
+      int row = marketData.movementRow(riskFactor);
+      if (row >= 0 && exposure != 0) {
+        rows.computeIfAbsent(marketData.assetClass(riskFactor), ac -> new ArrayList<>())
+            .add(new RowExposure(row, exposure));
+      }
+    });
+    return rows;
+  }
+
+  // Add the movements of each row, scaled by its exposure, to the profits
+  private void addMovements(AssetClass assetClass, List<RowExposure> rows, double[] profits) {
+    double[][] movements = marketData.getMarketMovements().get(assetClass).getMovements();
+    for (RowExposure rowExposure : rows) {
+      double[] row = movements[rowExposure.row];
+      double exposure = rowExposure.exposure;
+      for (int s = 0; s < profits.length; s++) {
+        profits[s] += exposure * row[s];
+      }
+    }
+  }
+
+  // Calculate VaR without reordering the retained profits
+  private double calculateVar(AssetClass assetClass, double[] assetClassProfits) {
+    return percentile(assetClassProfits, calculator.getVarLevel(), scratch.get(assetClass));
+  }
+
+  //-------------------------------------------------------------------------
+  // The adjusted exposure to a row of a movement matrix
+  private static final class RowExposure {
+
+    private final int row;
+    private final double exposure;
+
+    private RowExposure(int row, double exposure) {
+      this.row = row;
+      this.exposure = exposure;
+    }
+  }
+
+}
@@ -0,0 +1,703 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm;
+
+import static com.opengamma.opensimm.basics.AssetClass.INTEREST_RATE;
+import static com.opengamma.opensimm.basics.RiskType.EXPOSURE;
+import static com.opengamma.opensimm.util.CollectionUtils.asList;
+import static com.opengamma.opensimm.util.CollectionUtils.pairsToMap;
+import static com.opengamma.opensimm.util.CollectionUtils.toDoubleArray;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.basics.FxMatrix;
+import com.opengamma.opensimm.basics.FxRiskFactor;
+import com.opengamma.opensimm.basics.PortfolioExposure;
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.RiskFactorProperties;
+import com.opengamma.opensimm.basics.RiskFactorRegistry;
+import com.opengamma.opensimm.basics.ShockType;
+import com.opengamma.opensimm.util.ArgChecker;
+import com.opengamma.opensimm.util.DoubleAccumulatorMap;
+import com.opengamma.opensimm.util.Pair;
+
+/**
+ * An immutable snapshot of the market data used by a {@link SimmCalculator}.
+ * <p>
+ * The snapshot holds the risk factor definitions, the base levels of
+ * the risk factors, the FX rates and the shocks, together with the
+ * market movements generated from them. Synthetic risk factors are
+ * generated for each currency in the FX matrix, with a base level
+ * of the rate from the base currency to the currency.
+ * <p>
+ * Base levels and FX rates change during the day while the shocks
+ * do not. A snapshot with updated levels or FX rates can therefore
+ * be derived from an existing one using {@link #withRiskFactorLevels(Map)}
+ * or {@link #withFxMatrix(FxMatrix)}. Only the market movements of the
+ * risk factors whose levels have changed are regenerated, with the rest
+ * shared with the original snapshot. The shocks are retained by the
+ * snapshot for this purpose.
+ * <p>
+ * Each risk factor is assigned an id, from zero to one less than the
+ * number of risk factors, which is shared by all snapshots derived from
+ * the same original snapshot. The ids and the canonical risk factor
+ * instances are held in a {@link RiskFactorRegistry}. Together with the
+ * currency ids of the FX matrix, these allow large numbers of exposures
+ * to be converted in bulk using {@link #convertExposures(double[], int[], int[])}.
+ * <p>
+ * Each snapshot has a version, which is incremented every time a new
+ * snapshot is derived. The snapshot used by a calculator can be replaced
+ * atomically, see {@link SimmCalculator#setSnapshot(MarketDataSnapshot)}.
+ */
+public final class MarketDataSnapshot {
+
+  /**
+   * The number of risk factors whose market movements are generated
+   * by each task when construction is split between threads.
+   */
+  private static final int RISK_FACTOR_CHUNK_SIZE = 256;
+
+  private final long version;
+  private final Currency baseCurrency;
+  private final int baseCurrencyId;
+  private final FxMatrix fxMatrix;
+  private final Map<RiskFactor, RiskFactorProperties> riskFactors;
+  private final Map<RiskFactor, Double> riskFactorLevels;
+  private final Map<AssetClass, Map<RiskFactor, List<Double>>> shocks;
+  private final Map<AssetClass, MovementMatrix> marketMovements;
+
+  /**
+   * The canonical risk factors and their ids.
+   */
+  private final RiskFactorRegistry registry;
+
+  /**
+   * The asset class of each risk factor, indexed by risk factor id.
+   */
+  private final AssetClass[] assetClasses;
+
+  /**
+   * The row of the movement matrix for the asset class holding the movements
+   * of each risk factor, indexed by risk factor id, or -1 if there are none.
+   * Rows do not change when a snapshot is derived.
+   */
+  private final int[] movementRows;
+
+  /**
+   * The divisor applied to exposures to each risk factor, indexed by
+   * risk factor id. This is the base level for exposure-based risk
+   * factors and 1 for sensitivity-based risk factors.
+   */
+  private final double[] exposureDivisors;
+
+  /**
+   * The rate from each currency to the base currency, indexed by currency
+   * id in the FX matrix, or null if the FX matrix does not contain the base
+   * currency.
+   */
+  private final double[] baseRates;
+
+  /**
+   * Create a snapshot from the market data, generating the market
+   * movements using the executor.
+   *
+   * @param baseCurrency  the base currency
+   * @param standardRiskFactors  the standard risk factors
+   * @param standardRiskFactorLevels  the base levels of the standard risk factors
+   * @param fxMatrix  the FX rates
+   * @param riskFactorShocks  the shocks for the standard risk factors
+   * @param fxShocks  the shocks for the currency pairs
+   * @param executor  the executor used to generate the market movements
+   * @return a new snapshot
+   */
+  static MarketDataSnapshot of(
+      Currency baseCurrency,
+      Map<RiskFactor, RiskFactorProperties> standardRiskFactors,
+      Map<RiskFactor, Double> standardRiskFactorLevels,
+      FxMatrix fxMatrix,
+      Map<RiskFactor, List<Double>> riskFactorShocks,
+      Map<Pair<Currency, Currency>, List<Double>> fxShocks,
+      Executor executor) {
+
+    Map<RiskFactor, RiskFactorProperties> riskFactors = generateRiskFactors(standardRiskFactors, fxMatrix);
+    Map<RiskFactor, Double> levels = generateRiskFactorLevels(baseCurrency, standardRiskFactorLevels, fxMatrix);
+    Map<AssetClass, Map<RiskFactor, List<Double>>> shocks =
+        generateShocks(baseCurrency, riskFactors, riskFactorShocks, fxShocks);
+
+    // Compute market movements for each asset class
+    Map<AssetClass, MovementMatrix> marketMovements = calculateMarketMovements(riskFactors, levels, shocks, executor);
+    RiskFactorRegistry registry = RiskFactorRegistry.of(riskFactors.keySet());
+    return new MarketDataSnapshot(
+        0,
+        baseCurrency,
+        fxMatrix,
+        riskFactors,
+        levels,
+        shocks,
+        marketMovements,
+        registry,
+        assetClasses(registry, riskFactors),
+        movementRows(registry, marketMovements));
+  }
+
+  // Private constructor
+  private MarketDataSnapshot(
+      long version,
+      Currency baseCurrency,
+      FxMatrix fxMatrix,
+      Map<RiskFactor, RiskFactorProperties> riskFactors,
+      Map<RiskFactor, Double> riskFactorLevels,
+      Map<AssetClass, Map<RiskFactor, List<Double>>> shocks,
+      Map<AssetClass, MovementMatrix> marketMovements,
+      RiskFactorRegistry registry,
+      AssetClass[] assetClasses,
+      int[] movementRows) {
+
+    this.version = version;
+    this.baseCurrency = baseCurrency;
+    this.baseCurrencyId = fxMatrix.getCurrencyId(baseCurrency);
+    this.fxMatrix = fxMatrix;
+    this.riskFactors = riskFactors;
+    this.riskFactorLevels = riskFactorLevels;
+    this.shocks = shocks;
+    this.marketMovements = marketMovements;
+    this.registry = registry;
+    this.assetClasses = assetClasses;
+    this.movementRows = movementRows;
+    this.exposureDivisors = exposureDivisors(registry, riskFactors, riskFactorLevels);
+    this.baseRates = baseRates(fxMatrix, baseCurrencyId);
+  }
+
+  /**
+   * Get the version of the snapshot. The version of a snapshot
+   * created by a builder is 0, and each derived snapshot has a
+   * version one greater than the snapshot it was derived from.
+   *
+   * @return the version of the snapshot
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Get the base currency, which VaR is calculated in.
+   *
+   * @return the base currency
+   */
+  public Currency getBaseCurrency() {
+    return baseCurrency;
+  }
+
+  /**
+   * Get the FX rates.
+   *
+   * @return the FX rates
+   */
+  public FxMatrix getFxMatrix() {
+    return fxMatrix;
+  }
+
+  /**
+   * Get the risk factors, including the synthetic risk
+   * factors generated for the currencies.
+   *
+   * @return the set of risk factors
+   */
+  public Set<RiskFactor> getRiskFactors() {
+    return riskFactors.keySet();
+  }
+
+  /**
+   * Get the base levels of the risk factors, including the synthetic
+   * risk factors generated for the currencies.
+   *
+   * @return the base level of each risk factor
+   */
+  public Map<RiskFactor, Double> getRiskFactorLevels() {
+    return riskFactorLevels;
+  }
+
+  /**
+   * Get the number of risk factors, including the synthetic risk
+   * factors generated for the currencies. Risk factor ids range
+   * from zero to one less than this number.
+   *
+   * @return the number of risk factors
+   */
+  public int getRiskFactorCount() {
+    return registry.size();
+  }
+
+  /**
+   * Get the registry holding the canonical instances of the risk factors,
+   * including the synthetic risk factors generated for the currencies.
+   * The ids of the registry are the risk factor ids of the snapshot.
+   * <p>
+   * Portfolios loaded using the registry refer to the same risk factor
+   * instances as the snapshot, so they are converted more quickly.
+   *
+   * @return the risk factor registry
+   */
+  public RiskFactorRegistry getRiskFactorRegistry() {
+    return registry;
+  }
+
+  /**
+   * Get the id of a risk factor, for use with
+   * {@link #convertExposures(double[], int[], int[])}.
+   *
+   * @param riskFactor  the risk factor
+   * @return the id of the risk factor, or -1 if it is not known
+   */
+  public int getRiskFactorId(RiskFactor riskFactor) {
+    return registry.getId(riskFactor);
+  }
+
+  /**
+   * Get the risk factor with the specified id.
+   *
+   * @param id  the id of the risk factor
+   * @return the risk factor
+   * @throws IndexOutOfBoundsException if the id is not valid
+   */
+  public RiskFactor getRiskFactor(int id) {
+    return registry.getRiskFactor(id);
+  }
+
+  /**
+   * Convert exposures in bulk, adjusting each for currency and the risk
+   * type of its risk factor, and aggregate them by risk factor.
+   * <p>
+   * Each exposure is given by an element of each of the arrays, which must
+   * all be the same length. The risk factors are identified by their ids
+   * in this snapshot and the currencies by their ids in the FX matrix.
+   * Each exposure is converted to the base currency and, if its risk
+   * factor is exposure-based, divided by the base level of the risk factor.
+   *
+   * @param amounts  the amount of each exposure
+   * @param riskFactorIds  the id of the risk factor of each exposure,
+   *   see {@link #getRiskFactorId(RiskFactor)}
+   * @param currencyIds  the id of the currency of each exposure,
+   *   see {@link FxMatrix#getCurrencyId(Currency)}
+   * @return the aggregated exposures, indexed by risk factor id
+   * @throws IllegalArgumentException if the arrays differ in length,
+   *   if an id is not valid, or if an exposure-based risk factor has
+   *   no base level
+   */
+  public double[] convertExposures(double[] amounts, int[] riskFactorIds, int[] currencyIds) {
+    ArgChecker.notNull(amounts, "amounts");
+    ArgChecker.isTrue(riskFactorIds.length == amounts.length && currencyIds.length == amounts.length,
+        "Arrays must be the same length but found {} amounts, {} risk factor ids and {} currency ids",
+        amounts.length, riskFactorIds.length, currencyIds.length);
+
+    double[] exposures = new double[registry.size()];
+    for (int i = 0; i < amounts.length; i++) {
+      int riskFactorId = riskFactorIds[i];
+      int currencyId = currencyIds[i];
+      if (riskFactorId < 0 || riskFactorId >= exposures.length) {
+        throw new IllegalArgumentException("Invalid risk factor id: " + riskFactorId + " at index " + i);
+      }
+      if (baseRates == null || currencyId < 0 || currencyId >= baseRates.length) {
+        throw new IllegalArgumentException("Invalid currency id: " + currencyId + " at index " + i);
+      }
+      exposures[riskFactorId] += amounts[i] * baseRates[currencyId] / exposureDivisor(riskFactorId);
+    }
+    return exposures;
+  }
+
+  /**
+   * Derive a snapshot with updated base levels for some of the
+   * standard risk factors. The levels of any risk factors not
+   * included are unchanged.
+   * <p>
+   * Only the market movements of the risk factors whose levels have
+   * changed are regenerated.
+   *
+   * @param levels  the updated base levels
+   * @return a new snapshot with the updated levels
+   * @throws IllegalArgumentException if a level is for an unknown
+   *   risk factor or for a currency, whose level is determined by
+   *   the FX rates
+   */
+  public MarketDataSnapshot withRiskFactorLevels(Map<RiskFactor, Double> levels) {
+    ArgChecker.notNull(levels, "levels");
+
+    Map<RiskFactor, Double> updated = new HashMap<>(riskFactorLevels);
+    levels.forEach((riskFactor, level) -> {
+      ArgChecker.isTrue(riskFactors.containsKey(riskFactor), "Unknown risk factor: {}", riskFactor);
+      ArgChecker.isFalse(riskFactor instanceof FxRiskFactor,
+          "Level of: {} is determined by the FX rates, use withFxMatrix to change it", riskFactor);
+      updated.put(riskFactor, ArgChecker.notNull(level, "level"));
+    });
+    return derive(fxMatrix, updated);
+  }
+
+  /**
+   * Derive a snapshot with updated FX rates. The FX matrix must
+   * contain the same currencies as the existing one.
+   * <p>
+   * The FX rates determine the levels of the synthetic currency risk
+   * factors, so only the market movements of the currencies whose
+   * rate against the base currency has changed are regenerated.
+   *
+   * @param fxMatrix  the updated FX rates
+   * @return a new snapshot with the updated FX rates
+   * @throws IllegalArgumentException if the currencies in the FX
+   *   matrix differ from the existing ones
+   */
+  public MarketDataSnapshot withFxMatrix(FxMatrix fxMatrix) {
+    ArgChecker.notNull(fxMatrix, "fxMatrix");
+    ArgChecker.isTrue(fxMatrix.getCurrencies().equals(this.fxMatrix.getCurrencies()),
+        "FX matrix must contain the currencies: {} but contains: {}",
+        this.fxMatrix.getCurrencies(), fxMatrix.getCurrencies());
+
+    Map<RiskFactor, Double> updated = new HashMap<>(riskFactorLevels);
+    updated.putAll(generateCurrencyRiskFactorLevels(baseCurrency, fxMatrix));
+    return derive(fxMatrix, updated);
+  }
+
+  //-------------------------------------------------------------------------
+  // Get the market movements for each asset class
+  Map<AssetClass, MovementMatrix> getMarketMovements() {
+    return marketMovements;
+  }
+
+  // Get the properties of a risk factor, or null if it is not known
+  RiskFactorProperties riskFactorProperties(RiskFactor riskFactor) {
+    return riskFactors.get(riskFactor);
+  }
+
+  // Get the asset class of a risk factor
+  AssetClass assetClass(RiskFactor riskFactor) {
+    return riskFactors.get(riskFactor).getAssetClass();
+  }
+
+  // Get the row of the movement matrix for its asset class holding
+  // the movements of a risk factor, or -1 if there are none
+  int movementRow(RiskFactor riskFactor) {
+    int riskFactorId = registry.getId(riskFactor);
+    return riskFactorId < 0 ? -1 : movementRows[riskFactorId];
+  }
+
+  // Take the portfolio exposures and convert so that it is
+  // categorized by risk factor. Adjusts for both currency
+  // and the risk type of the risk factor.
+  Map<RiskFactor, Double> convertExposures(List<PortfolioExposure> portfolioExposures) {
+    DoubleAccumulatorMap<RiskFactor> totals = DoubleAccumulatorMap.withExpectedSize(portfolioExposures.size());
+    addExposures(portfolioExposures, 1, totals);
+    return totals.toMap();
+  }
+
+  // Convert the exposures of a portfolio in a single pass, offsetting
+  // the exposures of any margin from those of the derivatives
+  Map<RiskFactor, Double> convertPortfolio(
+      List<PortfolioExposure> derivatives,
+      List<PortfolioExposure> initialMargin,
+      List<PortfolioExposure> variationMargin) {
+
+    DoubleAccumulatorMap<RiskFactor> totals =
+        DoubleAccumulatorMap.withExpectedSize(derivatives.size() + initialMargin.size() + variationMargin.size());
+    addExposures(derivatives, 1, totals);
+    addExposures(initialMargin, -1, totals);
+    addExposures(variationMargin, -1, totals);
+    return totals.toMap();
+  }
+
+  // Adjust each exposure and add it to the total for its risk factor
+  private void addExposures(List<PortfolioExposure> exposures, double sign, DoubleAccumulatorMap<RiskFactor> totals) {
+    for (PortfolioExposure pe : exposures) {
+      totals.add(pe.getRiskFactor(), sign * adjustExposure(pe));
+    }
+  }
+
+  // Adjust the exposure for currency and risk type
+  double adjustExposure(PortfolioExposure pe) {
+    int riskFactorId = getRiskFactorId(pe.getRiskFactor());
+    ArgChecker.isTrue(riskFactorId >= 0, "Unknown risk factor: {}", pe.getRiskFactor());
+    return pe.getAmount() * baseRate(pe.getCurrency()) / exposureDivisor(riskFactorId);
+  }
+
+  // Get the factor converting an amount of the exposure into the
+  // adjusted exposure to its risk factor, allowing for currency and
+  // risk type. This is the adjusted exposure per unit amount.
+  double exposureConversionFactor(PortfolioExposure pe) {
+    int riskFactorId = getRiskFactorId(pe.getRiskFactor());
+    ArgChecker.isTrue(riskFactorId >= 0, "Unknown risk factor: {}", pe.getRiskFactor());
+    return baseRate(pe.getCurrency()) / exposureDivisor(riskFactorId);
+  }
+
+  // Get the rate converting an amount in the currency into the base currency
+  private double baseRate(Currency currency) {
+    // Use the currency ids, falling back to the currency
+    // based lookup to report the error if there is no rate
+    int currencyId = fxMatrix.getCurrencyId(currency);
+    return currencyId >= 0 && baseRates != null ?
+        baseRates[currencyId] :
+        fxMatrix.getRate(currency, baseCurrency);
+  }
+
+  // Get the divisor for exposures to a risk factor, checking that an
+  // exposure-based risk factor has a usable base level
+  private double exposureDivisor(int riskFactorId) {
+    double divisor = exposureDivisors[riskFactorId];
+    if (Double.isNaN(divisor) || divisor == 0) {
+      throw new IllegalArgumentException("No base level found for: " + registry.getRiskFactor(riskFactorId));
+    }
+    return divisor;
+  }
+
+  // Arrange the exposures into a dense vector per asset class, aligned
+  // with the rows of the movement matrix for the asset class. Exposures
+  // to risk factors which have no movements are ignored.
+  Map<AssetClass, double[]> exposureVectors(Map<RiskFactor, Double> riskFactorExposures) {
+    Map<AssetClass, double[]> vectors = new EnumMap<>(AssetClass.class);
+    marketMovements.forEach((assetClass, movements) ->
+        vectors.put(assetClass, new double[movements.getRiskFactorCount()]));
+
+    riskFactorExposures.forEach((riskFactor, exposure) -> {
+      int riskFactorId = registry.getId(riskFactor);
+      ArgChecker.isTrue(riskFactorId >= 0, "Unknown risk factor: {}", riskFactor);
+      int row = movementRows[riskFactorId];
+      if (row >= 0) {
+        vectors.get(assetClasses[riskFactorId])[row] += exposure;
+      }
+    });
+    return vectors;
+  }
+
+  // Create a snapshot with the new FX rates and levels, regenerating
+  // the rows of the risk factors whose level has changed
+  private MarketDataSnapshot derive(FxMatrix updatedFxMatrix, Map<RiskFactor, Double> updatedLevels) {
+    Map<AssetClass, MovementMatrix> updatedMovements = new EnumMap<>(marketMovements);
+    marketMovements.forEach((assetClass, movements) -> {
+      Map<RiskFactor, List<Double>> assetClassShocks = shocks.get(assetClass);
+      Map<Integer, double[]> rows = new HashMap<>();
+      for (RiskFactor riskFactor : movements.getRiskFactors()) {
+        double level = updatedLevels.get(riskFactor);
+        if (Double.compare(level, riskFactorLevels.get(riskFactor)) != 0) {
+          ShockType shockType = riskFactors.get(riskFactor).getShockType();
+          rows.put(movements.rowIndex(riskFactor), marketMovements(level, shockType, assetClassShocks.get(riskFactor)));
+        }
+      }
+      if (!rows.isEmpty()) {
+        updatedMovements.put(assetClass, movements.withRows(rows));
+      }
+    });
+    return new MarketDataSnapshot(
+        version + 1,
+        baseCurrency,
+        updatedFxMatrix,
+        riskFactors,
+        Collections.unmodifiableMap(updatedLevels),
+        shocks,
+        Collections.unmodifiableMap(updatedMovements),
+        registry,
+        assetClasses,
+        movementRows);
+  }
+
+  private static AssetClass[] assetClasses(
+      RiskFactorRegistry registry,
+      Map<RiskFactor, RiskFactorProperties> riskFactors) {
+
+    AssetClass[] assetClasses = new AssetClass[registry.size()];
+    for (int i = 0; i < assetClasses.length; i++) {
+      assetClasses[i] = riskFactors.get(registry.getRiskFactor(i)).getAssetClass();
+    }
+    return assetClasses;
+  }
+
+  private static int[] movementRows(
+      RiskFactorRegistry registry,
+      Map<AssetClass, MovementMatrix> marketMovements) {
+
+    int[] rows = new int[registry.size()];
+    Arrays.fill(rows, -1);
+    marketMovements.values().forEach(movements -> {
+      List<RiskFactor> rowRiskFactors = movements.getRiskFactors();
+      for (int row = 0; row < rowRiskFactors.size(); row++) {
+        rows[registry.getId(rowRiskFactors.get(row))] = row;
+      }
+    });
+    return rows;
+  }
+
+  private static double[] exposureDivisors(
+      RiskFactorRegistry registry,
+      Map<RiskFactor, RiskFactorProperties> riskFactors,
+      Map<RiskFactor, Double> riskFactorLevels) {
+
+    // Exposure-based risk factors without a level cannot be used in a
+    // calculation, so their divisor is NaN and is rejected when used
+    double[] divisors = new double[registry.size()];
+    for (int i = 0; i < divisors.length; i++) {
+      RiskFactor riskFactor = registry.getRiskFactor(i);
+      divisors[i] = riskFactors.get(riskFactor).getRiskType() == EXPOSURE ?
+          riskFactorLevels.getOrDefault(riskFactor, Double.NaN) :
+          1;
+    }
+    return divisors;
+  }
+
+  private static double[] baseRates(FxMatrix fxMatrix, int baseCurrencyId) {
+    if (baseCurrencyId < 0) {
+      return null;
+    }
+    double[] rates = new double[fxMatrix.getCurrencyCount()];
+    for (int i = 0; i < rates.length; i++) {
+      rates[i] = fxMatrix.getRate(i, baseCurrencyId);
+    }
+    return rates;
+  }
+
+  // Generate synthetic risk factors for the currencies in the
+  // FX matrix and add them to the standard risk factors
+  private static Map<RiskFactor, RiskFactorProperties> generateRiskFactors(
+      Map<RiskFactor, RiskFactorProperties> riskFactors,
+      FxMatrix fxMatrix) {
+
+    Map<RiskFactor, RiskFactorProperties> standardRiskFactors = new HashMap<>(riskFactors);
+    standardRiskFactors.putAll(generateCurrencyRiskFactors(fxMatrix));
+    return Collections.unmodifiableMap(standardRiskFactors);
+  }
+
+  // Generate synthetic risk factor levels for the currencies
+  // using the rates in the matrix and add them to the standard
+  // risk factor levels
+  private static Map<RiskFactor, Double> generateRiskFactorLevels(
+      Currency baseCurrency,
+      Map<RiskFactor, Double> riskFactorLevels,
+      FxMatrix fxMatrix) {
+
+    Map<RiskFactor, Double> levels = new HashMap<>(riskFactorLevels);
+    levels.putAll(generateCurrencyRiskFactorLevels(baseCurrency, fxMatrix));
+    return Collections.unmodifiableMap(levels);
+  }
+
+  private static Map<AssetClass, MovementMatrix> calculateMarketMovements(
+      Map<RiskFactor, RiskFactorProperties> riskFactors,
+      Map<RiskFactor, Double> levels,
+      Map<AssetClass, Map<RiskFactor, List<Double>>> shocks,
+      Executor executor) {
+
+    // The rows of every asset class are split into chunks
+    // which can be generated independently
+    Map<AssetClass, List<RiskFactor>> rowRiskFactors = new EnumMap<>(AssetClass.class);
+    Map<AssetClass, double[][]> rows = new EnumMap<>(AssetClass.class);
+    List<Runnable> tasks = new ArrayList<>();
+
+    shocks.forEach((assetClass, assetClassShocks) -> {
+      List<RiskFactor> factors = new ArrayList<>(assetClassShocks.keySet());
+      double[][] movements = new double[factors.size()][];
+      rowRiskFactors.put(assetClass, factors);
+      rows.put(assetClass, movements);
+      int chunkSize = executor == SimmCalculator.SEQUENTIAL ? Math.max(factors.size(), 1) : RISK_FACTOR_CHUNK_SIZE;
+      for (int from = 0; from < factors.size(); from += chunkSize) {
+        int start = from;
+        int end = Math.min(from + chunkSize, factors.size());
+        tasks.add(() -> {
+          for (int i = start; i < end; i++) {
+            RiskFactor riskFactor = factors.get(i);
+            ShockType shockType = riskFactors.get(riskFactor).getShockType();
+            movements[i] = marketMovements(levels.get(riskFactor), shockType, assetClassShocks.get(riskFactor));
+          }
+        });
+      }
+    });
+    SimmCalculator.runAll(tasks, executor);
+
+    Map<AssetClass, MovementMatrix> movements = new EnumMap<>(AssetClass.class);
+    rows.forEach((assetClass, assetClassRows) ->
+        movements.put(assetClass, MovementMatrix.of(rowRiskFactors.get(assetClass), assetClassRows)));
+    return Collections.unmodifiableMap(movements);
+  }
+
+  // Generate the movements from the shocks, which are copied in bulk
+  // when they are held as primitives, such as those loaded from a
+  // binary shocks file, and then converted in place
+  private static double[] marketMovements(double initialLevel, ShockType shockType, List<Double> shocks) {
+    double[] movements = toDoubleArray(shocks);
+    for (int i = 0; i < movements.length; i++) {
+      movements[i] = shockType.calculateShiftedValue(initialLevel, movements[i]) - initialLevel;
+    }
+    return movements;
+  }
+
+  // Supplement the supplied risk factors with ones
+  // generated from the currencies in play
+  private static Map<RiskFactor, RiskFactorProperties> generateCurrencyRiskFactors(FxMatrix fxMatrix) {
+    // Fx risk factors are included in the INTEREST_RATE asset class
+    return generateCurrencyRiskFactors(fxMatrix, ccy -> RiskFactorProperties.relativeShock(INTEREST_RATE, EXPOSURE, 0));
+  }
+
+  private static Map<RiskFactor, Double> generateCurrencyRiskFactorLevels(Currency baseCcy, FxMatrix fxMatrix) {
+    return generateCurrencyRiskFactors(fxMatrix, ccy -> fxMatrix.getRate(baseCcy, ccy));
+  }
+
+  private static <T> Map<RiskFactor, T> generateCurrencyRiskFactors(
+      FxMatrix fxMatrix, Function<Currency, T> valueExtractor) {
+
+    return fxMatrix.getCurrencies()
+        .stream()
+        .collect(toMap(
+            FxRiskFactor::of, valueExtractor));
+  }
+
+  private static Map<AssetClass, Map<RiskFactor, List<Double>>> generateShocks(
+      Currency baseCcy,
+      Map<RiskFactor, RiskFactorProperties> riskFactorProperties,
+      Map<RiskFactor, List<Double>> riskFactorShocks,
+      Map<Pair<Currency, Currency>, List<Double>> fxShocks) {
+
+    // Create a stream containing the basic risk factor shocks and the FX shocks
+    Stream<Pair<RiskFactor, List<Double>>> combined = Stream.concat(
+        riskFactorShocks.entrySet().stream().map(e -> Pair.of(e.getKey(), e.getValue())),
+        rebaseFxShocks(baseCcy, riskFactorProperties.keySet(), fxShocks));
+
+    // Group and sort the results by asset class
+    return Collections.unmodifiableMap(combined.collect(
+        groupingBy(
+            p -> riskFactorProperties.get(p.getFirst()).getAssetClass(),
+            pairsToMap())));
+  }
+
+  // Take the shocks defined in terms of currency pairs and convert
+  // them so they are shocks against a single currency with respect
+  // to the base currency
+  private static Stream<Pair<RiskFactor, List<Double>>> rebaseFxShocks(
+      Currency baseCcy,
+      Set<RiskFactor> riskFactors,
+      Map<Pair<Currency, Currency>, List<Double>> fxShocks) {
+
+    FxShockRebaser rebaser = FxShockRebaser.of(baseCcy, fxShocks);
+
+    return riskFactors
+        .stream()
+        // Only want the FX risk factors
+        .filter(rf -> rf instanceof FxRiskFactor)
+        .map(rf -> (FxRiskFactor) rf)
+        .map(rf -> Pair.of(
+            rf,
+            fxShocks.isEmpty() ?
+                Collections.<Double>emptyList() :
+                asList(rebaser.getShocks(rf.getCurrency()))));
+  }
+
+}
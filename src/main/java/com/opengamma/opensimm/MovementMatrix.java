@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.util.ArgChecker;
+
+/**
+ * An immutable, dense matrix of market movements for the risk
+ * factors of a single asset class.
+ * <p>
+ * Each row of the matrix holds the movements of one risk factor
+ * across all the scenarios, so the element [i][j] is the movement
+ * of risk factor i in scenario j. Risk factors are indexed on
+ * construction so that the row for a risk factor can be located
+ * with a single lookup.
+ * <p>
+ * The rows are exposed directly to the calculator for performance
+ * and must not be modified.
+ */
+final class MovementMatrix {
+
+  /**
+   * The risk factors in row order.
+   */
+  private final List<RiskFactor> riskFactors;
+
+  /**
+   * The row index for each risk factor.
+   */
+  private final Map<RiskFactor, Integer> rowIndex;
+
+  /**
+   * The movements, one row per risk factor.
+   */
+  private final double[][] movements;
+
+  /**
+   * The number of scenarios, which is the length of every row.
+   */
+  private final int scenarioCount;
+
+  /**
+   * Create a matrix from the risk factors and their movements.
+   * The movements array is not copied so must not be modified
+   * after being passed to this method.
+   *
+   * @param riskFactors  the risk factors, in row order
+   * @param movements  the movements, one row per risk factor
+   * @return a new matrix
+   */
+  static MovementMatrix of(List<RiskFactor> riskFactors, double[][] movements) {
+    return new MovementMatrix(riskFactors, movements);
+  }
+
+  // Private constructor
+  private MovementMatrix(List<RiskFactor> riskFactors, double[][] movements) {
+    ArgChecker.notNull(riskFactors, "riskFactors");
+    ArgChecker.notNull(movements, "movements");
+    ArgChecker.isTrue(riskFactors.size() == movements.length,
+        "Number of risk factors: {} does not match number of rows: {}", riskFactors.size(), movements.length);
+
+    this.riskFactors = Collections.unmodifiableList(riskFactors);
+    this.movements = movements;
+    this.scenarioCount = movements.length == 0 ? 0 : movements[0].length;
+
+    Map<RiskFactor, Integer> index = new HashMap<>();
+    for (int i = 0; i < movements.length; i++) {
+      ArgChecker.isTrue(movements[i].length == scenarioCount, "All rows must have the same number of scenarios");
+      index.put(riskFactors.get(i), i);
+    }
+    this.rowIndex = index;
+  }
+
+  // Private constructor sharing the risk factors and index of an existing matrix
+  private MovementMatrix(MovementMatrix matrix, double[][] movements) {
+    this.riskFactors = matrix.riskFactors;
+    this.rowIndex = matrix.rowIndex;
+    this.scenarioCount = matrix.scenarioCount;
+    this.movements = movements;
+  }
+
+  /**
+   * Get the number of risk factors (rows) in the matrix.
+   *
+   * @return the number of risk factors
+   */
+  int getRiskFactorCount() {
+    return movements.length;
+  }
+
+  /**
+   * Get the number of scenarios (columns) in the matrix.
+   *
+   * @return the number of scenarios
+   */
+  int getScenarioCount() {
+    return scenarioCount;
+  }
+
+  /**
+   * Get the risk factors in row order.
+   *
+   * @return the risk factors
+   */
+  List<RiskFactor> getRiskFactors() {
+    return riskFactors;
+  }
+
+  /**
+   * Get the row index of the specified risk factor.
+   *
+   * @param riskFactor  the risk factor to find
+   * @return the row index, or -1 if the matrix has no movements for the risk factor
+   */
+  int rowIndex(RiskFactor riskFactor) {
+    Integer row = rowIndex.get(riskFactor);
+    return row == null ? -1 : row;
+  }
+
+  /**
+   * Get the movements of all risk factors. The returned array
+   * is the internal state of the matrix and must not be modified.
+   *
+   * @return the movements, one row per risk factor
+   */
+  double[][] getMovements() {
+    return movements;
+  }
+
+  /**
+   * Create a matrix with some of the rows replaced. The rows which
+   * are not replaced are shared with this matrix rather than copied.
+   * The replacement rows are not copied so must not be modified
+   * after being passed to this method.
+   *
+   * @param rows  the replacement rows, keyed by row index
+   * @return a new matrix with the rows replaced
+   */
+  MovementMatrix withRows(Map<Integer, double[]> rows) {
+    double[][] updated = movements.clone();
+    rows.forEach((row, rowMovements) -> {
+      ArgChecker.isTrue(rowMovements.length == scenarioCount, "All rows must have the same number of scenarios");
+      updated[row] = rowMovements;
+    });
+    return new MovementMatrix(this, updated);
+  }
+
+}
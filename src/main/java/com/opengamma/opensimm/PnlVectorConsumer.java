@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm;
+
+import com.opengamma.opensimm.basics.AssetClass;
+
+/**
+ * Receives the P&amp;L vectors calculated by
+ * {@link SimmCalculator#pnlVectors(java.util.Map, PnlVectorConsumer)}.
+ *
+ * @param <K>  the type of the portfolio identifier
+ */
+@FunctionalInterface
+public interface PnlVectorConsumer<K> {
+
+  /**
+   * Accept the P&amp;L vector of a portfolio for an asset class.
+   * <p>
+   * The profits are in scenario order. The array is reused once this
+   * method returns, so must not be retained, but may be modified.
+   *
+   * @param portfolio  the identifier of the portfolio
+   * @param assetClass  the asset class
+   * @param profits  the profit in each scenario
+   */
+  void accept(K portfolio, AssetClass assetClass, double[] profits);
+
+}
@@ -6,31 +6,42 @@
 package com.opengamma.opensimm;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.basics.Portfolio;
+import com.opengamma.opensimm.format.ArrowOutputFormatter;
 import com.opengamma.opensimm.format.CsvOutputFormatter;
 import com.opengamma.opensimm.format.OutputFormatter;
+import com.opengamma.opensimm.format.PnlVectorArrowWriter;
+import com.opengamma.opensimm.format.PnlVectorCsvWriter;
 import com.opengamma.opensimm.format.PrettyPrintOutputFormatter;
 import com.opengamma.opensimm.load.PropertyFileLoader;
+import com.opengamma.opensimm.server.SimmServer;
 import com.opengamma.opensimm.util.Pair;
 
 /**
  * Entry point to the SIMM calculation when running from
  * the command line.
  *
- * -pl - output P&amp;L vectors, otherwise just summary data
- * -o  - write output to named file
+ * -pl     - output P&amp;L vectors, otherwise just summary data
+ * -o      - write output to named file
+ * -server - load the market data once and calculate margin for
+ *           portfolios submitted over HTTP, see {@link SimmServer}
  */
 public class Simm {
 
@@ -39,10 +50,15 @@ public class Simm {
     if (args.length == 0) {
       System.err.println("Usage:");
       System.err.println("java Simm <configFileLocation> -pl -o <outputFile>");
+      System.err.println("java Simm <configFileLocation> -server <port>");
       System.err.println();
       System.err.println("<configFileLocation> - mandatory, location of config file");
       System.err.println("-pl                  - optional, output P&L vectors rather than summary data");
-      System.err.println("-o <outputFile>      - optional, write the output to the specified file rather than screen");
+      System.err.println("-o <outputFile>      - optional, write the output to the specified file rather than screen,");
+      System.err.println("                       compressed in gzip format if the file name ends with .gz,");
+      System.err.println("                       or in Arrow IPC file format if it ends with .arrow");
+      System.err.println("-server <port>       - optional, run a server calculating margin for portfolios submitted");
+      System.err.println("                       over HTTP on the specified port, rather than for the configured portfolio");
       return;
     }
 
@@ -59,38 +75,99 @@ public class Simm {
         .mapToObj(i -> args[i + 1])
         .findFirst();
 
+    Optional<Integer> serverPort = IntStream.range(0, args.length)
+        .filter(i -> args[i].equals("-server"))
+        .mapToObj(i -> Integer.parseInt(args[i + 1]))
+        .findFirst();
+
     PropertyFileLoader propertyFileLoader = parseConfigFile(configFile);
 
-    // If we're outputting to file, use a CSV format else pretty print on screen
+    if (serverPort.isPresent()) {
+      startServer(propertyFileLoader, serverPort.get());
+      return;
+    }
+
+    boolean detail = Stream.of(args).filter(s -> s.equals("-pl")).findFirst().isPresent();
+
+    // P&L vectors written to file are streamed rather than held in memory
+    if (detail && outputFile.isPresent()) {
+      writePnlVectors(outputFile.get(), propertyFileLoader);
+      return;
+    }
+
+    // If we're outputting to file, use a CSV or Arrow format else pretty print on screen
     OutputFormatter formatter =
-        outputFile.<OutputFormatter>map(CsvOutputFormatter::new)
+        outputFile.<OutputFormatter>map(Simm::createFileFormatter)
             .orElse(new PrettyPrintOutputFormatter());
 
-    boolean detail = Stream.of(args).filter(s -> s.equals("-pl")).findFirst().isPresent();
+    SimmResult result = propertyFileLoader.calculateAll();
     if (detail) {
-      populateFormatterWithPnlOutput(formatter, propertyFileLoader);
+      populateFormatterWithPnlOutput(formatter, result);
     } else {
-      populateFormmatterWithStandardOutput(formatter, propertyFileLoader);
+      populateFormmatterWithStandardOutput(formatter, result);
     }
 
     formatter.print();
   }
 
-  private static void populateFormmatterWithStandardOutput(OutputFormatter formatter, PropertyFileLoader propertyFileLoader) {
+  private static void startServer(PropertyFileLoader propertyFileLoader, int port) {
+    SimmServer server = SimmServer.of(
+        propertyFileLoader.getSimmCalculator(), port, Runtime.getRuntime().availableProcessors());
+    server.start();
+    System.out.println("SIMM server listening on port: " + server.getPort());
+  }
+
+  private static void writePnlVectors(String outputFile, PropertyFileLoader propertyFileLoader) throws IOException {
+    File file = new File(outputFile);
+    System.out.println("Writing data to file: " + file.getAbsolutePath());
+
+    Portfolio portfolio = propertyFileLoader.getPortfolio();
+    Map<String, Portfolio> portfolios = Collections.singletonMap("portfolio", portfolio);
+    if (isArrow(outputFile)) {
+      try (PnlVectorArrowWriter<String> writer = PnlVectorArrowWriter.of(new FileOutputStream(file))) {
+        propertyFileLoader.getSimmCalculator().pnlVectors(portfolios, writer);
+      }
+      return;
+    }
+    OutputStream out = new FileOutputStream(file);
+    if (isGzip(outputFile)) {
+      out = new GZIPOutputStream(out, 64 * 1024);
+    }
+    try (PnlVectorCsvWriter<String> writer = PnlVectorCsvWriter.of(out, false)) {
+      propertyFileLoader.getSimmCalculator().pnlVectors(portfolios, writer);
+    }
+  }
+
+  private static OutputFormatter createFileFormatter(String outputFile) {
+    return isArrow(outputFile) ?
+        new ArrowOutputFormatter(outputFile) :
+        CsvOutputFormatter.builder(outputFile).gzip(isGzip(outputFile)).build();
+  }
+
+  // Output files with a .arrow extension are written in the Arrow IPC file format
+  private static boolean isArrow(String outputFile) {
+    return outputFile.endsWith(".arrow");
+  }
+
+  // Output files with a .gz extension are compressed
+  private static boolean isGzip(String outputFile) {
+    return outputFile.endsWith(".gz");
+  }
+
+  private static void populateFormmatterWithStandardOutput(OutputFormatter formatter, SimmResult result) {
     NumberFormat format = NumberFormat.getNumberInstance();
     format.setMaximumFractionDigits(4);
     format.setMinimumFractionDigits(4);
 
-    Map<AssetClass, Double> var = propertyFileLoader.calculateVar();
+    Map<AssetClass, Double> var = result.getVar();
 
     formatter.addHeader("Asset Class", "Var");
     formatter.addRows(var.entrySet().stream().map(e -> Arrays.asList(e.getKey(), e.getValue())));
     formatter.addFooter("Total", var.values().stream().mapToDouble(d -> d).sum());
   }
 
-  private static void populateFormatterWithPnlOutput(OutputFormatter formatter, PropertyFileLoader propertyFileLoader) {
-    Map<AssetClass, List<Pair<Integer, Double>>> pnlVectors =
-        propertyFileLoader.calculatePnlVectors();
+  private static void populateFormatterWithPnlOutput(OutputFormatter formatter, SimmResult result) {
+    Map<AssetClass, List<Pair<Integer, Double>>> pnlVectors = result.getPnlVectors();
 
     formatter.addHeader("Asset Class", "Index", "P&L Vector");
     formatter.addRows(
@@ -6,48 +6,58 @@
 package com.opengamma.opensimm;
 
 import static com.opengamma.opensimm.basics.AssetClass.INTEREST_RATE;
-import static com.opengamma.opensimm.basics.RiskType.EXPOSURE;
-import static com.opengamma.opensimm.util.CollectionUtils.createMap;
-import static com.opengamma.opensimm.util.CollectionUtils.pairsToMap;
 import static com.opengamma.opensimm.util.SimmUtils.percentile;
-import static com.opengamma.opensimm.util.SimmUtils.profits;
+import static com.opengamma.opensimm.util.SimmUtils.percentileInPlace;
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toMap;
 import static java.util.stream.Collectors.toSet;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Currency;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.stream.Stream;
 
 import com.opengamma.opensimm.basics.AssetClass;
 import com.opengamma.opensimm.basics.FxMatrix;
-import com.opengamma.opensimm.basics.FxRiskFactor;
+import com.opengamma.opensimm.basics.Portfolio;
 import com.opengamma.opensimm.basics.PortfolioExposure;
 import com.opengamma.opensimm.basics.RiskFactor;
 import com.opengamma.opensimm.basics.RiskFactorProperties;
-import com.opengamma.opensimm.basics.RiskType;
-import com.opengamma.opensimm.basics.ShockType;
+import com.opengamma.opensimm.basics.RiskFactorRegistry;
 import com.opengamma.opensimm.util.ArgChecker;
 import com.opengamma.opensimm.util.Pair;
+import com.opengamma.opensimm.util.SimmUtils;
 
 /**
- * An immutable calculator responsible for performing
- * the majority of the SIMM calculation.
+ * A calculator responsible for performing the majority
+ * of the SIMM calculation.
  * <p>
  * On construction, the input data is used to construct the
  * shock structure which allows a VaR calculation to be performed
  * for a portfolio with exposure to some or all of the
- * risk factors.
+ * risk factors. The market movements are held as a dense
+ * matrix of primitive values per asset class, with a row
+ * for each risk factor and a column for each scenario.
+ * <p>
+ * The market data and movements are held in an immutable
+ * {@link MarketDataSnapshot}. The snapshot can be replaced
+ * atomically while the calculator is in use, for example when
+ * FX rates are re-marked, and each calculation uses the snapshot
+ * which was current when it started.
  * <p>
  * A calculator cannot be constructed directly. Instead a
  * builder should be used which can be created using the
@@ -55,15 +65,35 @@ import com.opengamma.opensimm.util.Pair;
  * <p>
  * Once a calculator has been initialized, it can
  * be used to calculate VaR for multiple portfolios.
+ * It is safe to use a calculator from multiple threads.
+ * <p>
+ * By default all calculations are performed on the calling
+ * thread. The builder allows an executor to be set so that work
+ * is shared between threads. The executor is owned by the caller,
+ * which is responsible for shutting it down.
  */
 public class SimmCalculator {
 
+  /**
+   * The number of portfolios whose P&amp;L vectors are computed
+   * together when calculating VaR for multiple portfolios.
+   */
+  private static final int PORTFOLIO_BLOCK_SIZE = 64;
+
+  /**
+   * The number of scenarios computed by each task when the P&amp;L
+   * of a single portfolio is split between threads.
+   */
+  private static final int SCENARIO_CHUNK_SIZE = 256;
+
+  /**
+   * Executor which runs tasks immediately on the calling thread.
+   */
+  static final Executor SEQUENTIAL = Runnable::run;
+
   private final double varLevel;
-  private final FxMatrix fxMatrix;
-  private final Currency baseCurrency;
-  private final Map<RiskFactor, RiskFactorProperties> riskFactors;
-  private final Map<RiskFactor, Double> riskFactorLevels;
-  private final Map<AssetClass, Map<RiskFactor, List<Double>>> marketMovements;
+  private final Executor executor;
+  private final AtomicReference<MarketDataSnapshot> snapshot;
 
   // Private constructor - use SimmCalculatorBuilder to create an instance
   private SimmCalculator(
@@ -73,19 +103,13 @@ public class SimmCalculator {
       Map<RiskFactor, Double> standardRiskFactorLevels,
       FxMatrix fxMatrix,
       Map<RiskFactor, List<Double>> riskFactorShocks,
-      Map<Pair<Currency, Currency>, List<Double>> fxShocks) {
+      Map<Pair<Currency, Currency>, List<Double>> fxShocks,
+      Executor executor) {
 
     this.varLevel = varLevel;
-    this.fxMatrix = fxMatrix;
-    this.baseCurrency = baseCurrency;
-    this.riskFactors = generateRiskFactors(standardRiskFactors, fxMatrix);
-    this.riskFactorLevels = generateRiskFactorLevels(baseCurrency, standardRiskFactorLevels, fxMatrix);
-
-    Map<AssetClass, Map<RiskFactor, List<Double>>> shocks =
-        generateShocks(baseCurrency, riskFactors, riskFactorShocks, fxShocks);
-
-    // Compute market movements for each asset class
-    this.marketMovements = calculateMarketMovements(riskFactors, riskFactorLevels, shocks);
+    this.executor = executor;
+    this.snapshot = new AtomicReference<>(MarketDataSnapshot.of(
+        baseCurrency, standardRiskFactors, standardRiskFactorLevels, fxMatrix, riskFactorShocks, fxShocks, executor));
   }
 
   /**
@@ -104,7 +128,68 @@ public class SimmCalculator {
    * @return the set of risk factors this calculator uses
    */
   public Set<RiskFactor> getRiskFactors() {
-    return riskFactors.keySet();
+    return snapshot.get().getRiskFactors();
+  }
+
+  /**
+   * Get the registry holding the canonical instances of the risk
+   * factors which this calculator has been initialized for.
+   * <p>
+   * Portfolios whose risk factors are resolved using the registry,
+   * for example by passing it to a loader, are converted more quickly.
+   *
+   * @return the risk factor registry
+   */
+  public RiskFactorRegistry getRiskFactorRegistry() {
+    return snapshot.get().getRiskFactorRegistry();
+  }
+
+  /**
+   * Get the market data snapshot currently used by the calculator.
+   *
+   * @return the current market data snapshot
+   */
+  public MarketDataSnapshot getSnapshot() {
+    return snapshot.get();
+  }
+
+  /**
+   * Replace the market data snapshot used by the calculator. The
+   * snapshot would normally have been derived from the current one
+   * using {@link MarketDataSnapshot#withRiskFactorLevels(Map)} or
+   * {@link MarketDataSnapshot#withFxMatrix(FxMatrix)}.
+   * <p>
+   * Calculations which are already running complete using
+   * the snapshot they started with.
+   *
+   * @param snapshot  the new market data snapshot
+   */
+  public void setSnapshot(MarketDataSnapshot snapshot) {
+    this.snapshot.set(ArgChecker.notNull(snapshot, "snapshot"));
+  }
+
+  /**
+   * Atomically update the base levels of some of the standard risk
+   * factors, regenerating only the market movements which change.
+   *
+   * @param levels  the updated base levels
+   * @return the new market data snapshot
+   * @see MarketDataSnapshot#withRiskFactorLevels(Map)
+   */
+  public MarketDataSnapshot updateRiskFactorLevels(Map<RiskFactor, Double> levels) {
+    return snapshot.updateAndGet(current -> current.withRiskFactorLevels(levels));
+  }
+
+  /**
+   * Atomically update the FX rates, regenerating only the
+   * market movements which change.
+   *
+   * @param fxMatrix  the updated FX rates
+   * @return the new market data snapshot
+   * @see MarketDataSnapshot#withFxMatrix(FxMatrix)
+   */
+  public MarketDataSnapshot updateFxMatrix(FxMatrix fxMatrix) {
+    return snapshot.updateAndGet(current -> current.withFxMatrix(fxMatrix));
   }
 
   /**
@@ -114,7 +199,8 @@ public class SimmCalculator {
    * @return the VaR by asset class
    */
   public Map<AssetClass, Double> varByAssetClass(List<PortfolioExposure> derivatives) {
-    return varByAssetClass(convertExposures(derivatives));
+    MarketDataSnapshot data = snapshot.get();
+    return calculateVar(data, data.convertExposures(derivatives));
   }
 
   /**
@@ -132,9 +218,77 @@ public class SimmCalculator {
       List<PortfolioExposure> initialMargin,
       List<PortfolioExposure> variationMargin) {
 
-    Map<RiskFactor, Double> converted = calculateExposureTotals(
-        convertExposures(derivatives), convertExposures(initialMargin), convertExposures(variationMargin));
-    return varByAssetClass(converted);
+    MarketDataSnapshot data = snapshot.get();
+    Map<RiskFactor, Double> converted = data.convertPortfolio(derivatives, initialMargin, variationMargin);
+    return calculateVar(data, converted);
+  }
+
+  /**
+   * Calculate the VaR by asset class for each of the specified portfolios.
+   * <p>
+   * The result for each portfolio is the same as would be obtained by
+   * calling {@link #varByAssetClass(List, List, List)} with its exposures.
+   * However, rather than passing over the market movements once per
+   * portfolio, the exposures of a block of portfolios are stacked into
+   * a matrix and the P&amp;L vectors for the whole block are computed
+   * with a single blocked matrix multiply per asset class. This makes
+   * margining a large number of portfolios considerably cheaper.
+   *
+   * @param portfolios  the portfolios, keyed by an identifier such as a netting set id
+   * @param <K>  the type of the portfolio identifier
+   * @return the VaR by asset class for each portfolio, keyed by the
+   *   portfolio identifier and in the iteration order of the input
+   */
+  public <K> Map<K, Map<AssetClass, Double>> varByAssetClass(Map<K, Portfolio> portfolios) {
+
+    MarketDataSnapshot data = snapshot.get();
+    Map<AssetClass, MovementMatrix> marketMovements = data.getMarketMovements();
+    List<K> keys = new ArrayList<>(portfolios.keySet());
+    Map<K, Map<AssetClass, Double>> results = new LinkedHashMap<>();
+    keys.forEach(k -> results.put(k, new EnumMap<>(AssetClass.class)));
+
+    // Profit buffers are reused by the blocks of portfolios processed
+    // during this call, and are released when it returns. Each task
+    // takes a buffer from the pool, or creates one, and returns it when
+    // done, so at most one buffer is created per concurrent task
+    Queue<Map<AssetClass, double[][]>> buffers = new ConcurrentLinkedQueue<>();
+
+    List<Runnable> tasks = new ArrayList<>();
+    for (int from = 0; from < keys.size(); from += PORTFOLIO_BLOCK_SIZE) {
+      List<K> block = keys.subList(from, Math.min(from + PORTFOLIO_BLOCK_SIZE, keys.size()));
+      tasks.add(() -> {
+        Map<AssetClass, double[][]> buffer = buffers.poll();
+        if (buffer == null) {
+          buffer = createProfitBuffer(marketMovements);
+        }
+        List<Map<AssetClass, double[]>> exposures = block.stream()
+            .map(k -> data.exposureVectors(convertPortfolio(data, portfolios.get(k))))
+            .collect(toList());
+
+        for (Map.Entry<AssetClass, MovementMatrix> entry : marketMovements.entrySet()) {
+          AssetClass assetClass = entry.getKey();
+          double[][] blockExposures = exposures.stream()
+              .map(e -> e.get(assetClass))
+              .toArray(double[][]::new);
+          double[][] profits =
+              SimmUtils.profits(entry.getValue().getMovements(), blockExposures, buffer.get(assetClass));
+          for (int i = 0; i < block.size(); i++) {
+            results.get(block.get(i)).put(assetClass, percentileInPlace(profits[i], varLevel));
+          }
+        }
+        buffers.offer(buffer);
+      });
+    }
+    runAll(tasks, executor);
+    return results;
+  }
+
+  // Create a buffer holding the profits of a block of portfolios for each asset class
+  private static Map<AssetClass, double[][]> createProfitBuffer(Map<AssetClass, MovementMatrix> marketMovements) {
+    Map<AssetClass, double[][]> buffer = new EnumMap<>(AssetClass.class);
+    marketMovements.forEach((assetClass, movements) ->
+        buffer.put(assetClass, new double[PORTFOLIO_BLOCK_SIZE][movements.getScenarioCount()]));
+    return buffer;
   }
 
   /**
@@ -159,233 +313,249 @@ public class SimmCalculator {
       List<PortfolioExposure> initialMargin,
       List<PortfolioExposure> variationMargin) {
 
-    Map<RiskFactor, Double> converted = calculateExposureTotals(
-        convertExposures(derivatives), convertExposures(initialMargin), convertExposures(variationMargin));
-
-    return Collections.unmodifiableMap(
-        marketMovements.entrySet()
-            .stream()
-            .collect(toMap(
-                Map.Entry::getKey,
-                // Type params added to keep eclipse happy
-                (Map.Entry<AssetClass, Map<RiskFactor, List<Double>>> e) ->
-                    pnlVectors(profits(e.getValue(), converted)))));
-  }
-
-  // Generate synthetic risk factors for the currencies in the
-  // FX matrix and add them to the standard risk factors
-  private static Map<RiskFactor, RiskFactorProperties> generateRiskFactors(
-      Map<RiskFactor, RiskFactorProperties> riskFactors,
-      FxMatrix fxMatrix) {
-
-    Map<RiskFactor, RiskFactorProperties> standardRiskFactors = new HashMap<>(riskFactors);
-    standardRiskFactors.putAll(generateCurrencyRiskFactors(fxMatrix));
-    return Collections.unmodifiableMap(standardRiskFactors);
-  }
-
-  // Generate synthetic risk factor levels for the currencies
-  // using the rates in the matrix and add them to the standard
-  // risk factor levels
-  private static Map<RiskFactor, Double> generateRiskFactorLevels(
-      Currency baseCurrency,
-      Map<RiskFactor, Double> riskFactorLevels,
-      FxMatrix fxMatrix) {
-
-    Map<RiskFactor, Double> levels = new HashMap<>(riskFactorLevels);
-    levels.putAll(generateCurrencyRiskFactorLevels(baseCurrency, fxMatrix));
-    return Collections.unmodifiableMap(levels);
-  }
+    MarketDataSnapshot data = snapshot.get();
+    Map<RiskFactor, Double> converted = data.convertPortfolio(derivatives, initialMargin, variationMargin);
 
-  // take the list of P&L (in shock order) and sort them from
-  // highest to lowest keeping track of the original position
-  private List<Pair<Integer, Double>> pnlVectors(List<Double> profits) {
-
-    return IntStream.range(0, profits.size())
-        .mapToObj(i -> Pair.of(i + 1, profits.get(i)))
-        .sorted((p1, p2) -> (int) (p2.getSecond() - p1.getSecond()))
-        .collect(toList());
+    Map<AssetClass, List<Pair<Integer, Double>>> pnlVectors = new EnumMap<>(AssetClass.class);
+    calculateProfits(data, converted).forEach((assetClass, profits) ->
+        pnlVectors.put(assetClass, pnlVectors(profits)));
+    return Collections.unmodifiableMap(pnlVectors);
   }
 
-  // Take the portfolio exposures and convert so that it is
-  // categorized by risk factor. Adjusts for both currency
-  // and the risk type of the risk factor.
-  public Map<RiskFactor, Double> convertExposures(List<PortfolioExposure> portfolioExposures) {
-
-    return portfolioExposures.stream()
-        .collect(groupingBy(PortfolioExposure::getRiskFactor))
-        .entrySet()
-        .stream()
-        .collect(toMap(
-            Map.Entry::getKey,
-            e -> adjustExposures(e.getValue())));
+  /**
+   * Calculate the P&amp;L vectors by asset class for each of the specified
+   * portfolios, passing each one to the consumer as it is calculated.
+   * <p>
+   * Unlike {@link #pnlVectorsByAssetClass(List, List, List)}, the
+   * P&amp;L vectors are supplied as primitive arrays in scenario order,
+   * and are not retained. The portfolios are processed in blocks, as for
+   * {@link #varByAssetClass(Map)}, and the arrays are reused for each
+   * block, so the memory used does not depend on the number of
+   * portfolios. This allows the P&amp;L vectors of a large number of
+   * portfolios to be streamed to a file, for example using
+   * {@link com.opengamma.opensimm.format.PnlVectorCsvWriter}.
+   * <p>
+   * The consumer is called on the calling thread, with the portfolios
+   * in the iteration order of the input and the asset classes in order.
+   * The array passed to the consumer must not be retained.
+   *
+   * @param portfolios  the portfolios, keyed by an identifier such as a netting set id
+   * @param consumer  the consumer receiving the P&amp;L vector of each
+   *   portfolio and asset class
+   * @param <K>  the type of the portfolio identifier
+   */
+  public <K> void pnlVectors(Map<K, Portfolio> portfolios, PnlVectorConsumer<? super K> consumer) {
+    ArgChecker.notNull(consumer, "consumer");
+    MarketDataSnapshot data = snapshot.get();
+    Map<AssetClass, MovementMatrix> marketMovements = data.getMarketMovements();
+
+    Map<AssetClass, double[][]> buffers = new EnumMap<>(AssetClass.class);
+    marketMovements.forEach((assetClass, movements) ->
+        buffers.put(assetClass, new double[PORTFOLIO_BLOCK_SIZE][movements.getScenarioCount()]));
+
+    List<K> keys = new ArrayList<>(portfolios.keySet());
+    for (int from = 0; from < keys.size(); from += PORTFOLIO_BLOCK_SIZE) {
+      List<K> block = keys.subList(from, Math.min(from + PORTFOLIO_BLOCK_SIZE, keys.size()));
+      List<Map<AssetClass, double[]>> exposures = block.stream()
+          .map(k -> data.exposureVectors(convertPortfolio(data, portfolios.get(k))))
+          .collect(toList());
+
+      // Calculate the whole block before passing any of it on
+      Map<AssetClass, double[][]> profits = new EnumMap<>(AssetClass.class);
+      marketMovements.forEach((assetClass, movements) -> {
+        double[][] blockExposures = exposures.stream()
+            .map(e -> e.get(assetClass))
+            .toArray(double[][]::new);
+        profits.put(assetClass, SimmUtils.profits(movements.getMovements(), blockExposures, buffers.get(assetClass)));
+      });
+      for (int i = 0; i < block.size(); i++) {
+        for (Map.Entry<AssetClass, double[][]> entry : profits.entrySet()) {
+          consumer.accept(block.get(i), entry.getKey(), entry.getValue()[i]);
+        }
+      }
+    }
   }
 
-  // Aggregate and adjust a list of exposures
-  private double adjustExposures(List<PortfolioExposure> exposures) {
-    return exposures
-        .stream()
-        .mapToDouble(this::adjustExposure)
-        .sum();
+  /**
+   * Calculate both the VaR and the P&amp;L vectors by asset class for
+   * the specified portfolio. The P&amp;L of each scenario is calculated
+   * once and used for both, so this is cheaper than calling
+   * {@link #varByAssetClass(List, List, List)} and
+   * {@link #pnlVectorsByAssetClass(List, List, List)} separately.
+   *
+   * @param portfolio  the portfolio to calculate for
+   * @return the VaR and P&amp;L vectors by asset class
+   */
+  public SimmResult calculateAll(Portfolio portfolio) {
+    MarketDataSnapshot data = snapshot.get();
+
+    Map<AssetClass, Double> var = new EnumMap<>(AssetClass.class);
+    Map<AssetClass, List<Pair<Integer, Double>>> pnlVectors = new EnumMap<>(AssetClass.class);
+    calculateProfits(data, portfolio).forEach((assetClass, profits) -> {
+      pnlVectors.put(assetClass, pnlVectors(profits));
+      var.put(assetClass, percentile(profits, varLevel));
+    });
+    return SimmResult.of(var, pnlVectors);
   }
 
-  // Adjust the exposure for currency and risk type
-  private double adjustExposure(PortfolioExposure pe) {
-    RiskFactor riskFactor = pe.getRiskFactor();
-    RiskType riskType = riskFactors.get(riskFactor).getRiskType();
-    double fxRate = fxMatrix.getRate(pe.getCurrency(), baseCurrency);
-    return pe.getAmount() * fxRate / (riskType == EXPOSURE ? riskFactorLevels.get(riskFactor) : 1);
-  }
+  /**
+   * Calculate the VaR by asset class for the specified portfolio exposures,
+   * attributing it to the risk factors and to each of the exposures.
+   * <p>
+   * The attribution is computed in a single pass alongside the VaR, by
+   * reading the market movements of the scenarios which determine the
+   * VaR of each asset class. See {@link VarAttribution} for details.
+   *
+   * @param derivatives  the risk factor exposures of the portfolio
+   * @param initialMargin  the risk factor exposures of any initial margin
+   * @param variationMargin  the risk factor exposures of any variation margin
+   * @return the VaR by asset class and its attribution
+   */
+  public VarAttribution varAttribution(
+      List<PortfolioExposure> derivatives,
+      List<PortfolioExposure> initialMargin,
+      List<PortfolioExposure> variationMargin) {
 
-  private Map<AssetClass, Double> varByAssetClass(Map<RiskFactor, Double> riskFactorExposures) {
-    return marketMovements.entrySet()
-        .stream()
-        .collect(toMap(
-            Map.Entry::getKey,
-            // Type params added to keep eclipse happy
-            (Map.Entry<AssetClass, Map<RiskFactor, List<Double>>> e) ->
-                percentile(profits(e.getValue(), riskFactorExposures), varLevel)));
+    MarketDataSnapshot data = snapshot.get();
+    Map<RiskFactor, Double> converted = data.convertPortfolio(derivatives, initialMargin, variationMargin);
+
+    Map<AssetClass, Double> var = new EnumMap<>(AssetClass.class);
+    Map<AssetClass, List<Pair<Integer, Double>>> scenarios = new EnumMap<>(AssetClass.class);
+    calculateProfits(data, converted).forEach((assetClass, profits) -> {
+      scenarios.put(assetClass, SimmUtils.percentileScenarios(profits, varLevel));
+      var.put(assetClass, percentile(profits, varLevel));
+    });
+
+    // The marginal VaR of a risk factor is its market movement,
+    // interpolated between the scenarios determining the VaR
+    Map<RiskFactor, Double> marginalVar = new HashMap<>();
+    Map<RiskFactor, Double> componentVar = new HashMap<>();
+    converted.forEach((riskFactor, exposure) -> {
+      AssetClass assetClass = data.assetClass(riskFactor);
+      int row = data.movementRow(riskFactor);
+      double marginal = 0;
+      if (row >= 0) {
+        double[] riskFactorMovements = data.getMarketMovements().get(assetClass).getMovements()[row];
+        for (Pair<Integer, Double> scenario : scenarios.get(assetClass)) {
+          marginal += scenario.getSecond() * riskFactorMovements[scenario.getFirst()];
+        }
+      }
+      marginalVar.put(riskFactor, marginal);
+      componentVar.put(riskFactor, exposure * marginal);
+    });
+
+    // The marginal VaR of an exposure is that of its risk factor, scaled
+    // by the conversion of its amount, with margin offsetting the portfolio
+    List<Pair<PortfolioExposure, Double>> exposureMarginalVar = new ArrayList<>();
+    List<Pair<PortfolioExposure, Double>> exposureComponentVar = new ArrayList<>();
+    BiConsumer<PortfolioExposure, Double> attribute = (pe, sign) -> {
+      double marginal = sign * data.exposureConversionFactor(pe) * marginalVar.get(pe.getRiskFactor());
+      exposureMarginalVar.add(Pair.of(pe, marginal));
+      exposureComponentVar.add(Pair.of(pe, sign * data.adjustExposure(pe) * marginalVar.get(pe.getRiskFactor())));
+    };
+    derivatives.forEach(pe -> attribute.accept(pe, 1d));
+    Stream.concat(initialMargin.stream(), variationMargin.stream()).forEach(pe -> attribute.accept(pe, -1d));
+
+    return VarAttribution.of(var, marginalVar, componentVar, exposureMarginalVar, exposureComponentVar);
   }
 
-  private static Map<RiskFactor, Double> calculateExposureTotals(
-      Map<RiskFactor, Double> adjustedDeltaDerivatives,
-      Map<RiskFactor, Double> adjustedDeltaVariationMargin,
-      Map<RiskFactor, Double> adjustedDeltaInitialMargin) {
-
-    // Concatenate all keys together to ensure we have all keys no
-    // matter which map they came from
-    Stream<RiskFactor> combined = Stream.concat(
-        adjustedDeltaDerivatives.keySet().stream(),
-        Stream.concat(
-            adjustedDeltaVariationMargin.keySet().stream(),
-            adjustedDeltaInitialMargin.keySet().stream()));
-
-    return combined
-        .distinct()
-        .collect(toMap(
-            rf -> rf,
-            rf -> adjustedDeltaDerivatives.getOrDefault(rf, 0d)
-                - adjustedDeltaVariationMargin.getOrDefault(rf, 0d)
-                - adjustedDeltaInitialMargin.getOrDefault(rf, 0d)
-        ));
+  /**
+   * Create a what-if session for the specified portfolio, which can
+   * be used to efficiently calculate the effect on VaR of changes to
+   * the portfolio, such as adding a new trade.
+   *
+   * @param portfolio  the base portfolio for the session
+   * @return a new session
+   */
+  public MarginSession session(Portfolio portfolio) {
+    return MarginSession.of(this, portfolio);
   }
 
-  private static Map<AssetClass, Map<RiskFactor, List<Double>>> calculateMarketMovements(
-      Map<RiskFactor, RiskFactorProperties> riskFactors,
-      Map<RiskFactor, Double> levels,
-      Map<AssetClass, Map<RiskFactor, List<Double>>> shocks) {
-
-    return shocks.entrySet()
-        .stream()
-        .collect(toMap(
-            Map.Entry::getKey,
-            e -> marketMovements(levels, e.getValue(), riskFactors)));
+  //-------------------------------------------------------------------------
+  // Get the VaR level used by the calculator
+  double getVarLevel() {
+    return varLevel;
   }
 
-  private static Map<RiskFactor, List<Double>> marketMovements(
-      Map<RiskFactor, Double> initialMarket,
-      Map<RiskFactor, List<Double>> shocks,
-      Map<RiskFactor, RiskFactorProperties> riskFactorsProperties){
-
-    return Collections.<RiskFactor, List<Double>>unmodifiableMap(
-        shocks.entrySet()
-            .stream()
-            .collect(Collectors.toMap(
-                Map.Entry::getKey,
-                // Type params added to keep eclipse happy
-                (Map.Entry<RiskFactor, List<Double>> e) -> {
-                  RiskFactor riskFactor = e.getKey();
-                  RiskFactorProperties riskFactorProps = riskFactorsProperties.get(riskFactor);
-                  double initialLevel = initialMarket.get(riskFactor);
-                  ShockType shockType = riskFactorProps.getShockType();
-                  return Collections.unmodifiableList(
-                      e.getValue()
-                          .stream()
-                          .map(sh -> shockType.calculateShiftedValue(initialLevel, sh) - initialLevel)
-                          .collect(Collectors.toList()));
-                }
-            )));
+  // Compute the profit in each scenario for each asset class for a portfolio
+  Map<AssetClass, double[]> calculateProfits(MarketDataSnapshot data, Portfolio portfolio) {
+    return calculateProfits(data, convertPortfolio(data, portfolio));
   }
 
-  // Supplement the supplied risk factors with ones
-  // generated from the currencies in play
-  private static Map<RiskFactor, RiskFactorProperties> generateCurrencyRiskFactors(FxMatrix fxMatrix) {
-    // Fx risk factors are included in the INTEREST_RATE asset class
-    return generateCurrencyRiskFactors(fxMatrix, ccy -> RiskFactorProperties.relativeShock(INTEREST_RATE, EXPOSURE, 0));
+  // take the list of P&L (in shock order) and sort them from
+  // highest to lowest keeping track of the original position
+  private List<Pair<Integer, Double>> pnlVectors(double[] profits) {
+    int[] order = SimmUtils.descendingOrder(profits);
+    List<Pair<Integer, Double>> vectors = new ArrayList<>(order.length);
+    for (int i : order) {
+      vectors.add(Pair.of(i + 1, profits[i]));
+    }
+    return vectors;
   }
 
-  private static Map<RiskFactor, Double> generateCurrencyRiskFactorLevels(Currency baseCcy, FxMatrix fxMatrix) {
-    return generateCurrencyRiskFactors(fxMatrix, ccy -> fxMatrix.getRate(baseCcy, ccy));
+  // Take the portfolio exposures and convert so that it is
+  // categorized by risk factor. Adjusts for both currency
+  // and the risk type of the risk factor.
+  public Map<RiskFactor, Double> convertExposures(List<PortfolioExposure> portfolioExposures) {
+    return snapshot.get().convertExposures(portfolioExposures);
   }
 
-  private static <T> Map<RiskFactor, T> generateCurrencyRiskFactors(
-      FxMatrix fxMatrix, Function<Currency, T> valueExtractor) {
-
-    return fxMatrix.getCurrencies()
-        .stream()
-        .collect(toMap(
-            FxRiskFactor::of, valueExtractor));
+  // Convert the exposures of the portfolio, offsetting any margin
+  private static Map<RiskFactor, Double> convertPortfolio(MarketDataSnapshot data, Portfolio portfolio) {
+    return data.convertPortfolio(portfolio.getDerivatives(), portfolio.getInitialMargin(), portfolio.getVariationMargin());
   }
 
-  private static Map<AssetClass, Map<RiskFactor, List<Double>>> generateShocks(
-      Currency baseCcy,
-      Map<RiskFactor, RiskFactorProperties> riskFactorProperties,
-      Map<RiskFactor, List<Double>> riskFactorShocks,
-      Map<Pair<Currency, Currency>, List<Double>> fxShocks) {
-
-    // Create a stream containing the basic risk factor shocks and the FX shocks
-    Stream<Pair<RiskFactor, List<Double>>> combined = Stream.concat(
-        riskFactorShocks.entrySet().stream().map(e -> Pair.of(e.getKey(), e.getValue())),
-        rebaseFxShocks(baseCcy, riskFactorProperties.keySet(), fxShocks));
-
-    // Group and sort the results by asset class
-    return combined.collect(
-        groupingBy(
-            p -> riskFactorProperties.get(p.getFirst()).getAssetClass(),
-            pairsToMap()));
+  private Map<AssetClass, Double> calculateVar(MarketDataSnapshot data, Map<RiskFactor, Double> riskFactorExposures) {
+    Map<AssetClass, Double> var = new EnumMap<>(AssetClass.class);
+    calculateProfits(data, riskFactorExposures).forEach((assetClass, profits) ->
+        var.put(assetClass, percentileInPlace(profits, varLevel)));
+    return var;
   }
 
-  // Take the shocks defined in terms of currency pairs and convert
-  // them so they are shocks against a single currency with respect
-  // to the base currency
-  private static Stream<Pair<RiskFactor, List<Double>>> rebaseFxShocks(
-      Currency baseCcy,
-      Set<RiskFactor> riskFactors,
-      Map<Pair<Currency, Currency>, List<Double>> fxShocks) {
-
-    List<FxMatrix> matrices = fxShocks.entrySet()
-        .stream()
-        .map(e -> e.getValue().stream().map(d -> createMap(e.getKey(), d)).collect(toList()))
-        .reduce((l1, l2) ->
-            IntStream.range(0, l1.size())
-                .mapToObj(i -> mergeMaps(l1.get(i), l2.get(i)))
-                .collect(toList()))
-        .map(l ->
-            l.stream()
-                .map(m ->
-                    m.entrySet()
-                        .stream()
-                        .collect(FxMatrix.entryCollector()))
-                .collect(toList()))
-        .orElse(new ArrayList<>());
-
-    return riskFactors
-        .stream()
-        // Only want the FX risk factors
-        .filter(rf -> rf instanceof FxRiskFactor)
-        .map(rf -> (FxRiskFactor) rf)
-        .map(rf -> Pair.of(
-            rf,
-            matrices.stream()
-                .map(mx -> mx.getRate(baseCcy, rf.getCurrency()))
-                .collect(toList())));
+  // Compute the profit in each scenario for each asset class. When
+  // running in parallel the scenarios of each asset class are split
+  // into chunks which are computed independently.
+  private Map<AssetClass, double[]> calculateProfits(
+      MarketDataSnapshot data,
+      Map<RiskFactor, Double> riskFactorExposures) {
+
+    Map<AssetClass, double[]> exposures = data.exposureVectors(riskFactorExposures);
+    Map<AssetClass, double[]> profits = new EnumMap<>(AssetClass.class);
+    List<Runnable> tasks = new ArrayList<>();
+
+    data.getMarketMovements().forEach((assetClass, movements) -> {
+      int scenarios = movements.getScenarioCount();
+      double[] out = new double[scenarios];
+      profits.put(assetClass, out);
+      int chunkSize = executor == SEQUENTIAL ? Math.max(scenarios, 1) : SCENARIO_CHUNK_SIZE;
+      for (int from = 0; from < scenarios; from += chunkSize) {
+        int start = from;
+        int end = Math.min(from + chunkSize, scenarios);
+        tasks.add(() -> SimmUtils.profits(movements.getMovements(), exposures.get(assetClass), out, start, end));
+      }
+    });
+    runAll(tasks, executor);
+    return profits;
   }
 
-  // Combine a pair of maps with distinct into one
-  private static <K, V> Map<K, V> mergeMaps(Map<K, V> m1, Map<K, V> m2) {
-    Map<K, V> m = new HashMap<>();
-    m.putAll(m1);
-    m.putAll(m2);
-    return m;
+  // Run the tasks using the executor, waiting for them all to complete
+  static void runAll(List<Runnable> tasks, Executor executor) {
+    if (executor == SEQUENTIAL) {
+      tasks.forEach(Runnable::run);
+    } else {
+      CompletableFuture<?>[] futures = tasks.stream()
+          .map(task -> CompletableFuture.runAsync(task, executor))
+          .toArray(CompletableFuture<?>[]::new);
+      try {
+        CompletableFuture.allOf(futures).join();
+      } catch (CompletionException e) {
+        // Rethrow the original exception if possible
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw e;
+      }
+    }
   }
 
   /**
@@ -405,6 +575,7 @@ public class SimmCalculator {
     private FxMatrix fxMatrix = FxMatrix.EMPTY_FX_MATRIX;
     private Map<RiskFactor, List<Double>> riskFactorShocks = new HashMap<>();
     private Map<Pair<Currency, Currency>, List<Double>> fxShocks = new HashMap<>();
+    private Executor executor = SEQUENTIAL;
 
     // Private constructor, use SimmCalculator.builder();
     private SimmCalculatorBuilder() {
@@ -424,7 +595,8 @@ public class SimmCalculator {
       checkShockLengths(standardRiskFactors, riskFactorShocks, fxShocks);
 
       return new SimmCalculator(
-          varLevel, baseCurrency, standardRiskFactors, standardRiskFactorLevels, fxMatrix, riskFactorShocks, fxShocks);
+          varLevel, baseCurrency, standardRiskFactors, standardRiskFactorLevels, fxMatrix, riskFactorShocks, fxShocks,
+          executor);
     }
 
     /**
@@ -508,6 +680,28 @@ public class SimmCalculator {
       return this;
     }
 
+    /**
+     * Set the executor to be used to perform the calculations, both
+     * when the calculator is built and when it is used.
+     * <p>
+     * Work is split into independent tasks across asset classes, chunks
+     * of scenarios or risk factors, and blocks of portfolios, which are
+     * submitted to the executor. The calling thread waits for the tasks
+     * to complete, so calculations should not be started from a task
+     * running on a bounded executor used by the calculator.
+     * <p>
+     * The calculator does not shut the executor down, so the caller
+     * remains responsible for its lifecycle. By default, all
+     * calculations are performed on the calling thread.
+     *
+     * @param executor  the executor to run calculation tasks
+     * @return the builder
+     */
+    public SimmCalculatorBuilder executor(Executor executor) {
+      this.executor = ArgChecker.notNull(executor, "executor");
+      return this;
+    }
+
     private void checkCurrencies(
         Currency baseCurrency,
         FxMatrix fxMatrix,
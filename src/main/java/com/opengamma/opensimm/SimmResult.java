@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.util.ArgChecker;
+import com.opengamma.opensimm.util.Pair;
+
+/**
+ * The VaR and P&amp;L vectors by asset class of a portfolio,
+ * calculated together from a single set of P&amp;L vectors.
+ */
+public final class SimmResult {
+
+  /**
+   * The VaR by asset class.
+   */
+  private final Map<AssetClass, Double> var;
+
+  /**
+   * The P&amp;L vectors by asset class.
+   */
+  private final Map<AssetClass, List<Pair<Integer, Double>>> pnlVectors;
+
+  /**
+   * Creates a new result.
+   *
+   * @param var  the VaR by asset class
+   * @param pnlVectors  the P&amp;L vectors by asset class
+   * @return a new result
+   */
+  static SimmResult of(Map<AssetClass, Double> var, Map<AssetClass, List<Pair<Integer, Double>>> pnlVectors) {
+    return new SimmResult(var, pnlVectors);
+  }
+
+  // Private constructor
+  private SimmResult(Map<AssetClass, Double> var, Map<AssetClass, List<Pair<Integer, Double>>> pnlVectors) {
+    this.var = Collections.unmodifiableMap(ArgChecker.notNull(var, "var"));
+    this.pnlVectors = Collections.unmodifiableMap(ArgChecker.notNull(pnlVectors, "pnlVectors"));
+  }
+
+  /**
+   * Get the VaR by asset class, which is the same as that
+   * calculated by {@link SimmCalculator#varByAssetClass}.
+   *
+   * @return the VaR by asset class
+   */
+  public Map<AssetClass, Double> getVar() {
+    return var;
+  }
+
+  /**
+   * Get the P&amp;L vectors by asset class, which are the same as those
+   * calculated by {@link SimmCalculator#pnlVectorsByAssetClass}.
+   *
+   * @return the P&amp;L vectors by asset class
+   */
+  public Map<AssetClass, List<Pair<Integer, Double>>> getPnlVectors() {
+    return pnlVectors;
+  }
+
+}
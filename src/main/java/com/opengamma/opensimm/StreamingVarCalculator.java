@@ -0,0 +1,496 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm;
+
+import static com.opengamma.opensimm.basics.AssetClass.INTEREST_RATE;
+import static com.opengamma.opensimm.util.CollectionUtils.asList;
+import static com.opengamma.opensimm.util.SimmUtils.percentileInPlace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.basics.FxMatrix;
+import com.opengamma.opensimm.basics.FxRiskFactor;
+import com.opengamma.opensimm.basics.Portfolio;
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.RiskFactorProperties;
+import com.opengamma.opensimm.basics.ShockType;
+import com.opengamma.opensimm.load.ScenarioBlockReader;
+import com.opengamma.opensimm.util.ArgChecker;
+import com.opengamma.opensimm.util.Pair;
+
+/**
+ * Calculates VaR and P&amp;L vectors for shock histories which are too
+ * large to be held in memory, reading the shocks from binary shocks files
+ * a block of scenarios at a time.
+ * <p>
+ * A {@link SimmCalculator} generates the market movements of every risk
+ * factor in every scenario up front, which requires the shocks and the
+ * movements to fit on the heap. This calculator never holds them all.
+ * Instead, for each block of scenarios, the shocks of the risk factors
+ * the portfolios are exposed to are read from the files written by
+ * {@link com.opengamma.opensimm.load.BinaryShocksWriter}, the movements
+ * for the block are generated, and the P&amp;L of each portfolio in the
+ * block is accumulated. Only the P&amp;L vectors of the portfolios are
+ * held for all the scenarios, with the percentiles computed once every
+ * block has been processed.
+ * <p>
+ * The memory used is therefore that of the P&amp;L vectors, one value per
+ * portfolio, asset class and scenario, together with the movements of the
+ * exposed risk factors for a single block. The results are the same as
+ * those of a {@link SimmCalculator} with the same data, apart from
+ * rounding differences due to the order in which the P&amp;L is summed.
+ * <p>
+ * The files are read on each calculation, so a calculator may be used
+ * from multiple threads. Each calculation runs on the calling thread.
+ * Instances should be created using {@link #builder()}.
+ */
+public final class StreamingVarCalculator {
+
+  /**
+   * The default number of scenarios read and processed together.
+   */
+  private static final int DEFAULT_SCENARIO_BLOCK_SIZE = 512;
+
+  private final double varLevel;
+  private final MarketDataSnapshot data;
+  private final File riskFactorShocks;
+  private final File fxShocks;
+  private final int scenarioBlockSize;
+
+  /**
+   * Create a builder for a calculator.
+   *
+   * @return a new builder
+   */
+  public static StreamingVarCalculatorBuilder builder() {
+    return new StreamingVarCalculatorBuilder();
+  }
+
+  // Private constructor - use StreamingVarCalculatorBuilder to create an instance
+  private StreamingVarCalculator(
+      double varLevel,
+      MarketDataSnapshot data,
+      File riskFactorShocks,
+      File fxShocks,
+      int scenarioBlockSize) {
+
+    this.varLevel = varLevel;
+    this.data = data;
+    this.riskFactorShocks = riskFactorShocks;
+    this.fxShocks = fxShocks;
+    this.scenarioBlockSize = scenarioBlockSize;
+  }
+
+  /**
+   * Calculate the VaR by asset class for each of the specified portfolios.
+   * <p>
+   * The result for each portfolio is the same as that of
+   * {@link SimmCalculator#varByAssetClass(Map)}, subject to rounding.
+   *
+   * @param portfolios  the portfolios, keyed by an identifier such as a netting set id
+   * @param <K>  the type of the portfolio identifier
+   * @return the VaR by asset class for each portfolio, keyed by the
+   *   portfolio identifier and in the iteration order of the input
+   * @throws UncheckedIOException if there is a problem reading the shocks
+   */
+  public <K> Map<K, Map<AssetClass, Double>> varByAssetClass(Map<K, Portfolio> portfolios) {
+    Map<K, Map<AssetClass, Double>> results = new LinkedHashMap<>();
+    calculateProfits(portfolios, (portfolio, assetClass, profits) ->
+        results.computeIfAbsent(portfolio, k -> new EnumMap<>(AssetClass.class))
+            .put(assetClass, percentileInPlace(profits, varLevel)));
+    return results;
+  }
+
+  /**
+   * Calculate the P&amp;L vectors by asset class for each of the specified
+   * portfolios, passing each one to the consumer.
+   * <p>
+   * As for {@link SimmCalculator#pnlVectors(Map, PnlVectorConsumer)}, the
+   * P&amp;L vectors are supplied as primitive arrays in scenario order. The
+   * consumer is called once all the scenarios have been processed, with
+   * the portfolios in the iteration order of the input and the asset
+   * classes in order. The array passed to the consumer must not be retained.
+   *
+   * @param portfolios  the portfolios, keyed by an identifier such as a netting set id
+   * @param consumer  the consumer receiving the P&amp;L vector of each
+   *   portfolio and asset class
+   * @param <K>  the type of the portfolio identifier
+   * @throws UncheckedIOException if there is a problem reading the shocks
+   */
+  public <K> void pnlVectors(Map<K, Portfolio> portfolios, PnlVectorConsumer<? super K> consumer) {
+    ArgChecker.notNull(consumer, "consumer");
+    calculateProfits(portfolios, consumer);
+  }
+
+  //-------------------------------------------------------------------------
+  // Accumulate the P&L of the portfolios one block of scenarios at a
+  // time, passing the P&L vectors to the consumer once complete
+  private <K> void calculateProfits(Map<K, Portfolio> portfolios, PnlVectorConsumer<? super K> consumer) {
+    ArgChecker.notNull(portfolios, "portfolios");
+    List<K> keys = new ArrayList<>(portfolios.keySet());
+    List<PortfolioExposures> exposures = new ArrayList<>(keys.size());
+    boolean[] exposed = new boolean[data.getRiskFactorCount()];
+    for (K key : keys) {
+      exposures.add(new PortfolioExposures(portfolios.get(key), exposed));
+    }
+
+    try (ScenarioBlockReader riskFactorReader = ScenarioBlockReader.riskFactorShocks(riskFactorShocks);
+         ScenarioBlockReader fxReader = ScenarioBlockReader.fxShocks(fxShocks)) {
+
+      BlockMovements movements = new BlockMovements(riskFactorReader, fxReader, exposed);
+      Map<AssetClass, Integer> scenarioCounts = movements.scenarioCounts;
+      List<EnumMap<AssetClass, double[]>> profits = new ArrayList<>(keys.size());
+      for (int p = 0; p < keys.size(); p++) {
+        EnumMap<AssetClass, double[]> portfolioProfits = new EnumMap<>(AssetClass.class);
+        scenarioCounts.forEach((assetClass, count) -> portfolioProfits.put(assetClass, new double[count]));
+        profits.add(portfolioProfits);
+      }
+
+      int maxScenarios = scenarioCounts.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+      for (int from = 0; from < maxScenarios; from += scenarioBlockSize) {
+        movements.generate(from, Math.min(from + scenarioBlockSize, maxScenarios));
+        for (int p = 0; p < keys.size(); p++) {
+          exposures.get(p).addProfits(movements, profits.get(p));
+        }
+      }
+
+      for (int p = 0; p < keys.size(); p++) {
+        K key = keys.get(p);
+        profits.get(p).forEach((assetClass, assetClassProfits) -> consumer.accept(key, assetClass, assetClassProfits));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // The converted exposures of a portfolio, indexed by risk factor id
+  private final class PortfolioExposures {
+
+    private final int[] riskFactorIds;
+    private final double[] amounts;
+
+    private PortfolioExposures(Portfolio portfolio, boolean[] exposed) {
+      Map<RiskFactor, Double> converted = data.convertPortfolio(
+          portfolio.getDerivatives(), portfolio.getInitialMargin(), portfolio.getVariationMargin());
+      riskFactorIds = new int[converted.size()];
+      amounts = new double[converted.size()];
+      int i = 0;
+      for (Map.Entry<RiskFactor, Double> entry : converted.entrySet()) {
+        int riskFactorId = data.getRiskFactorId(entry.getKey());
+        riskFactorIds[i] = riskFactorId;
+        amounts[i] = entry.getValue();
+        exposed[riskFactorId] |= entry.getValue() != 0d;
+        i++;
+      }
+    }
+
+    // Add the profit in each scenario of the current block
+    private void addProfits(BlockMovements movements, Map<AssetClass, double[]> profits) {
+      for (int i = 0; i < riskFactorIds.length; i++) {
+        double amount = amounts[i];
+        double[] row = movements.row(riskFactorIds[i]);
+        // Ignore risk factors which have no movements in the block
+        if (amount != 0d && row != null) {
+          double[] out = profits.get(movements.assetClasses[riskFactorIds[i]]);
+          int from = movements.from;
+          int length = Math.min(movements.to, out.length) - from;
+          for (int j = 0; j < length; j++) {
+            out[from + j] += amount * row[j];
+          }
+        }
+      }
+    }
+  }
+
+  // The movements of the exposed risk factors for a block of scenarios
+  private final class BlockMovements {
+
+    private final ScenarioBlockReader riskFactorReader;
+    private final ScenarioBlockReader fxReader;
+    private final Map<AssetClass, Integer> scenarioCounts = new EnumMap<>(AssetClass.class);
+    private final AssetClass[] assetClasses;
+    private final int[] exposedIds;
+    private final int[] entries;
+    private final int[] rows;
+    private final double[] levels;
+    private final ShockType[] shockTypes;
+    private final double[][] movements;
+    private final double[] shocks;
+    private int from;
+    private int to;
+
+    private BlockMovements(ScenarioBlockReader riskFactorReader, ScenarioBlockReader fxReader, boolean[] exposed) {
+      this.riskFactorReader = riskFactorReader;
+      this.fxReader = fxReader;
+      int riskFactorCount = data.getRiskFactorCount();
+      assetClasses = new AssetClass[riskFactorCount];
+      entries = new int[riskFactorCount];
+      Arrays.fill(entries, -1);
+
+      // As for a SimmCalculator, the scenario count of each asset class
+      // is determined by its shocks, which must all be the same length
+      for (int entry = 0; entry < riskFactorReader.getEntryCount(); entry++) {
+        RiskFactor riskFactor = riskFactorReader.getRiskFactor(entry);
+        int riskFactorId = data.getRiskFactorId(riskFactor);
+        if (riskFactorId >= 0) {
+          entries[riskFactorId] = entry;
+          addScenarioCount(data.assetClass(riskFactor), riskFactorReader.getScenarioCount(entry));
+        }
+      }
+      for (int entry = 0; entry < fxReader.getEntryCount(); entry++) {
+        // FX risk factors are included in the INTEREST_RATE asset class
+        addScenarioCount(INTEREST_RATE, fxReader.getScenarioCount(entry));
+      }
+
+      int[] ids = new int[riskFactorCount];
+      int exposedCount = 0;
+      rows = new int[riskFactorCount];
+      Arrays.fill(rows, -1);
+      for (int id = 0; id < riskFactorCount; id++) {
+        RiskFactor riskFactor = data.getRiskFactor(id);
+        boolean hasShocks = riskFactor instanceof FxRiskFactor ? fxReader.getEntryCount() > 0 : entries[id] >= 0;
+        if (exposed[id] && hasShocks) {
+          assetClasses[id] = data.assetClass(riskFactor);
+          rows[id] = exposedCount;
+          ids[exposedCount++] = id;
+        }
+      }
+      exposedIds = Arrays.copyOf(ids, exposedCount);
+
+      // Resolve the level and shock type of each exposed risk factor once, rather than for every block
+      levels = new double[exposedCount];
+      shockTypes = new ShockType[exposedCount];
+      for (int i = 0; i < exposedCount; i++) {
+        RiskFactor riskFactor = data.getRiskFactor(exposedIds[i]);
+        Double level = data.getRiskFactorLevels().get(riskFactor);
+        ArgChecker.isTrue(level != null, "No base level found for: {}", riskFactor);
+        levels[i] = level;
+        shockTypes[i] = data.riskFactorProperties(riskFactor).getShockType();
+      }
+      movements = new double[exposedCount][scenarioBlockSize];
+      shocks = new double[scenarioBlockSize];
+    }
+
+    private void addScenarioCount(AssetClass assetClass, int count) {
+      Integer existing = scenarioCounts.putIfAbsent(assetClass, count);
+      ArgChecker.isTrue(existing == null || existing == count,
+          "Shocks for asset class {} must all be the same length, found {} and {}", assetClass, existing, count);
+    }
+
+    // Generate the movements of the exposed risk factors for the scenarios in the range
+    private void generate(int from, int to) {
+      this.from = from;
+      this.to = to;
+      FxShockRebaser rebaser = null;
+      for (int i = 0; i < exposedIds.length; i++) {
+        int id = exposedIds[i];
+        RiskFactor riskFactor = data.getRiskFactor(id);
+        int end = Math.min(to, scenarioCounts.get(assetClasses[id]));
+        if (end <= from) {
+          continue;
+        }
+        double[] blockShocks;
+        if (riskFactor instanceof FxRiskFactor) {
+          if (rebaser == null) {
+            rebaser = FxShockRebaser.of(data.getBaseCurrency(), readFxShocks(from, end));
+          }
+          blockShocks = rebaser.getShocks(((FxRiskFactor) riskFactor).getCurrency());
+        } else {
+          riskFactorReader.read(entries[id], from, end, shocks);
+          blockShocks = shocks;
+        }
+
+        double level = levels[i];
+        ShockType shockType = shockTypes[i];
+        double[] row = movements[i];
+        for (int j = 0; j < end - from; j++) {
+          row[j] = shockType.calculateShiftedValue(level, blockShocks[j]) - level;
+        }
+      }
+    }
+
+    // Read the shocks of every currency pair for the scenarios in the range
+    private Map<Pair<Currency, Currency>, List<Double>> readFxShocks(int from, int to) {
+      Map<Pair<Currency, Currency>, List<Double>> pairShocks = new HashMap<>();
+      for (int entry = 0; entry < fxReader.getEntryCount(); entry++) {
+        double[] values = new double[to - from];
+        fxReader.read(entry, from, to, values);
+        pairShocks.put(fxReader.getCurrencyPair(entry), asList(values));
+      }
+      return pairShocks;
+    }
+
+    // Get the movements of a risk factor for the current block, or null if it has none
+    private double[] row(int riskFactorId) {
+      int row = rows[riskFactorId];
+      return row < 0 || from >= scenarioCounts.get(assetClasses[riskFactorId]) ? null : movements[row];
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Mutable builder for creating a StreamingVarCalculator instance.
+   */
+  public static class StreamingVarCalculatorBuilder {
+
+    /**
+     * By default VaR is calculated using a 99% confidence level.
+     */
+    private static final double DEFAULT_VAR_LEVEL = 0.99;
+
+    private double varLevel = DEFAULT_VAR_LEVEL;
+    private Currency baseCurrency;
+    private Map<RiskFactor, RiskFactorProperties> standardRiskFactors = new HashMap<>();
+    private Map<RiskFactor, Double> standardRiskFactorLevels = new HashMap<>();
+    private FxMatrix fxMatrix = FxMatrix.EMPTY_FX_MATRIX;
+    private File riskFactorShocks;
+    private File fxShocks;
+    private int scenarioBlockSize = DEFAULT_SCENARIO_BLOCK_SIZE;
+
+    // Private constructor, use StreamingVarCalculator.builder();
+    private StreamingVarCalculatorBuilder() {
+    }
+
+    /**
+     * Build a {@code StreamingVarCalculator} using the data defined in the builder.
+     * The shocks files are checked when a calculation is performed.
+     *
+     * @return a new {@code StreamingVarCalculator}
+     */
+    public StreamingVarCalculator build() {
+      ArgChecker.notNull(baseCurrency, "baseCurrency");
+      ArgChecker.notNull(riskFactorShocks, "riskFactorShocks");
+      ArgChecker.notNull(fxShocks, "fxShocks");
+      if (!fxMatrix.getCurrencies().contains(baseCurrency)) {
+        throw new IllegalStateException("FX Matrix with currencies: " + fxMatrix.getCurrencies() +
+            " does not contain the base currency: " + baseCurrency);
+      }
+
+      // The snapshot is only used to convert exposures, so has no shocks
+      MarketDataSnapshot data = MarketDataSnapshot.of(
+          baseCurrency,
+          standardRiskFactors,
+          standardRiskFactorLevels,
+          fxMatrix,
+          Collections.emptyMap(),
+          Collections.emptyMap(),
+          SimmCalculator.SEQUENTIAL);
+      return new StreamingVarCalculator(varLevel, data, riskFactorShocks, fxShocks, scenarioBlockSize);
+    }
+
+    /**
+     * Set the var confidence level to be used.
+     * A value of 0.9 represents a 90% confidence level.
+     *
+     * @param varLevel  the var confidence level
+     * @return the builder
+     */
+    public StreamingVarCalculatorBuilder varLevel(double varLevel) {
+      this.varLevel = ArgChecker.inRangeExcludingHigh(0, 1, varLevel, "varLevel");
+      return this;
+    }
+
+    /**
+     * Set the base currency for the calculator.
+     * Values returned by the calculator will be expressed in
+     * this currency.
+     *
+     * @param baseCurrency  the base currency for all calculations
+     * @return the builder
+     */
+    public StreamingVarCalculatorBuilder baseCurrency(Currency baseCurrency) {
+      this.baseCurrency = ArgChecker.notNull(baseCurrency, "baseCurrency");
+      return this;
+    }
+
+    /**
+     * Set the risk factors and their properties for the calculator.
+     *
+     * @param riskFactors  the risk factors to be used
+     * @return the builder
+     */
+    public StreamingVarCalculatorBuilder riskFactors(Map<RiskFactor, RiskFactorProperties> riskFactors) {
+      this.standardRiskFactors = ArgChecker.notNull(riskFactors, "standardRiskFactors");
+      return this;
+    }
+
+    /**
+     * Set the base risk factor levels for the calculator. These
+     * are the values that will be adjusted as shocks are applied.
+     *
+     * @param riskFactorLevels  the base risk factor levels
+     * @return the builder
+     */
+    public StreamingVarCalculatorBuilder riskFactorLevels(Map<RiskFactor, Double> riskFactorLevels) {
+      this.standardRiskFactorLevels = ArgChecker.notNull(riskFactorLevels, "standardRiskFactorLevels");
+      return this;
+    }
+
+    /**
+     * Set the FX matrix containing the current FX rates for the calculator.
+     *
+     * @param fxMatrix  the FX matrix to be used
+     * @return the builder
+     */
+    public StreamingVarCalculatorBuilder fxMatrix(FxMatrix fxMatrix) {
+      this.fxMatrix = ArgChecker.notNull(fxMatrix, "fxMatrix");
+      return this;
+    }
+
+    /**
+     * Set the binary file holding the risk factor shocks, as
+     * written by {@link com.opengamma.opensimm.load.BinaryShocksWriter}.
+     *
+     * @param riskFactorShocks  the binary risk factor shocks file
+     * @return the builder
+     */
+    public StreamingVarCalculatorBuilder riskFactorShocks(File riskFactorShocks) {
+      this.riskFactorShocks = ArgChecker.notNull(riskFactorShocks, "riskFactorShocks");
+      return this;
+    }
+
+    /**
+     * Set the binary file holding the FX shocks, as written
+     * by {@link com.opengamma.opensimm.load.BinaryShocksWriter}.
+     *
+     * @param fxShocks  the binary FX shocks file
+     * @return the builder
+     */
+    public StreamingVarCalculatorBuilder fxShocks(File fxShocks) {
+      this.fxShocks = ArgChecker.notNull(fxShocks, "fxShocks");
+      return this;
+    }
+
+    /**
+     * Set the number of scenarios which are read and processed together.
+     * <p>
+     * The movements held for each block take eight bytes per scenario
+     * for each risk factor the portfolios are exposed to. The default
+     * is 512 scenarios.
+     *
+     * @param scenarioBlockSize  the number of scenarios in each block
+     * @return the builder
+     */
+    public StreamingVarCalculatorBuilder scenarioBlockSize(int scenarioBlockSize) {
+      this.scenarioBlockSize = ArgChecker.notNegativeOrZero(scenarioBlockSize, "scenarioBlockSize");
+      return this;
+    }
+  }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.basics.PortfolioExposure;
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.util.ArgChecker;
+import com.opengamma.opensimm.util.Pair;
+
+/**
+ * The VaR by asset class of a portfolio, attributed to the risk
+ * factors and exposures of the portfolio.
+ * <p>
+ * The VaR of an asset class is interpolated between the P&amp;L of
+ * two scenarios, and the P&amp;L of each scenario is the sum over the
+ * risk factors of the exposure multiplied by the market movement. The
+ * VaR is therefore linear in the exposures, and can be decomposed
+ * exactly using Euler allocation:
+ * <ul>
+ *   <li>the marginal VaR of a risk factor is the rate of change of VaR
+ *     with respect to the exposure to the risk factor, which is the
+ *     interpolated market movement of the risk factor in the scenarios
+ *     which determine the VaR</li>
+ *   <li>the component VaR of a risk factor is the exposure to the risk
+ *     factor multiplied by its marginal VaR. The component VaRs of the
+ *     risk factors in an asset class sum to the VaR of the asset class,
+ *     subject to rounding</li>
+ * </ul>
+ * Marginal and component VaR are also available for each input exposure,
+ * such as each trade's sensitivity to a risk factor. The marginal VaR of
+ * an exposure is the rate of change of VaR with respect to its amount,
+ * which is the marginal VaR of its risk factor multiplied by the factor
+ * converting the amount to the adjusted exposure, allowing for currency
+ * and risk type. Its component VaR is the amount multiplied by this, so
+ * the component VaRs of the exposures to a risk factor sum to the
+ * component VaR of the risk factor. Exposures of initial and variation
+ * margin offset the portfolio, so their marginal and component VaR have
+ * the opposite sign to those of a derivative with the same exposure.
+ * <p>
+ * The marginal VaR assumes the scenarios determining the VaR do not
+ * change, which holds for small changes in exposure.
+ */
+public final class VarAttribution {
+
+  /**
+   * The VaR by asset class.
+   */
+  private final Map<AssetClass, Double> var;
+
+  /**
+   * The marginal VaR of each risk factor the portfolio is exposed to.
+   */
+  private final Map<RiskFactor, Double> marginalVar;
+
+  /**
+   * The component VaR of each risk factor the portfolio is exposed to.
+   */
+  private final Map<RiskFactor, Double> componentVar;
+
+  /**
+   * The marginal VaR of each input exposure.
+   */
+  private final List<Pair<PortfolioExposure, Double>> exposureMarginalVar;
+
+  /**
+   * The component VaR of each input exposure.
+   */
+  private final List<Pair<PortfolioExposure, Double>> exposureComponentVar;
+
+  /**
+   * Creates a new attribution.
+   *
+   * @param var  the VaR by asset class
+   * @param marginalVar  the marginal VaR of each risk factor
+   * @param componentVar  the component VaR of each risk factor
+   * @param exposureMarginalVar  the marginal VaR of each input exposure
+   * @param exposureComponentVar  the component VaR of each input exposure
+   * @return a new attribution
+   */
+  static VarAttribution of(
+      Map<AssetClass, Double> var,
+      Map<RiskFactor, Double> marginalVar,
+      Map<RiskFactor, Double> componentVar,
+      List<Pair<PortfolioExposure, Double>> exposureMarginalVar,
+      List<Pair<PortfolioExposure, Double>> exposureComponentVar) {
+    return new VarAttribution(var, marginalVar, componentVar, exposureMarginalVar, exposureComponentVar);
+  }
+
+  // Private constructor
+  private VarAttribution(
+      Map<AssetClass, Double> var,
+      Map<RiskFactor, Double> marginalVar,
+      Map<RiskFactor, Double> componentVar,
+      List<Pair<PortfolioExposure, Double>> exposureMarginalVar,
+      List<Pair<PortfolioExposure, Double>> exposureComponentVar) {
+    this.var = Collections.unmodifiableMap(ArgChecker.notNull(var, "var"));
+    this.marginalVar = Collections.unmodifiableMap(ArgChecker.notNull(marginalVar, "marginalVar"));
+    this.componentVar = Collections.unmodifiableMap(ArgChecker.notNull(componentVar, "componentVar"));
+    this.exposureMarginalVar =
+        Collections.unmodifiableList(ArgChecker.notNull(exposureMarginalVar, "exposureMarginalVar"));
+    this.exposureComponentVar =
+        Collections.unmodifiableList(ArgChecker.notNull(exposureComponentVar, "exposureComponentVar"));
+  }
+
+  /**
+   * Get the VaR by asset class, which is the same as that
+   * calculated by {@link SimmCalculator#varByAssetClass}.
+   *
+   * @return the VaR by asset class
+   */
+  public Map<AssetClass, Double> getVar() {
+    return var;
+  }
+
+  /**
+   * Get the marginal VaR of each risk factor the portfolio is exposed to.
+   * This is the change in the VaR of the risk factor's asset class per
+   * unit change in the adjusted exposure to the risk factor.
+   *
+   * @return the marginal VaR by risk factor
+   */
+  public Map<RiskFactor, Double> getMarginalVar() {
+    return marginalVar;
+  }
+
+  /**
+   * Get the component VaR of each risk factor the portfolio is exposed to.
+   *
+   * @return the component VaR by risk factor
+   */
+  public Map<RiskFactor, Double> getComponentVar() {
+    return componentVar;
+  }
+
+  /**
+   * Get the marginal VaR of each input exposure. This is the change in
+   * the VaR of the asset class of the exposure's risk factor per unit
+   * change in the amount of the exposure. The exposures are in the same
+   * order as for {@link #getExposureComponentVar()}.
+   *
+   * @return the marginal VaR of each exposure
+   */
+  public List<Pair<PortfolioExposure, Double>> getExposureMarginalVar() {
+    return exposureMarginalVar;
+  }
+
+  /**
+   * Get the component VaR of each input exposure. The derivatives are
+   * followed by the initial margin and then the variation margin, each
+   * in the order they were supplied.
+   *
+   * @return the component VaR of each exposure
+   */
+  public List<Pair<PortfolioExposure, Double>> getExposureComponentVar() {
+    return exposureComponentVar;
+  }
+
+}
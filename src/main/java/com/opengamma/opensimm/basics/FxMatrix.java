@@ -26,13 +26,20 @@ import com.opengamma.opensimm.util.Pair;
 
 /**
  * Immutable class describing a set of currencies and all the cross rates between them.
+ * <p>
+ * Each currency in the matrix is assigned an integer id, its position in the
+ * matrix, and the rates are held in a single row-major array. Code converting
+ * many amounts can look up the ids of the currencies involved once using
+ * {@link #getCurrencyId(Currency)} and then use {@link #getRate(int, int)},
+ * which is a single array access. The {@code Currency} based methods are
+ * implemented in terms of the ids.
  */
 public class FxMatrix {
 
   public static final FxMatrix EMPTY_FX_MATRIX = builder().build();
 
   /**
-   * The map between the currencies and their order. A LinkedHashMap is
+   * The map between the currencies and their ids. A LinkedHashMap is
    * used so that the currencies are correctly ordered when the
    * {@link #toString()} method is called. Using a Guava immutable Map
    * would be a better approach in the future.
@@ -40,21 +47,33 @@ public class FxMatrix {
   private final LinkedHashMap<Currency, Integer> currencies;
 
   /**
-   * The matrix with all exchange rates. The entry [i][j] is such that
-   * 1.0 * Currency[i] = _fxrate * Currency[j]. If _currencies.get(EUR) = 0 and
-   * _currencies.get(USD) = 1, the element _fxRate[0][1] is likely to be something
-   * like 1.40 and _fxRate[1][0] like 0.7142... The rate _fxRate[1][0] will be
-   * computed from _fxRate[0][1] when the object is constructed. All the elements
-   * of the matrix are meaningful and coherent.
+   * The currencies indexed by their id.
    */
-  private final double[][] rates;
+  private final Currency[] currencyIds;
+
+  /**
+   * The matrix with all exchange rates, stored row-major such that the
+   * rate for the currencies with ids i and j is at index i * n + j, where
+   * n is the number of currencies. The rate is such that 1.0 * Currency[i]
+   * = rate * Currency[j]. If EUR has id 0 and USD has id 1, the element
+   * [0][1] is likely to be something like 1.40 and [1][0] like 0.7142...
+   * The rate [1][0] will be computed from [0][1] when the object is
+   * constructed. All the elements of the matrix are meaningful and coherent.
+   */
+  private final double[] rates;
 
   /**
    * Private constructor.
    */
   private FxMatrix(LinkedHashMap<Currency, Integer> currencies, double[][] rates) {
+    int size = currencies.size();
     this.currencies = currencies;
-    this.rates = rates;
+    this.currencyIds = new Currency[size];
+    currencies.forEach((ccy, id) -> currencyIds[id] = ccy);
+    this.rates = new double[size * size];
+    for (int i = 0; i < size; i++) {
+      System.arraycopy(rates[i], 0, this.rates, i * size, size);
+    }
   }
 
   /**
@@ -73,7 +92,7 @@ public class FxMatrix {
    * @return a new builder containing the data from this matrix
    */
   public FxMatrix.Builder toBuilder() {
-    return new FxMatrix.Builder(currencies, rates);
+    return new FxMatrix.Builder(currencies, toArray());
   }
 
   /**
@@ -87,10 +106,10 @@ public class FxMatrix {
     if (ccy1.equals(ccy2)) {
       return 1;
     }
-    Integer index1 = currencies.get(ccy1);
-    Integer index2 = currencies.get(ccy2);
-    if (index1 != null && index2 != null) {
-      return rates[index1][index2];
+    int id1 = getCurrencyId(ccy1);
+    int id2 = getCurrencyId(ccy2);
+    if (id1 >= 0 && id2 >= 0) {
+      return getRate(id1, id2);
     } else {
       throw new IllegalArgumentException(
           "No rate found for " + ccy1 + "/" + ccy2 +
@@ -98,6 +117,57 @@ public class FxMatrix {
     }
   }
 
+  /**
+   * Return the exchange rate between two currencies identified by
+   * their ids in this matrix.
+   *
+   * @param id1 The id of the first currency.
+   * @param id2 The id of the second currency.
+   * @return The exchange rate: 1.0 * ccy1 = x * ccy2.
+   * @throws IndexOutOfBoundsException if either id is not valid for this matrix
+   */
+  public double getRate(int id1, int id2) {
+    int size = currencyIds.length;
+    if (id1 < 0 || id1 >= size || id2 < 0 || id2 >= size) {
+      throw new IndexOutOfBoundsException(
+          "Invalid currency ids: " + id1 + ", " + id2 + " - FX matrix contains " + size + " currencies");
+    }
+    return rates[id1 * size + id2];
+  }
+
+  /**
+   * Return the id of a currency in this matrix. Ids are allocated
+   * from zero, in the order the currencies were added to the matrix.
+   *
+   * @param ccy  the currency
+   * @return the id of the currency, or -1 if the matrix does not contain it
+   */
+  public int getCurrencyId(Currency ccy) {
+    Integer id = currencies.get(ccy);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Return the currency with the specified id in this matrix.
+   *
+   * @param id  the id of the currency
+   * @return the currency
+   * @throws IndexOutOfBoundsException if the id is not valid for this matrix
+   */
+  public Currency getCurrency(int id) {
+    return currencyIds[id];
+  }
+
+  /**
+   * Return the number of currencies in the matrix. The currency
+   * ids run from zero to one less than this value.
+   *
+   * @return the number of currencies
+   */
+  public int getCurrencyCount() {
+    return currencyIds.length;
+  }
+
   /**
    * Merge the entries from the other matrix into this one. The other matrix
    * should have at least one currency in common with this one.
@@ -128,7 +198,7 @@ public class FxMatrix {
 
   @Override
   public String toString() {
-    return getCurrencies() + " - " + Stream.of(rates).map(Arrays::toString).collect(Collectors.joining());
+    return getCurrencies() + " - " + Stream.of(toArray()).map(Arrays::toString).collect(Collectors.joining());
   }
 
   @Override
@@ -145,7 +215,17 @@ public class FxMatrix {
       return false;
     }
     FxMatrix other = (FxMatrix) obj;
-    return currencies.equals(other.currencies) && Arrays.deepEquals(rates, other.rates);
+    return currencies.equals(other.currencies) && Arrays.equals(rates, other.rates);
+  }
+
+  // Copy the rates into a square array
+  private double[][] toArray() {
+    int size = currencyIds.length;
+    double[][] array = new double[size][];
+    for (int i = 0; i < size; i++) {
+      array[i] = Arrays.copyOfRange(rates, i * size, (i + 1) * size);
+    }
+    return array;
   }
 
   /**
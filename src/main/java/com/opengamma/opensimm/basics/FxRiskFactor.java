@@ -6,6 +6,8 @@
 package com.opengamma.opensimm.basics;
 
 import java.util.Currency;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.opengamma.opensimm.util.ArgChecker;
 
@@ -16,6 +18,12 @@ import com.opengamma.opensimm.util.ArgChecker;
  */
 public class FxRiskFactor implements RiskFactor {
 
+  /**
+   * The risk factor for each currency. The number of currencies
+   * is small, so each currency has a single instance.
+   */
+  private static final ConcurrentMap<Currency, FxRiskFactor> INSTANCES = new ConcurrentHashMap<>();
+
   /**
    * The currency this risk factor is for.
    */
@@ -25,11 +33,12 @@ public class FxRiskFactor implements RiskFactor {
    * Generate an {@code FxRiskFactor} from the specified currency.
    *
    * @param currency  the currency of the risk factor
-   * @return a new {@code FxRiskFactor} for the currency
+   * @return the {@code FxRiskFactor} for the currency
    * @throws IllegalArgumentException if currency is null
    */
   public static FxRiskFactor of(Currency currency) {
-    return new FxRiskFactor(currency);
+    ArgChecker.notNull(currency, "currency");
+    return INSTANCES.computeIfAbsent(currency, FxRiskFactor::new);
   }
 
   /**
@@ -37,7 +46,7 @@ public class FxRiskFactor implements RiskFactor {
    * String representing a currency.
    *
    * @param currency  the currency of the risk factor as a string
-   * @return a new {@code FxRiskFactor} for the currency
+   * @return the {@code FxRiskFactor} for the currency
    * @throws IllegalArgumentException if currency is null or
    * is not a supported ISO 4217 code.
    */
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.basics;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.opengamma.opensimm.util.ArgChecker;
+
+/**
+ * The exposures of a portfolio to be margined, together with the
+ * exposures of any initial and variation margin already held
+ * against it.
+ */
+public class Portfolio {
+
+  /**
+   * The risk factor exposures of the derivatives in the portfolio.
+   */
+  private final List<PortfolioExposure> derivatives;
+
+  /**
+   * The risk factor exposures of any initial margin.
+   */
+  private final List<PortfolioExposure> initialMargin;
+
+  /**
+   * The risk factor exposures of any variation margin.
+   */
+  private final List<PortfolioExposure> variationMargin;
+
+  /**
+   * Creates a new {@code Portfolio} with no initial or variation margin.
+   *
+   * @param derivatives  the risk factor exposures of the derivatives
+   * @return a new {@code Portfolio}
+   */
+  public static Portfolio of(List<PortfolioExposure> derivatives) {
+    return new Portfolio(derivatives, Collections.emptyList(), Collections.emptyList());
+  }
+
+  /**
+   * Creates a new {@code Portfolio}.
+   *
+   * @param derivatives  the risk factor exposures of the derivatives
+   * @param initialMargin  the risk factor exposures of any initial margin
+   * @param variationMargin  the risk factor exposures of any variation margin
+   * @return a new {@code Portfolio}
+   */
+  public static Portfolio of(
+      List<PortfolioExposure> derivatives,
+      List<PortfolioExposure> initialMargin,
+      List<PortfolioExposure> variationMargin) {
+    return new Portfolio(derivatives, initialMargin, variationMargin);
+  }
+
+  // Private constructor
+  private Portfolio(
+      List<PortfolioExposure> derivatives,
+      List<PortfolioExposure> initialMargin,
+      List<PortfolioExposure> variationMargin) {
+    this.derivatives = ArgChecker.notNull(derivatives, "derivatives");
+    this.initialMargin = ArgChecker.notNull(initialMargin, "initialMargin");
+    this.variationMargin = ArgChecker.notNull(variationMargin, "variationMargin");
+  }
+
+  /**
+   * Returns the risk factor exposures of the derivatives.
+   *
+   * @return the derivatives exposures
+   */
+  public List<PortfolioExposure> getDerivatives() {
+    return derivatives;
+  }
+
+  /**
+   * Returns the risk factor exposures of the initial margin.
+   *
+   * @return the initial margin exposures
+   */
+  public List<PortfolioExposure> getInitialMargin() {
+    return initialMargin;
+  }
+
+  /**
+   * Returns the risk factor exposures of the variation margin.
+   *
+   * @return the variation margin exposures
+   */
+  public List<PortfolioExposure> getVariationMargin() {
+    return variationMargin;
+  }
+}
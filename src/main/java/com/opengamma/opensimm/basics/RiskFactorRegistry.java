@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.basics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import com.opengamma.opensimm.util.ArgChecker;
+
+/**
+ * A fixed set of risk factors, each with a canonical instance
+ * and a dense integer id.
+ * <p>
+ * Loaders use the registry to resolve the risk factor names they read to
+ * the canonical instances, rather than creating new risk factors for every
+ * row. Equal risk factors from the same registry are then the same object,
+ * so comparing them and looking them up in hash maps is cheap. The ids run
+ * from zero to one less than the number of risk factors, in the iteration
+ * order of the collection the registry was created from, so they can be
+ * used as indices into arrays holding data for each risk factor.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class RiskFactorRegistry {
+
+  /**
+   * The canonical risk factors, indexed by id.
+   */
+  private final RiskFactor[] riskFactors;
+
+  /**
+   * The id of each risk factor.
+   */
+  private final Map<RiskFactor, Integer> ids;
+
+  /**
+   * The canonical standard risk factors, keyed by name.
+   */
+  private final Map<String, RiskFactor> standardRiskFactorsByName;
+
+  /**
+   * Create a registry holding the specified risk factors. The first
+   * of any equal risk factors becomes the canonical instance.
+   *
+   * @param riskFactors  the risk factors
+   * @return a new registry
+   */
+  public static RiskFactorRegistry of(Collection<? extends RiskFactor> riskFactors) {
+    ArgChecker.notNull(riskFactors, "riskFactors");
+    return new RiskFactorRegistry(new LinkedHashSet<>(riskFactors).toArray(new RiskFactor[0]));
+  }
+
+  // Private constructor
+  private RiskFactorRegistry(RiskFactor[] riskFactors) {
+    this.riskFactors = riskFactors;
+    Map<RiskFactor, Integer> ids = new HashMap<>(riskFactors.length * 2);
+    Map<String, RiskFactor> standardRiskFactorsByName = new HashMap<>(riskFactors.length * 2);
+    for (int i = 0; i < riskFactors.length; i++) {
+      RiskFactor riskFactor = ArgChecker.notNull(riskFactors[i], "riskFactor");
+      ids.put(riskFactor, i);
+      if (riskFactor instanceof StandardRiskFactor) {
+        standardRiskFactorsByName.put(((StandardRiskFactor) riskFactor).getName(), riskFactor);
+      }
+    }
+    this.ids = Collections.unmodifiableMap(ids);
+    this.standardRiskFactorsByName = Collections.unmodifiableMap(standardRiskFactorsByName);
+  }
+
+  /**
+   * Get the number of risk factors in the registry.
+   *
+   * @return the number of risk factors
+   */
+  public int size() {
+    return riskFactors.length;
+  }
+
+  /**
+   * Get the id of a risk factor.
+   *
+   * @param riskFactor  the risk factor
+   * @return the id of the risk factor, or -1 if it is not in the registry
+   */
+  public int getId(RiskFactor riskFactor) {
+    Integer id = ids.get(riskFactor);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Get the risk factor with the specified id.
+   *
+   * @param id  the id of the risk factor
+   * @return the risk factor
+   * @throws IndexOutOfBoundsException if the id is not valid
+   */
+  public RiskFactor getRiskFactor(int id) {
+    return riskFactors[id];
+  }
+
+  /**
+   * Get the canonical instance of a risk factor.
+   *
+   * @param riskFactor  the risk factor
+   * @return the equal risk factor held by the registry, or the
+   *   risk factor itself if it is not in the registry
+   */
+  public RiskFactor intern(RiskFactor riskFactor) {
+    int id = getId(riskFactor);
+    return id < 0 ? riskFactor : riskFactors[id];
+  }
+
+  /**
+   * Resolve a name read from a file to a risk factor.
+   * <p>
+   * If the registry holds a standard risk factor with the name, that
+   * risk factor is returned. Otherwise the name must be a currency, and
+   * the FX risk factor for the currency is returned, which is the
+   * canonical instance if the registry holds it.
+   *
+   * @param name  the name of the risk factor or the currency code
+   * @return the risk factor
+   * @throws IllegalArgumentException if the name is neither the name of a
+   *   standard risk factor in the registry nor a supported ISO 4217 code
+   */
+  public RiskFactor resolve(String name) {
+    RiskFactor standardRiskFactor = standardRiskFactorsByName.get(name);
+    return standardRiskFactor != null ? standardRiskFactor : intern(FxRiskFactor.of(name));
+  }
+
+}
@@ -30,6 +30,15 @@ public class StandardRiskFactor implements RiskFactor {
     this.name = ArgChecker.notNull(name, "name");
   }
 
+  /**
+   * Get the name of the risk factor.
+   *
+   * @return the name
+   */
+  public String getName() {
+    return name;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+import java.nio.charset.StandardCharsets;
+
+import com.opengamma.opensimm.util.ArgChecker;
+
+/**
+ * A typed column of an Arrow record batch, holding its values
+ * in the Arrow memory layout ready to be written.
+ * <p>
+ * Columns are not nullable. Fixed width values are held in a single
+ * buffer, while strings are held as a buffer of offsets and a buffer
+ * of UTF-8 data.
+ */
+final class ArrowColumn {
+
+  /**
+   * The types of column supported.
+   */
+  enum Type {
+    /**
+     * UTF-8 strings.
+     */
+    UTF8,
+    /**
+     * Signed 32-bit integers.
+     */
+    INT32,
+    /**
+     * Signed 64-bit integers.
+     */
+    INT64,
+    /**
+     * Double precision floating point values.
+     */
+    FLOAT64;
+
+    /**
+     * Get the column type used for a value. Integers and floating point
+     * numbers are held in numeric columns, and anything else as a string.
+     *
+     * @param value  the value
+     * @return the type of column for the value
+     */
+    static Type of(Object value) {
+      if (value instanceof Double || value instanceof Float) {
+        return FLOAT64;
+      } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+        return INT32;
+      } else if (value instanceof Long) {
+        return INT64;
+      } else {
+        return UTF8;
+      }
+    }
+  }
+
+  private final String name;
+  private final Type type;
+  private final LittleEndianBuffer values = new LittleEndianBuffer(1024);
+  private final LittleEndianBuffer data = new LittleEndianBuffer(1024);
+  private int rowCount;
+
+  /**
+   * Create an empty column.
+   *
+   * @param name  the name of the column
+   * @param type  the type of the column
+   */
+  ArrowColumn(String name, Type type) {
+    this.name = ArgChecker.notNull(name, "name");
+    this.type = ArgChecker.notNull(type, "type");
+    clear();
+  }
+
+  String getName() {
+    return name;
+  }
+
+  Type getType() {
+    return type;
+  }
+
+  int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Add a value to the column, which must be of the column's type.
+   * Any value can be added to a string column, using its string form.
+   *
+   * @param value  the value to add
+   * @throws IllegalArgumentException if the value is not of the column's type
+   */
+  void add(Object value) {
+    ArgChecker.isTrue(type == Type.UTF8 || Type.of(value) == type,
+        "Column {} holds {} values but found: {}", name, type, value);
+    switch (type) {
+      case FLOAT64:
+        addDouble(toDouble((Number) value));
+        break;
+      case INT32:
+        addInt(((Number) value).intValue());
+        break;
+      case INT64:
+        addLong((Long) value);
+        break;
+      default:
+        addString(String.valueOf(value));
+    }
+  }
+
+  void addString(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    data.putBytes(bytes, 0, bytes.length);
+    values.putInt(data.size());
+    rowCount++;
+  }
+
+  void addInt(int value) {
+    values.putInt(value);
+    rowCount++;
+  }
+
+  void addLong(long value) {
+    values.putLong(value);
+    rowCount++;
+  }
+
+  void addDouble(double value) {
+    values.putDouble(value);
+    rowCount++;
+  }
+
+  /**
+   * Get the buffers of the column in the order used by the Arrow format,
+   * excluding the validity buffer which is empty as there are no nulls.
+   *
+   * @return the buffers holding the values
+   */
+  LittleEndianBuffer[] getBuffers() {
+    return type == Type.UTF8 ? new LittleEndianBuffer[] {values, data} : new LittleEndianBuffer[] {values};
+  }
+
+  /**
+   * Remove all the values from the column, retaining its capacity.
+   */
+  void clear() {
+    values.clear();
+    data.clear();
+    rowCount = 0;
+    if (type == Type.UTF8) {
+      values.putInt(0);
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // Floats are converted using their string form, as widening them to doubles
+  // would expose digits beyond the precision of the float
+  private static double toDouble(Number value) {
+    return value instanceof Float ? Double.parseDouble(value.toString()) : value.doubleValue();
+  }
+
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+import static java.util.stream.Collectors.toList;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.opengamma.opensimm.format.FlatBuffer.Table;
+import com.opengamma.opensimm.util.ArgChecker;
+
+/**
+ * Writes columns of data to a stream in the Arrow IPC file format.
+ * <p>
+ * The file holds the schema followed by a record batch each time
+ * {@link #writeBatch()} is called, and ends with the footer written by
+ * {@link #close()} which allows the batches to be read in any order.
+ * Values are added to the columns returned by {@link #getColumns()},
+ * which are cleared once they have been written as a batch.
+ * <p>
+ * Files are written little-endian using version 5 of the metadata,
+ * without compression or dictionary encoding.
+ */
+final class ArrowFileWriter implements Closeable {
+
+  /**
+   * The magic bytes at the start and end of the file.
+   */
+  private static final byte[] MAGIC = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Version 5 of the metadata, written as 4, the ordinal of {@code MetadataVersion.V5}.
+   */
+  private static final int METADATA_VERSION = 4;
+
+  // Types of the message header union
+  private static final int HEADER_SCHEMA = 1;
+  private static final int HEADER_RECORD_BATCH = 3;
+
+  // Types of the field type union
+  private static final int TYPE_INT = 2;
+  private static final int TYPE_FLOATING_POINT = 3;
+  private static final int TYPE_UTF8 = 5;
+
+  /**
+   * Double precision, in the precision enumeration.
+   */
+  private static final int PRECISION_DOUBLE = 2;
+
+  private final OutputStream out;
+  private final List<ArrowColumn> columns;
+  private final LittleEndianBuffer blocks = new LittleEndianBuffer(256);
+  private int blockCount;
+  private long position;
+
+  /**
+   * Create a writer for the stream, writing the schema immediately.
+   *
+   * @param out  the stream to write to, which is closed when the writer is closed
+   * @param names  the names of the columns
+   * @param types  the types of the columns
+   * @throws IOException if there is a problem writing to the stream
+   */
+  ArrowFileWriter(OutputStream out, List<String> names, List<ArrowColumn.Type> types) throws IOException {
+    ArgChecker.notNull(out, "out");
+    ArgChecker.isTrue(names.size() == types.size(),
+        "There must be a type for each column but found {} names and {} types", names.size(), types.size());
+    this.out = new BufferedOutputStream(out, 64 * 1024);
+    List<ArrowColumn> columns = new ArrayList<>();
+    for (int i = 0; i < names.size(); i++) {
+      columns.add(new ArrowColumn(names.get(i), types.get(i)));
+    }
+    this.columns = Collections.unmodifiableList(columns);
+
+    write(MAGIC, MAGIC.length);
+    pad();
+    writeMessage(HEADER_SCHEMA, schema(), 0);
+  }
+
+  /**
+   * Get the columns, to which values are added before writing a batch.
+   *
+   * @return the columns
+   */
+  List<ArrowColumn> getColumns() {
+    return columns;
+  }
+
+  /**
+   * Get the number of rows in the current batch.
+   *
+   * @return the number of rows in the current batch
+   */
+  int getRowCount() {
+    return columns.isEmpty() ? 0 : columns.get(0).getRowCount();
+  }
+
+  /**
+   * Write the values in the columns as a record batch, then clear the columns.
+   * Nothing is written if the columns are empty.
+   *
+   * @throws IOException if there is a problem writing to the stream
+   * @throws IllegalStateException if the columns have different numbers of rows
+   */
+  void writeBatch() throws IOException {
+    int rowCount = getRowCount();
+    if (rowCount == 0) {
+      return;
+    }
+    LittleEndianBuffer nodes = new LittleEndianBuffer(16 * columns.size());
+    LittleEndianBuffer buffers = new LittleEndianBuffer(48 * columns.size());
+    long bodyLength = 0;
+    for (ArrowColumn column : columns) {
+      if (column.getRowCount() != rowCount) {
+        throw new IllegalStateException(
+            "Column " + column.getName() + " has " + column.getRowCount() + " rows but expected " + rowCount);
+      }
+      nodes.putLong(rowCount);
+      nodes.putLong(0);
+      // Empty validity buffer as there are no nulls
+      buffers.putLong(bodyLength);
+      buffers.putLong(0);
+      for (LittleEndianBuffer buffer : column.getBuffers()) {
+        buffers.putLong(bodyLength);
+        buffers.putLong(buffer.size());
+        bodyLength += padded(buffer.size());
+      }
+    }
+    Table recordBatch = FlatBuffer.table()
+        .addLong(0, rowCount)
+        .addNode(1, FlatBuffer.structs(columns.size(), nodes))
+        .addNode(2, FlatBuffer.structs(buffers.size() / 16, buffers));
+
+    writeMessage(HEADER_RECORD_BATCH, recordBatch, bodyLength);
+    for (ArrowColumn column : columns) {
+      for (LittleEndianBuffer buffer : column.getBuffers()) {
+        buffer.writeTo(out);
+        position += buffer.size();
+        pad();
+      }
+      column.clear();
+    }
+  }
+
+  /**
+   * Write any values remaining in the columns as a final batch,
+   * then write the footer and close the stream.
+   *
+   * @throws IOException if there is a problem writing to the stream
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      writeBatch();
+
+      // End of stream marker
+      writeInt(-1);
+      writeInt(0);
+
+      Table footer = FlatBuffer.table()
+          .addShort(0, METADATA_VERSION)
+          .addNode(1, schema())
+          .addNode(2, FlatBuffer.structs(0, new LittleEndianBuffer(0)))
+          .addNode(3, FlatBuffer.structs(blockCount, blocks));
+      byte[] bytes = FlatBuffer.serialize(footer);
+      write(bytes, bytes.length);
+      writeInt(bytes.length);
+      write(MAGIC, MAGIC.length);
+    } finally {
+      out.close();
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  private Table schema() {
+    List<Table> fields = columns.stream()
+        .map(column -> FlatBuffer.table()
+            .addNode(0, FlatBuffer.string(column.getName()))
+            .addBoolean(1, false)
+            .addByte(2, typeId(column.getType()))
+            .addNode(3, typeTable(column.getType()))
+            .addNode(5, FlatBuffer.tables(Collections.emptyList())))
+        .collect(toList());
+    return FlatBuffer.table()
+        .addShort(0, 0)
+        .addNode(1, FlatBuffer.tables(fields));
+  }
+
+  private static int typeId(ArrowColumn.Type type) {
+    switch (type) {
+      case INT32:
+      case INT64:
+        return TYPE_INT;
+      case FLOAT64:
+        return TYPE_FLOATING_POINT;
+      default:
+        return TYPE_UTF8;
+    }
+  }
+
+  private static Table typeTable(ArrowColumn.Type type) {
+    switch (type) {
+      case INT32:
+        return FlatBuffer.table().addInt(0, 32).addBoolean(1, true);
+      case INT64:
+        return FlatBuffer.table().addInt(0, 64).addBoolean(1, true);
+      case FLOAT64:
+        return FlatBuffer.table().addShort(0, PRECISION_DOUBLE);
+      default:
+        return FlatBuffer.table();
+    }
+  }
+
+  // Write an encapsulated message, recording a block for any record batch
+  private void writeMessage(int headerType, Table header, long bodyLength) throws IOException {
+    Table message = FlatBuffer.table()
+        .addShort(0, METADATA_VERSION)
+        .addByte(1, headerType)
+        .addNode(2, header)
+        .addLong(3, bodyLength);
+    byte[] metadata = FlatBuffer.serialize(message);
+
+    if (headerType == HEADER_RECORD_BATCH) {
+      blocks.putLong(position);
+      blocks.putInt(8 + metadata.length);
+      blocks.putInt(0);
+      blocks.putLong(bodyLength);
+      blockCount++;
+    }
+    writeInt(-1);
+    writeInt(metadata.length);
+    write(metadata, metadata.length);
+  }
+
+  private static long padded(long length) {
+    return (length + 7) & -8;
+  }
+
+  private void pad() throws IOException {
+    while ((position & 7) != 0) {
+      out.write(0);
+      position++;
+    }
+  }
+
+  private void writeInt(int value) throws IOException {
+    out.write(value);
+    out.write(value >> 8);
+    out.write(value >> 16);
+    out.write(value >> 24);
+    position += 4;
+  }
+
+  private void write(byte[] bytes, int length) throws IOException {
+    out.write(bytes, 0, length);
+    position += length;
+  }
+
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+import static java.util.stream.Collectors.toList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A formatter which will output data to a file in the Arrow IPC file
+ * format, for loading into columnar analytics tools.
+ * <p>
+ * The header supplies the column names. The type of each column is taken
+ * from the first row: integers are written as 32 or 64-bit integer
+ * columns, floating point numbers as double columns and any other value
+ * as a UTF-8 string column. All subsequent rows, including the footers,
+ * must have values of the same types. Footers are written as ordinary
+ * rows following the data rows.
+ * <p>
+ * Rows are written in record batches as they are taken from the row
+ * stream, so the whole of the data is never held in memory.
+ */
+public class ArrowOutputFormatter implements OutputFormatter {
+
+  /**
+   * The maximum number of rows in each record batch.
+   */
+  private static final int BATCH_SIZE = 64 * 1024;
+
+  private final List<List<Object>> headers = new ArrayList<>();
+  private final List<List<Object>> footers = new ArrayList<>();
+  private final File file;
+  private Stream<List<Object>> rowStream = Stream.empty();
+
+  /**
+   * Create the formatter for the specified file. If the file
+   * does not exist then it will be created. If it does exist
+   * then it will be overwritten.
+   *
+   * @param fileName  name of the file to output data to
+   */
+  public ArrowOutputFormatter(String fileName) {
+    this.file = new File(fileName);
+  }
+
+  /**
+   * Add the header holding the column names. Only one header is
+   * permitted, as there is a single name for each column.
+   *
+   * @param header the header to be added
+   */
+  @Override
+  public void addHeader(Object... header) {
+    headers.add(Arrays.asList(header));
+  }
+
+  @Override
+  public void addRows(Stream<List<Object>> rows) {
+    rowStream = rows;
+  }
+
+  @Override
+  public void addFooter(Object... footer) {
+    footers.add(Arrays.asList(footer));
+  }
+
+  /**
+   * Write the data to the file.
+   *
+   * @throws IllegalStateException if there is not exactly one header,
+   *   or if there is a problem writing the file
+   * @throws IllegalArgumentException if a row does not match the header
+   *   or the types of the first row
+   */
+  @Override
+  public void print() {
+    if (headers.size() != 1) {
+      throw new IllegalStateException("Arrow output requires a single header but found " + headers.size());
+    }
+    List<String> names = headers.get(0).stream().map(String::valueOf).collect(toList());
+    Iterator<List<Object>> rows = Stream.concat(rowStream, footers.stream()).iterator();
+    List<Object> first = rows.hasNext() ? rows.next() : null;
+    List<ArrowColumn.Type> types = names.stream()
+        .map(name -> ArrowColumn.Type.UTF8)
+        .collect(toList());
+    if (first != null) {
+      checkRow(first, names);
+      types = first.stream().map(ArrowColumn.Type::of).collect(toList());
+    }
+
+    try (ArrowFileWriter writer = new ArrowFileWriter(new FileOutputStream(file), names, types)) {
+      System.out.println("Writing data to file: " + file.getAbsolutePath());
+
+      List<ArrowColumn> columns = writer.getColumns();
+      for (List<Object> row = first; row != null; row = rows.hasNext() ? rows.next() : null) {
+        checkRow(row, names);
+        for (int i = 0; i < row.size(); i++) {
+          columns.get(i).add(row.get(i));
+        }
+        if (writer.getRowCount() == BATCH_SIZE) {
+          writer.writeBatch();
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Exception whilst writing file", e);
+    }
+  }
+
+  private void checkRow(List<Object> row, List<String> names) {
+    if (row.size() != names.size()) {
+      throw new IllegalArgumentException(
+          "Row should have " + names.size() + " values to match the header but has " + row.size() + ": " + row);
+    }
+  }
+
+}
@@ -6,26 +6,37 @@
 package com.opengamma.opensimm.format;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.function.Function;
 import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
-import static java.util.stream.Collectors.joining;
+import com.opengamma.opensimm.util.ArgChecker;
 
 /**
  * A formatter which will output data to a file in simple CSV format.
+ * <p>
+ * Rows are written through a buffer as they are taken from the row
+ * stream, with numbers encoded directly into the buffer by a
+ * {@link NumberEncoder}. By default, floating point values are written
+ * as for {@link Double#toString(double)}, the file is uncompressed and
+ * it is only flushed once all the data has been written. Use
+ * {@link #builder(String)} to change these settings.
  */
 public class CsvOutputFormatter implements OutputFormatter {
 
   private final List<List<Object>> headers = new ArrayList<>();
   private final List<List<Object>> footers = new ArrayList<>();
-  private final Function<List<Object>, String> formatter = row -> row.stream().map(Object::toString).collect(joining(","));
   private final File file;
-  private Stream<List<Object>> rowStream;
+  private final NumberEncoder numberEncoder;
+  private final boolean gzip;
+  private final int flushInterval;
+  private Stream<List<Object>> rowStream = Stream.empty();
 
   /**
    * Create the formatter for the specified file. If the file
@@ -35,7 +46,25 @@ public class CsvOutputFormatter implements OutputFormatter {
    * @param fileName  name of the file to output data to
    */
   public CsvOutputFormatter(String fileName) {
-    this.file = new File(fileName);
+    this(fileName, NumberEncoder.shortest(), false, 0);
+  }
+
+  // Private constructor, use CsvOutputFormatter.builder()
+  private CsvOutputFormatter(String fileName, NumberEncoder numberEncoder, boolean gzip, int flushInterval) {
+    this.file = new File(ArgChecker.notNull(fileName, "fileName"));
+    this.numberEncoder = numberEncoder;
+    this.gzip = gzip;
+    this.flushInterval = flushInterval;
+  }
+
+  /**
+   * Create a builder for a formatter writing to the specified file.
+   *
+   * @param fileName  name of the file to output data to
+   * @return a new builder
+   */
+  public static CsvOutputFormatterBuilder builder(String fileName) {
+    return new CsvOutputFormatterBuilder(fileName);
   }
 
   @Override
@@ -56,18 +85,94 @@ public class CsvOutputFormatter implements OutputFormatter {
   @Override
   public void print() {
 
-    try (PrintStream printStream = new PrintStream(file)) {
+    try (CsvRowWriter writer = new CsvRowWriter(openFile(), numberEncoder, flushInterval)) {
       System.out.println("Writing data to file: " + file.getAbsolutePath());
 
-      formatAndOutput(headers.stream(), printStream);
-      formatAndOutput(rowStream, printStream);
-      formatAndOutput(footers.stream(), printStream);
-    } catch (FileNotFoundException e) {
+      formatAndOutput(headers.iterator(), writer);
+      formatAndOutput(rowStream.iterator(), writer);
+      formatAndOutput(footers.iterator(), writer);
+    } catch (IOException e) {
       throw new IllegalStateException("Exception whilst writing file", e);
     }
   }
 
-  private void formatAndOutput(Stream<List<Object>> outputRows, PrintStream printStream) {
-    outputRows.map(formatter).forEach(printStream::println);
+  private OutputStream openFile() throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    // Sync flush so that flushing the writer also flushes the compressed data
+    return gzip ? new GZIPOutputStream(out, 64 * 1024, true) : out;
+  }
+
+  private void formatAndOutput(Iterator<List<Object>> outputRows, CsvRowWriter writer) throws IOException {
+    while (outputRows.hasNext()) {
+      writer.writeRow(outputRows.next());
+    }
   }
+
+  //-------------------------------------------------------------------------
+  /**
+   * Mutable builder for creating a CsvOutputFormatter instance.
+   */
+  public static class CsvOutputFormatterBuilder {
+
+    private final String fileName;
+    private NumberEncoder numberEncoder = NumberEncoder.shortest();
+    private boolean gzip;
+    private int flushInterval;
+
+    // Private constructor, use CsvOutputFormatter.builder();
+    private CsvOutputFormatterBuilder(String fileName) {
+      this.fileName = ArgChecker.notNull(fileName, "fileName");
+    }
+
+    /**
+     * Build a {@code CsvOutputFormatter} using the settings defined in the builder.
+     *
+     * @return a new {@code CsvOutputFormatter}
+     */
+    public CsvOutputFormatter build() {
+      return new CsvOutputFormatter(fileName, numberEncoder, gzip, flushInterval);
+    }
+
+    /**
+     * Set the encoder used to write floating point values.
+     * By default, {@link NumberEncoder#shortest()} is used.
+     *
+     * @param numberEncoder  the encoder for floating point values
+     * @return the builder
+     */
+    public CsvOutputFormatterBuilder numberEncoder(NumberEncoder numberEncoder) {
+      this.numberEncoder = ArgChecker.notNull(numberEncoder, "numberEncoder");
+      return this;
+    }
+
+    /**
+     * Set whether the file is compressed in gzip format.
+     * By default, the file is not compressed.
+     *
+     * @param gzip  whether to compress the file
+     * @return the builder
+     */
+    public CsvOutputFormatterBuilder gzip(boolean gzip) {
+      this.gzip = gzip;
+      return this;
+    }
+
+    /**
+     * Set the number of rows after which the file is flushed, allowing
+     * progress to be observed while a large file is written. Each flush
+     * of a compressed file reduces the compression achieved.
+     * <p>
+     * By default this is zero, and the file is only flushed when
+     * all the data has been written.
+     *
+     * @param flushInterval  the number of rows between flushes, or zero
+     *   to only flush when complete
+     * @return the builder
+     */
+    public CsvOutputFormatterBuilder flushInterval(int flushInterval) {
+      this.flushInterval = ArgChecker.notNegative(flushInterval, "flushInterval");
+      return this;
+    }
+  }
+
 }
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.opengamma.opensimm.util.ArgChecker;
+
+/**
+ * Writes CSV rows to a stream through a byte buffer.
+ * <p>
+ * Cells are written directly into the buffer as UTF-8, with numbers
+ * encoded by a {@link NumberEncoder}, so no string is created for a row
+ * or for most cells. The buffer is written to the stream when it is
+ * full, and the stream is flushed after the configured number of rows.
+ * Rows are terminated by the platform line separator.
+ */
+final class CsvRowWriter implements Closeable {
+
+  /**
+   * The size of the buffer, which is written to the stream when full.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The line separator written after each row.
+   */
+  private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+  private final OutputStream out;
+  private final NumberEncoder encoder;
+  private final int flushInterval;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private int rowsSinceFlush;
+
+  /**
+   * Create a writer for the stream.
+   *
+   * @param out  the stream to write to, which is closed when the writer is closed
+   * @param encoder  the encoder used for floating point values
+   * @param flushInterval  the number of rows after which the stream is flushed,
+   *   or zero to only flush when the writer is closed
+   */
+  CsvRowWriter(OutputStream out, NumberEncoder encoder, int flushInterval) {
+    this.out = ArgChecker.notNull(out, "out");
+    this.encoder = ArgChecker.notNull(encoder, "encoder");
+    this.flushInterval = ArgChecker.notNegative(flushInterval, "flushInterval");
+  }
+
+  /**
+   * Write a row, separating the cells with commas.
+   *
+   * @param row  the cells of the row
+   * @throws IOException if there is a problem writing to the stream
+   */
+  void writeRow(List<?> row) throws IOException {
+    for (int i = 0; i < row.size(); i++) {
+      if (i > 0) {
+        writeSeparator();
+      }
+      write(row.get(i));
+    }
+    endRow();
+  }
+
+  /**
+   * Write a cell. Integers and doubles are written directly into the
+   * buffer, any other value is written using its string form. Floats
+   * are written using their string form, as widening them to doubles
+   * would expose digits beyond the precision of the float.
+   *
+   * @param value  the value of the cell
+   * @throws IOException if there is a problem writing to the stream
+   */
+  void write(Object value) throws IOException {
+    if (value instanceof Double) {
+      write(((Double) value).doubleValue());
+    } else if (value instanceof Integer || value instanceof Long) {
+      write(((Number) value).longValue());
+    } else {
+      write(String.valueOf(value));
+    }
+  }
+
+  /**
+   * Write a floating point cell using the encoder.
+   *
+   * @param value  the value of the cell
+   * @throws IOException if there is a problem writing to the stream
+   */
+  void write(double value) throws IOException {
+    ensureCapacity(NumberEncoder.MAX_LENGTH);
+    position = encoder.encode(value, buffer, position);
+  }
+
+  /**
+   * Write an integer cell.
+   *
+   * @param value  the value of the cell
+   * @throws IOException if there is a problem writing to the stream
+   */
+  void write(long value) throws IOException {
+    ensureCapacity(20);
+    position = FixedNumberEncoder.encodeLong(value, buffer, position);
+  }
+
+  /**
+   * Write a text cell as UTF-8.
+   *
+   * @param value  the value of the cell
+   * @throws IOException if there is a problem writing to the stream
+   */
+  void write(String value) throws IOException {
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      if (value.charAt(i) >= 0x80) {
+        writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+    }
+    if (length > buffer.length) {
+      writeBytes(value.getBytes(StandardCharsets.US_ASCII));
+    } else {
+      ensureCapacity(length);
+      position = FixedNumberEncoder.encodeAscii(value, buffer, position);
+    }
+  }
+
+  /**
+   * Write the separator between two cells.
+   *
+   * @throws IOException if there is a problem writing to the stream
+   */
+  void writeSeparator() throws IOException {
+    ensureCapacity(1);
+    buffer[position++] = ',';
+  }
+
+  /**
+   * End the current row, flushing the stream if required by the flush interval.
+   *
+   * @throws IOException if there is a problem writing to the stream
+   */
+  void endRow() throws IOException {
+    writeBytes(LINE_SEPARATOR);
+    if (flushInterval > 0 && ++rowsSinceFlush >= flushInterval) {
+      flush();
+    }
+  }
+
+  /**
+   * Write the buffer to the stream and flush it.
+   *
+   * @throws IOException if there is a problem writing to the stream
+   */
+  void flush() throws IOException {
+    drain();
+    out.flush();
+    rowsSinceFlush = 0;
+  }
+
+  /**
+   * Write any buffered data and close the stream.
+   *
+   * @throws IOException if there is a problem writing to the stream
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      drain();
+    } finally {
+      out.close();
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  private void writeBytes(byte[] bytes) throws IOException {
+    if (bytes.length > buffer.length) {
+      drain();
+      out.write(bytes);
+    } else {
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+  }
+
+  // Write the buffer to the stream if there is not enough space left
+  private void ensureCapacity(int length) throws IOException {
+    if (position + length > buffer.length) {
+      drain();
+    }
+  }
+
+  private void drain() throws IOException {
+    out.write(buffer, 0, position);
+    position = 0;
+  }
+
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import com.opengamma.opensimm.util.ArgChecker;
+
+/**
+ * Encodes numbers in plain notation with a fixed number of decimal places.
+ * <p>
+ * Values are rounded half up based on the exact decimal value of the double,
+ * as {@link BigDecimal} with {@link RoundingMode#HALF_UP} would. For example,
+ * 1.115 is held as 1.11499999999999999... and is written as 1.11 to two places.
+ * <p>
+ * Values small enough to be scaled to an exact {@code long} are rounded
+ * and written digit by digit. Larger values are rare in practice and are
+ * written using {@link BigDecimal}.
+ */
+final class FixedNumberEncoder implements NumberEncoder {
+
+  /**
+   * The maximum number of decimal places supported.
+   */
+  private static final int MAX_DECIMAL_PLACES = 17;
+
+  /**
+   * Scaled values below this magnitude are rounded using double arithmetic.
+   */
+  private static final double SCALED_LIMIT = 1e15;
+
+  /**
+   * The factor used to split a double into two halves which can be multiplied exactly, 2^27 + 1.
+   */
+  private static final double SPLITTER = 134217729d;
+
+  private final int decimalPlaces;
+  private final long scale;
+  private final double scaleAsDouble;
+
+  // Package-private constructor, use NumberEncoder.fixed()
+  FixedNumberEncoder(int decimalPlaces) {
+    ArgChecker.isTrue(decimalPlaces >= 0 && decimalPlaces <= MAX_DECIMAL_PLACES,
+        "Decimal places must be between 0 and {} but was: {}", MAX_DECIMAL_PLACES, decimalPlaces);
+    this.decimalPlaces = decimalPlaces;
+    long scale = 1;
+    for (int i = 0; i < decimalPlaces; i++) {
+      scale *= 10;
+    }
+    this.scale = scale;
+    this.scaleAsDouble = scale;
+  }
+
+  @Override
+  public int encode(double value, byte[] buffer, int offset) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return encodeAscii(Double.toString(value), buffer, offset);
+    }
+    double abs = Math.abs(value);
+    double scaledAbs = abs * scaleAsDouble;
+    if (scaledAbs >= SCALED_LIMIT) {
+      String plain = new BigDecimal(value).setScale(decimalPlaces, RoundingMode.HALF_UP).toPlainString();
+      return encodeAscii(plain, buffer, offset);
+    }
+
+    // The exact scaled value is scaledAbs + error. Truncate it and round up if the exact
+    // fractional part is at least one half. Near one half both the subtractions are exact,
+    // so the sign of the sum is correct even where the rounded product lies on the midpoint
+    long truncated = (long) scaledAbs;
+    double error = productError(abs, scaleAsDouble, scaledAbs);
+    long scaled = (scaledAbs - truncated - 0.5) + error >= 0 ? truncated + 1 : truncated;
+    int pos = offset;
+    if (value < 0 && scaled != 0) {
+      buffer[pos++] = '-';
+    }
+    pos = encodeLong(scaled / scale, buffer, pos);
+    if (decimalPlaces > 0) {
+      buffer[pos++] = '.';
+      // Write the fraction from the last digit, padding with leading zeros
+      long fraction = scaled % scale;
+      for (int i = pos + decimalPlaces - 1; i >= pos; i--) {
+        buffer[i] = (byte) ('0' + fraction % 10);
+        fraction /= 10;
+      }
+      pos += decimalPlaces;
+    }
+    return pos;
+  }
+
+  //-------------------------------------------------------------------------
+  // The rounding error of the product of a and b, such that a * b == product + error exactly
+  private static double productError(double a, double b, double product) {
+    double aSplit = SPLITTER * a;
+    double aHigh = aSplit - (aSplit - a);
+    double aLow = a - aHigh;
+    double bSplit = SPLITTER * b;
+    double bHigh = bSplit - (bSplit - b);
+    double bLow = b - bHigh;
+    return ((aHigh * bHigh - product) + aHigh * bLow + aLow * bHigh) + aLow * bLow;
+  }
+
+  // Write the decimal digits of a long, returning the following position
+  static int encodeLong(long value, byte[] buffer, int offset) {
+    if (value == Long.MIN_VALUE) {
+      return encodeAscii(Long.toString(value), buffer, offset);
+    }
+    int pos = offset;
+    if (value < 0) {
+      buffer[pos++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+      digits++;
+    }
+    for (int i = pos + digits - 1; i >= pos; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    return pos + digits;
+  }
+
+  // Write the characters of a string known to be ASCII, returning the following position
+  static int encodeAscii(String text, byte[] buffer, int offset) {
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      buffer[offset + i] = (byte) text.charAt(i);
+    }
+    return offset + length;
+  }
+
+}
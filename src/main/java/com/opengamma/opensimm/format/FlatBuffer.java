@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A minimal encoder for the flatbuffer messages used in Arrow file metadata.
+ * <p>
+ * Only the features needed for Arrow metadata are supported: tables with
+ * scalar and reference fields, strings, vectors of tables and vectors of
+ * structs. A message is described as a tree of nodes and then serialized
+ * with each node written after the node which refers to it, so that all
+ * references are forward offsets as required by the format.
+ * <p>
+ * Each scalar is aligned to its size and each struct vector to 8 bytes,
+ * relative to the start of the buffer. The buffer must therefore start
+ * at an 8-byte aligned position when embedded in a file.
+ */
+final class FlatBuffer {
+
+  // Private constructor
+  private FlatBuffer() {
+  }
+
+  /**
+   * Serialize the tree of nodes with the specified root table.
+   * The result is padded to a multiple of 8 bytes.
+   *
+   * @param root  the root table
+   * @return the serialized flatbuffer
+   */
+  static byte[] serialize(Table root) {
+    LittleEndianBuffer buffer = new LittleEndianBuffer(256);
+    buffer.putInt(0);
+    buffer.setInt(0, root.write(buffer));
+    buffer.align(8);
+    return buffer.toByteArray();
+  }
+
+  /**
+   * Create an empty table.
+   *
+   * @return a new table
+   */
+  static Table table() {
+    return new Table();
+  }
+
+  /**
+   * Create a string.
+   *
+   * @param value  the value of the string
+   * @return a new node for the string
+   */
+  static Node string(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    return buffer -> {
+      buffer.align(4);
+      int position = buffer.size();
+      buffer.putInt(bytes.length);
+      buffer.putBytes(bytes, 0, bytes.length);
+      buffer.putByte(0);
+      return position;
+    };
+  }
+
+  /**
+   * Create a vector of tables.
+   *
+   * @param tables  the tables in the vector
+   * @return a new node for the vector
+   */
+  static Node tables(List<Table> tables) {
+    return buffer -> {
+      buffer.align(4);
+      int position = buffer.size();
+      buffer.putInt(tables.size());
+      for (int i = 0; i < tables.size(); i++) {
+        buffer.putInt(0);
+      }
+      for (int i = 0; i < tables.size(); i++) {
+        int offsetPosition = position + 4 + 4 * i;
+        buffer.setInt(offsetPosition, tables.get(i).write(buffer) - offsetPosition);
+      }
+      return position;
+    };
+  }
+
+  /**
+   * Create a vector of structs whose fields are all 8-byte aligned.
+   *
+   * @param count  the number of structs
+   * @param structs  the encoded structs, whose size must be a multiple of 8
+   * @return a new node for the vector
+   */
+  static Node structs(int count, LittleEndianBuffer structs) {
+    byte[] bytes = structs.toByteArray();
+    return buffer -> {
+      // The length precedes the structs, which start on an 8-byte boundary
+      buffer.align(8);
+      buffer.putInt(0);
+      int position = buffer.size();
+      buffer.putInt(count);
+      buffer.putBytes(bytes, 0, bytes.length);
+      return position;
+    };
+  }
+
+  //-------------------------------------------------------------------------
+  /**
+   * A node in the tree of a message.
+   */
+  interface Node {
+
+    /**
+     * Write the node and any nodes it refers to at the end of the buffer.
+     *
+     * @param buffer  the buffer to write to
+     * @return the position of the node in the buffer
+     */
+    int write(LittleEndianBuffer buffer);
+  }
+
+  /**
+   * A table, whose fields are identified by their slot in the schema.
+   * Union fields take two slots, the first holding the type of the union.
+   */
+  static final class Table implements Node {
+
+    private final List<Field> fields = new ArrayList<>();
+
+    // Private constructor, use FlatBuffer.table()
+    private Table() {
+    }
+
+    Table addBoolean(int slot, boolean value) {
+      return add(slot, 1, value ? 1 : 0, null);
+    }
+
+    Table addByte(int slot, int value) {
+      return add(slot, 1, value, null);
+    }
+
+    Table addShort(int slot, int value) {
+      return add(slot, 2, value, null);
+    }
+
+    Table addInt(int slot, int value) {
+      return add(slot, 4, value, null);
+    }
+
+    Table addLong(int slot, long value) {
+      return add(slot, 8, value, null);
+    }
+
+    Table addNode(int slot, Node node) {
+      return add(slot, 4, 0, node);
+    }
+
+    private Table add(int slot, int size, long value, Node node) {
+      fields.add(new Field(slot, size, value, node));
+      return this;
+    }
+
+    @Override
+    public int write(LittleEndianBuffer buffer) {
+      // Lay out the fields after the vtable offset, largest first to minimise padding
+      List<Field> layout = new ArrayList<>(fields);
+      layout.sort(Comparator.comparingInt((Field f) -> f.size).reversed());
+      int slotCount = fields.stream().mapToInt(f -> f.slot + 1).max().orElse(0);
+      int[] slotOffsets = new int[slotCount];
+      int tableSize = 4;
+      for (Field field : layout) {
+        tableSize = (tableSize + field.size - 1) & -field.size;
+        slotOffsets[field.slot] = tableSize;
+        tableSize += field.size;
+      }
+
+      buffer.align(2);
+      int vtablePosition = buffer.size();
+      buffer.putShort(4 + 2 * slotCount);
+      buffer.putShort(tableSize);
+      for (int offset : slotOffsets) {
+        buffer.putShort(offset);
+      }
+
+      buffer.align(8);
+      int position = buffer.size();
+      buffer.putInt(position - vtablePosition);
+      for (Field field : layout) {
+        buffer.align(field.size);
+        switch (field.size) {
+          case 1:
+            buffer.putByte((int) field.value);
+            break;
+          case 2:
+            buffer.putShort((int) field.value);
+            break;
+          case 4:
+            buffer.putInt((int) field.value);
+            break;
+          default:
+            buffer.putLong(field.value);
+        }
+      }
+      buffer.align(4);
+
+      for (Field field : layout) {
+        if (field.node != null) {
+          int offsetPosition = position + slotOffsets[field.slot];
+          buffer.setInt(offsetPosition, field.node.write(buffer) - offsetPosition);
+        }
+      }
+      return position;
+    }
+  }
+
+  // A field of a table, either a scalar or a reference to another node
+  private static final class Field {
+
+    private final int slot;
+    private final int size;
+    private final long value;
+    private final Node node;
+
+    private Field(int slot, int size, long value, Node node) {
+      this.slot = slot;
+      this.size = size;
+      this.value = value;
+      this.node = node;
+    }
+  }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable byte array holding little-endian values, as used
+ * by the Arrow file format and its flatbuffer metadata.
+ */
+final class LittleEndianBuffer {
+
+  private byte[] bytes;
+  private int size;
+
+  /**
+   * Create an empty buffer.
+   *
+   * @param initialCapacity  the initial capacity of the buffer in bytes
+   */
+  LittleEndianBuffer(int initialCapacity) {
+    this.bytes = new byte[initialCapacity];
+  }
+
+  /**
+   * Get the number of bytes in the buffer.
+   *
+   * @return the number of bytes in the buffer
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Remove all the bytes from the buffer, retaining its capacity.
+   */
+  void clear() {
+    size = 0;
+  }
+
+  /**
+   * Add zero bytes until the size is a multiple of the alignment.
+   *
+   * @param alignment  the alignment, which must be a power of 2
+   */
+  void align(int alignment) {
+    int padding = -size & (alignment - 1);
+    ensureCapacity(padding);
+    Arrays.fill(bytes, size, size + padding, (byte) 0);
+    size += padding;
+  }
+
+  void putByte(int value) {
+    ensureCapacity(1);
+    bytes[size++] = (byte) value;
+  }
+
+  void putShort(int value) {
+    ensureCapacity(2);
+    bytes[size++] = (byte) value;
+    bytes[size++] = (byte) (value >> 8);
+  }
+
+  void putInt(int value) {
+    ensureCapacity(4);
+    setInt(size, value);
+    size += 4;
+  }
+
+  void putLong(long value) {
+    putInt((int) value);
+    putInt((int) (value >> 32));
+  }
+
+  void putDouble(double value) {
+    putLong(Double.doubleToRawLongBits(value));
+  }
+
+  void putBytes(byte[] values, int offset, int length) {
+    ensureCapacity(length);
+    System.arraycopy(values, offset, bytes, size, length);
+    size += length;
+  }
+
+  /**
+   * Overwrite an int previously added to the buffer.
+   *
+   * @param position  the position of the int
+   * @param value  the new value
+   */
+  void setInt(int position, int value) {
+    bytes[position] = (byte) value;
+    bytes[position + 1] = (byte) (value >> 8);
+    bytes[position + 2] = (byte) (value >> 16);
+    bytes[position + 3] = (byte) (value >> 24);
+  }
+
+  /**
+   * Copy the contents of the buffer to a new array.
+   *
+   * @return the contents of the buffer
+   */
+  byte[] toByteArray() {
+    return Arrays.copyOf(bytes, size);
+  }
+
+  /**
+   * Write the contents of the buffer to the stream.
+   *
+   * @param out  the stream to write to
+   * @throws IOException if there is a problem writing to the stream
+   */
+  void writeTo(OutputStream out) throws IOException {
+    out.write(bytes, 0, size);
+  }
+
+  private void ensureCapacity(int length) {
+    if (size + length > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+    }
+  }
+
+}
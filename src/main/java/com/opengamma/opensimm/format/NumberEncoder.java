@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+/**
+ * Encodes numbers as ASCII text directly into a byte buffer.
+ * <p>
+ * Writing the characters of a number straight into the output buffer
+ * avoids creating and then encoding an intermediate string for every
+ * value, which dominates the cost of writing large volumes of output
+ * such as P&amp;L vectors.
+ */
+public interface NumberEncoder {
+
+  /**
+   * The maximum number of bytes written when encoding a single number.
+   * Callers must ensure at least this much space is available in the
+   * buffer before calling {@link #encode(double, byte[], int)}.
+   */
+  public static final int MAX_LENGTH = 400;
+
+  /**
+   * Get an encoder producing the same text as {@link Double#toString(double)},
+   * the shortest decimal representation which uniquely identifies the value.
+   * This is the default, and the values it writes can be read back exactly.
+   *
+   * @return an encoder using the shortest representation
+   */
+  public static NumberEncoder shortest() {
+    return ShortestNumberEncoder.INSTANCE;
+  }
+
+  /**
+   * Get an encoder writing numbers in plain notation with a fixed number
+   * of decimal places, rounding half away from zero. Infinite and NaN
+   * values are written as for {@link Double#toString(double)}.
+   *
+   * @param decimalPlaces  the number of decimal places, from 0 to 17
+   * @return an encoder using the specified number of decimal places
+   */
+  public static NumberEncoder fixed(int decimalPlaces) {
+    return new FixedNumberEncoder(decimalPlaces);
+  }
+
+  /**
+   * Encode the value into the buffer as ASCII characters.
+   *
+   * @param value  the value to encode
+   * @param buffer  the buffer to write to, which must have at least
+   *   {@link #MAX_LENGTH} bytes available from the offset
+   * @param offset  the position in the buffer to start writing
+   * @return the position in the buffer following the encoded value
+   */
+  public abstract int encode(double value, byte[] buffer, int offset);
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.opengamma.opensimm.PnlVectorConsumer;
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.util.SimmUtils;
+
+/**
+ * Writes P&amp;L vectors to a stream in the Arrow IPC file format as they
+ * are calculated, for loading into columnar analytics tools.
+ * <p>
+ * The file has the typed columns {@code Portfolio} and {@code Asset Class}
+ * holding strings, {@code Index} holding the 1-based index of the scenario
+ * as a 32-bit integer and {@code P&L Vector} holding the P&amp;L as a double.
+ * The rows for each portfolio and asset class are ordered from the highest
+ * P&amp;L to the lowest, as for {@link PnlVectorCsvWriter}.
+ * <p>
+ * The writer is used as the consumer for
+ * {@link com.opengamma.opensimm.SimmCalculator#pnlVectors}, and must
+ * be closed once all the P&amp;L vectors have been written.
+ *
+ * @param <K>  the type of the portfolio identifier
+ */
+public final class PnlVectorArrowWriter<K> implements PnlVectorConsumer<K>, Closeable {
+
+  /**
+   * The number of rows after which a record batch is written.
+   */
+  private static final int BATCH_SIZE = 64 * 1024;
+
+  private final ArrowFileWriter writer;
+  private final ArrowColumn portfolios;
+  private final ArrowColumn assetClasses;
+  private final ArrowColumn indices;
+  private final ArrowColumn pnls;
+
+  /**
+   * Create a writer for the stream, writing the schema immediately.
+   *
+   * @param out  the stream to write to, which is closed when the writer is closed
+   * @param <K>  the type of the portfolio identifier
+   * @return a new writer
+   * @throws UncheckedIOException if there is a problem writing to the stream
+   */
+  public static <K> PnlVectorArrowWriter<K> of(OutputStream out) {
+    return new PnlVectorArrowWriter<>(out);
+  }
+
+  // Private constructor
+  private PnlVectorArrowWriter(OutputStream out) {
+    try {
+      this.writer = new ArrowFileWriter(
+          out,
+          Arrays.asList("Portfolio", "Asset Class", "Index", "P&L Vector"),
+          Arrays.asList(ArrowColumn.Type.UTF8, ArrowColumn.Type.UTF8, ArrowColumn.Type.INT32, ArrowColumn.Type.FLOAT64));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    List<ArrowColumn> columns = writer.getColumns();
+    this.portfolios = columns.get(0);
+    this.assetClasses = columns.get(1);
+    this.indices = columns.get(2);
+    this.pnls = columns.get(3);
+  }
+
+  /**
+   * Write the P&amp;L vector of a portfolio for an asset class.
+   *
+   * @param portfolio  the identifier of the portfolio
+   * @param assetClass  the asset class
+   * @param profits  the profit in each scenario
+   * @throws UncheckedIOException if there is a problem writing to the stream
+   */
+  @Override
+  public void accept(K portfolio, AssetClass assetClass, double[] profits) {
+    String portfolioId = String.valueOf(portfolio);
+    try {
+      for (int scenario : SimmUtils.descendingOrder(profits)) {
+        portfolios.addString(portfolioId);
+        assetClasses.addString(assetClass.name());
+        indices.addInt(scenario + 1);
+        pnls.addDouble(profits[scenario]);
+        if (writer.getRowCount() == BATCH_SIZE) {
+          writer.writeBatch();
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Write any remaining rows and the file footer, and close the stream.
+   *
+   * @throws IOException if there is a problem writing to the stream
+   */
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+
+}
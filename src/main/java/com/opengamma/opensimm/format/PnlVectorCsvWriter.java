@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import com.opengamma.opensimm.PnlVectorConsumer;
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.util.SimmUtils;
+
+/**
+ * Writes P&amp;L vectors to a stream in CSV format as they are
+ * calculated, without holding them in memory.
+ * <p>
+ * Each row holds the asset class, the 1-based index of the scenario
+ * and the P&amp;L, optionally preceded by the portfolio identifier.
+ * The rows for each portfolio and asset class are ordered from the
+ * highest P&amp;L to the lowest, as for
+ * {@link com.opengamma.opensimm.SimmCalculator#pnlVectorsByAssetClass}.
+ * <p>
+ * The writer is used as the consumer for
+ * {@link com.opengamma.opensimm.SimmCalculator#pnlVectors}, and must
+ * be closed once all the P&amp;L vectors have been written.
+ *
+ * @param <K>  the type of the portfolio identifier
+ */
+public final class PnlVectorCsvWriter<K> implements PnlVectorConsumer<K>, Closeable {
+
+  private final CsvRowWriter writer;
+  private final boolean includePortfolio;
+
+  /**
+   * Create a writer for the stream, writing the header immediately.
+   * The header is {@code Asset Class,Index,P&L Vector}, preceded by
+   * {@code Portfolio} if the portfolio identifier is included.
+   *
+   * @param out  the stream to write to, which is closed when the writer is closed
+   * @param includePortfolio  whether to include the portfolio identifier in each row
+   * @param <K>  the type of the portfolio identifier
+   * @return a new writer
+   * @throws UncheckedIOException if there is a problem writing to the stream
+   */
+  public static <K> PnlVectorCsvWriter<K> of(OutputStream out, boolean includePortfolio) {
+    return of(out, includePortfolio, NumberEncoder.shortest());
+  }
+
+  /**
+   * Create a writer for the stream using the specified encoder for
+   * the P&amp;L values, writing the header immediately.
+   *
+   * @param out  the stream to write to, which is closed when the writer is closed
+   * @param includePortfolio  whether to include the portfolio identifier in each row
+   * @param numberEncoder  the encoder for the P&amp;L values
+   * @param <K>  the type of the portfolio identifier
+   * @return a new writer
+   * @throws UncheckedIOException if there is a problem writing to the stream
+   */
+  public static <K> PnlVectorCsvWriter<K> of(OutputStream out, boolean includePortfolio, NumberEncoder numberEncoder) {
+    return new PnlVectorCsvWriter<>(out, includePortfolio, numberEncoder);
+  }
+
+  // Private constructor
+  private PnlVectorCsvWriter(OutputStream out, boolean includePortfolio, NumberEncoder numberEncoder) {
+    this.writer = new CsvRowWriter(out, numberEncoder, 0);
+    this.includePortfolio = includePortfolio;
+    try {
+      writer.write(includePortfolio ? "Portfolio,Asset Class,Index,P&L Vector" : "Asset Class,Index,P&L Vector");
+      writer.endRow();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Write the P&amp;L vector of a portfolio for an asset class.
+   *
+   * @param portfolio  the identifier of the portfolio
+   * @param assetClass  the asset class
+   * @param profits  the profit in each scenario
+   * @throws UncheckedIOException if there is a problem writing to the stream
+   */
+  @Override
+  public void accept(K portfolio, AssetClass assetClass, double[] profits) {
+    String prefix = includePortfolio ? portfolio + "," + assetClass.name() + "," : assetClass.name() + ",";
+    try {
+      for (int scenario : SimmUtils.descendingOrder(profits)) {
+        writer.write(prefix);
+        writer.write(scenario + 1);
+        writer.writeSeparator();
+        writer.write(profits[scenario]);
+        writer.endRow();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Flush any buffered rows and close the stream.
+   *
+   * @throws IOException if there is a problem writing to the stream
+   */
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+
+}
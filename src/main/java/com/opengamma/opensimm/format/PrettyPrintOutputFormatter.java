@@ -5,29 +5,81 @@
  */
 package com.opengamma.opensimm.format;
 
-import static java.util.stream.Collectors.joining;
-import static java.util.stream.Collectors.toList;
-
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.text.FieldPosition;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import com.opengamma.opensimm.util.ArgChecker;
+
 /**
  * A formatter which will output data to the command line
  * in a simple tabular format.
+ * <p>
+ * The width of each column is normally that of its widest value, which
+ * requires all the rows to be held before any are printed. To bound the
+ * memory used for large outputs, only a limited number of rows are held.
+ * If there are more rows than the limit, the column widths are fixed
+ * using the rows held so far, and the remaining rows are printed as
+ * they are produced. Any later value which is wider than its column
+ * will then extend beyond it.
  */
 public class PrettyPrintOutputFormatter implements OutputFormatter {
 
+  /**
+   * The default number of rows held to determine the column widths.
+   */
+  private static final int DEFAULT_ROW_LIMIT = 10_000;
+
+  /**
+   * Spaces used to pad values to the column width.
+   */
+  private static final char[] SPACES = filledArray(' ');
+
+  /**
+   * Dashes used for the separator lines.
+   */
+  private static final char[] DASHES = filledArray('-');
+
+  /**
+   * The line separator written after each line.
+   */
+  private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray();
+
   private final List<List<Object>> headers = new ArrayList<>();
   private final List<List<Object>> footers = new ArrayList<>();
-  private Stream<List<Object>> rowStream;
+  private final int rowLimit;
+  private final NumberFormat numberFormat = buildNumberFormatter();
+  private final StringBuffer numberBuffer = new StringBuffer();
+  private final FieldPosition fieldPosition = new FieldPosition(0);
+  private Stream<List<Object>> rowStream = Stream.empty();
+
+  /**
+   * Create a formatter which holds up to 10,000 rows
+   * to determine the column widths.
+   */
+  public PrettyPrintOutputFormatter() {
+    this(DEFAULT_ROW_LIMIT);
+  }
 
-  private static final NumberFormat numberFormat = buildNumberFormatter();
+  /**
+   * Create a formatter which holds up to the specified
+   * number of rows to determine the column widths.
+   *
+   * @param rowLimit  the maximum number of rows held before printing,
+   *   after which the column widths are fixed
+   */
+  public PrettyPrintOutputFormatter(int rowLimit) {
+    this.rowLimit = ArgChecker.notNegative(rowLimit, "rowLimit");
+  }
 
   private static NumberFormat buildNumberFormatter() {
     NumberFormat nf = NumberFormat.getNumberInstance();
@@ -36,6 +88,12 @@ public class PrettyPrintOutputFormatter implements OutputFormatter {
     return nf;
   }
 
+  private static char[] filledArray(char c) {
+    char[] chars = new char[256];
+    Arrays.fill(chars, c);
+    return chars;
+  }
+
   @Override
   public void addHeader(Object... header) {
     headers.add(Arrays.asList(header));
@@ -56,81 +114,148 @@ public class PrettyPrintOutputFormatter implements OutputFormatter {
 
     PrintStream printStream = System.out;
 
-    // First, format everything as Strings
-    // Second, works out required widths
-    // Finally format using the widths
-    List<List<Object>> rows = rowStream.collect(toList());
+    // Format the headers, footers and the rows up to the limit
+    // once, working out the required widths as we go
+    int columnCount = headers.get(0).size();
+    int[] widths = new int[columnCount];
+    FormattedRows formattedHeaders = new FormattedRows(columnCount);
+    headers.forEach(row -> formattedHeaders.add(row, widths));
+    FormattedRows formattedFooters = new FormattedRows(columnCount);
+    footers.forEach(row -> formattedFooters.add(row, widths));
 
-    Stream<List<String>> allRowsAsString =
-        Stream.concat(Stream.concat(rows.stream(), headers.stream()), footers.stream())
-            .map(this::formatRow);
-
-    int size = headers.get(0).size();
+    FormattedRows formattedRows = new FormattedRows(columnCount);
+    Iterator<List<Object>> rows = rowStream.iterator();
+    while (formattedRows.rowCount < rowLimit && rows.hasNext()) {
+      formattedRows.add(rows.next(), widths);
+    }
 
-    List<Integer> maxWidths =
-        allRowsAsString
-            .map(row -> row.stream().map(String::length).collect(toList()))
-            .reduce(
-                IntStream.range(0, size).mapToObj(i -> 0).collect(toList()),
-                (l1, l2) -> findMaxima(size, l1, l2), (l1, l2) -> l1);
+    try {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(printStream), 64 * 1024);
+      if (!headers.isEmpty()) {
+        outputSeparator(widths, writer);
+        formattedHeaders.output(widths, writer);
+        outputSeparator(widths, writer);
+      }
 
-    if (!headers.isEmpty()) {
-      outputSeparator(maxWidths, printStream);
-      formatAndOutput(headers.stream(), maxWidths, printStream);
-      outputSeparator(maxWidths, printStream);
-    }
+      formattedRows.output(widths, writer);
 
-    formatAndOutput(rows.stream(), maxWidths, printStream);
+      // Any rows beyond the limit are printed as they arrive using the widths found so far
+      FormattedRows row = new FormattedRows(columnCount);
+      while (rows.hasNext()) {
+        row.clear();
+        row.add(rows.next(), null);
+        row.output(widths, writer);
+      }
 
-    if (!footers.isEmpty()) {
-      outputSeparator(maxWidths, printStream);
-      formatAndOutput(footers.stream(), maxWidths, printStream);
-      outputSeparator(maxWidths, printStream);
+      if (!footers.isEmpty()) {
+        outputSeparator(widths, writer);
+        formattedFooters.output(widths, writer);
+        outputSeparator(widths, writer);
+      }
+      writer.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException("Exception whilst writing output", e);
     }
   }
 
-  private void outputSeparator(List<Integer> maxWidths, PrintStream printStream) {
-    printStream.println(maxWidths.stream().map(i -> repeatChar("-", i)).collect(joining(" ")));
+  private void outputSeparator(int[] widths, Writer writer) throws IOException {
+    for (int i = 0; i < widths.length; i++) {
+      if (i > 0) {
+        writer.write(' ');
+      }
+      repeatChar(DASHES, widths[i], writer);
+    }
+    writer.write(LINE_SEPARATOR);
   }
 
-  private String repeatChar(String s, Integer i) {
-    return String.join("", Collections.nCopies(i, s));
+  private void repeatChar(char[] chars, int count, Writer writer) throws IOException {
+    for (int remaining = count; remaining > 0; remaining -= chars.length) {
+      writer.write(chars, 0, Math.min(remaining, chars.length));
+    }
   }
 
-  private List<Integer> findMaxima(int size, List<Integer> l1, List<Integer> l2) {
-    return IntStream.range(0, size).mapToObj(i -> Math.max(l1.get(i), l2.get(i))).collect(toList());
-  }
+  //-------------------------------------------------------------------------
+  // Rows whose cells have been formatted into a single char buffer
+  private final class FormattedRows {
 
-  private String formatRow(List<Object> row, List<Integer> widths) {
+    private final int columnCount;
+    private char[] chars = new char[1024];
+    private int length;
+    private int[] cellEnds = new int[64];
+    private boolean[] numeric = new boolean[64];
+    private int cellCount;
+    private int rowCount;
 
-    return IntStream.range(0, widths.size())
-        .mapToObj(i -> formatRowItem(row.get(i), widths.get(i)))
-        .collect(joining(" "));
-  }
-
-  private String formatRowItem(Object o, int width) {
-    return o instanceof Number ? formatNumber(o, width) : formatObject(o, width);
-  }
+    private FormattedRows(int columnCount) {
+      this.columnCount = columnCount;
+    }
 
-  private String formatObject(Object o, int width) {
-    String s = o.toString();
-    int pad = width - s.length();
-    return s + (pad > 0 ? repeatChar(" ", pad) : "");
-  }
+    // Format each cell of the row, widening the columns to fit if widths are supplied
+    private void add(List<Object> row, int[] widths) {
+      for (int i = 0; i < columnCount; i++) {
+        Object o = row.get(i);
+        int start = length;
+        if (o instanceof Double) {
+          numberBuffer.setLength(0);
+          numberFormat.format(((Double) o).doubleValue(), numberBuffer, fieldPosition);
+          ensureCapacity(numberBuffer.length());
+          numberBuffer.getChars(0, numberBuffer.length(), chars, length);
+          length += numberBuffer.length();
+        } else {
+          String s = o.toString();
+          ensureCapacity(s.length());
+          s.getChars(0, s.length(), chars, length);
+          length += s.length();
+        }
+        if (cellCount == cellEnds.length) {
+          cellEnds = Arrays.copyOf(cellEnds, cellCount * 2);
+          numeric = Arrays.copyOf(numeric, cellCount * 2);
+        }
+        cellEnds[cellCount] = length;
+        numeric[cellCount] = o instanceof Number;
+        cellCount++;
+        if (widths != null) {
+          widths[i] = Math.max(widths[i], length - start);
+        }
+      }
+      rowCount++;
+    }
 
-  private String formatNumber(Object o, int width) {
-    String format = o instanceof Double ? numberFormat.format(o) : o.toString();
+    // Output the rows, with numbers aligned right and anything else aligned left
+    private void output(int[] widths, Writer writer) throws IOException {
+      int start = 0;
+      for (int cell = 0; cell < cellCount; cell++) {
+        int column = cell % columnCount;
+        if (column > 0) {
+          writer.write(' ');
+        }
+        int cellLength = cellEnds[cell] - start;
+        int pad = widths[column] - cellLength;
+        if (numeric[cell]) {
+          repeatChar(SPACES, pad, writer);
+          writer.write(chars, start, cellLength);
+        } else {
+          writer.write(chars, start, cellLength);
+          repeatChar(SPACES, pad, writer);
+        }
+        if (column == columnCount - 1) {
+          writer.write(LINE_SEPARATOR);
+        }
+        start = cellEnds[cell];
+      }
+    }
 
-    int pad = width - format.length();
-    return (pad > 0 ? repeatChar(" ", pad) : "") + format;
-  }
+    private void clear() {
+      length = 0;
+      cellCount = 0;
+      rowCount = 0;
+    }
 
-  private List<String> formatRow(List<Object> row) {
-    return row.stream().map(o -> formatRowItem(o, 0)).collect(toList());
+    private void ensureCapacity(int extra) {
+      if (length + extra > chars.length) {
+        chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + extra));
+      }
+    }
   }
 
-  private void formatAndOutput(Stream<List<Object>> outputRows, List<Integer> maxWidths, PrintStream printStream) {
-    outputRows.map(row -> formatRow(row, maxWidths))
-        .forEach(printStream::println);
-  }
 }
@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+/**
+ * Encodes numbers using the representation of {@link Double#toString(double)}.
+ * <p>
+ * Integral values which can be represented exactly are written directly,
+ * so only values with a fractional part need the string conversion.
+ */
+final class ShortestNumberEncoder implements NumberEncoder {
+
+  /**
+   * The singleton instance.
+   */
+  static final ShortestNumberEncoder INSTANCE = new ShortestNumberEncoder();
+
+  /**
+   * Integral values below this magnitude are written by
+   * {@link Double#toString(double)} in plain notation.
+   */
+  private static final double PLAIN_LIMIT = 1e7;
+
+  /**
+   * The bits of negative zero, which is written as {@code -0.0}.
+   */
+  private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0d);
+
+  // Private constructor
+  private ShortestNumberEncoder() {
+  }
+
+  @Override
+  public int encode(double value, byte[] buffer, int offset) {
+    long integral = (long) value;
+    if (integral == value && Math.abs(value) < PLAIN_LIMIT && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO) {
+      int pos = FixedNumberEncoder.encodeLong(integral, buffer, offset);
+      buffer[pos++] = '.';
+      buffer[pos++] = '0';
+      return pos;
+    }
+    return FixedNumberEncoder.encodeAscii(Double.toString(value), buffer, offset);
+  }
+
+}
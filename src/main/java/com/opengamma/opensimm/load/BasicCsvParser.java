@@ -5,18 +5,21 @@
  */
 package com.opengamma.opensimm.load;
 
-import static java.util.stream.Collectors.toList;
-
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.opengamma.opensimm.util.ArgChecker;
 
@@ -29,6 +32,11 @@ import com.opengamma.opensimm.util.ArgChecker;
  *   <li>the parser does not handle quoting of data</li>
  *   <li>the parser does not handle escaping of characters</li>
  * </ul>
+ * <p>
+ * Files are split into lines and fields by a tokenizer working directly
+ * on a character buffer. For large files, {@link #parseRows} avoids
+ * creating any objects per field, passing each row to a callback as a
+ * {@link CsvRow} cursor from which numbers can be read directly.
  */
 public class BasicCsvParser {
 
@@ -52,32 +60,116 @@ public class BasicCsvParser {
       List<String> expectedHeader,
       Function<Stream<List<String>>, T> handler) {
 
-    try(BufferedReader reader = createReader(file)) {
+    try (CsvTokenizer tokenizer = createTokenizer(createReader(file), expectedHeader)) {
 
-      // Read the first line to use as header
-      List<String> header = splitLine(reader.readLine());
+      // Create a stream for the rest of the file
+      Stream<List<String>> data = StreamSupport.stream(
+          new Spliterators.AbstractSpliterator<List<String>>(Long.MAX_VALUE, Spliterator.ORDERED) {
+            @Override
+            public boolean tryAdvance(Consumer<? super List<String>> action) {
+              CsvRow row = nextDataRow(tokenizer);
+              if (row == null) {
+                return false;
+              }
+              action.accept(row.toList());
+              return true;
+            }
+          }, false);
 
-      ArgChecker.isTrue(expectedHeader.equals(header),
-          "Expected header to contain: {} but was: {}",  expectedHeader, header);
+      return handler.apply(data);
 
-      // Now create a stream for the rest of the file
-      Stream<List<String>> data =
-          reader.lines()
-              .filter(l -> !l.isEmpty())
-              .map(BasicCsvParser::splitLine);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
 
-      return handler.apply(data);
+  /**
+   * Parse the specified file passing each row to the supplied
+   * callback, ensuring the header of the file matches expectations.
+   * <p>
+   * The same {@link CsvRow} instance is passed for every row, so it
+   * must not be retained by the callback. Empty lines are skipped.
+   *
+   * @param file  the file to be parsed
+   * @param expectedHeader  the header row the file is expected to
+   *   contain. This provides a basic check that the correct type
+   *   of file is being processed.
+   * @param callback  callback invoked with each row after the header
+   * @throws RuntimeException if there are problems reading the file
+   */
+  public static void parseRows(
+      File file,
+      List<String> expectedHeader,
+      Consumer<CsvRow> callback) {
 
+    try {
+      parseRows(createReader(file), expectedHeader, callback);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
-  private static BufferedReader createReader(File file) throws FileNotFoundException {
-    return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+  /**
+   * Parse the data from the specified reader passing each row to the
+   * supplied callback, ensuring the header matches expectations. This
+   * allows data which does not come from a file, such as the body of
+   * a request, to be parsed. The reader is closed once parsing completes.
+   * <p>
+   * The same {@link CsvRow} instance is passed for every row, so it
+   * must not be retained by the callback. Empty lines are skipped.
+   *
+   * @param reader  the reader supplying the data
+   * @param expectedHeader  the header row the data is expected to contain
+   * @param callback  callback invoked with each row after the header
+   * @throws RuntimeException if there are problems reading the data
+   */
+  public static void parseRows(
+      Reader reader,
+      List<String> expectedHeader,
+      Consumer<CsvRow> callback) {
+
+    try (CsvTokenizer tokenizer = createTokenizer(reader, expectedHeader)) {
+      for (CsvRow row = nextDataRow(tokenizer); row != null; row = nextDataRow(tokenizer)) {
+        callback.accept(row);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Create a tokenizer positioned after the header, which is checked
+  private static CsvTokenizer createTokenizer(Reader reader, List<String> expectedHeader) throws IOException {
+    CsvTokenizer tokenizer = new CsvTokenizer(reader, CsvTokenizer.DEFAULT_BUFFER_SIZE);
+    try {
+      // Read the first line to use as header
+      List<String> header = tokenizer.next() ? tokenizer.row().toList() : null;
+
+      ArgChecker.isTrue(expectedHeader.equals(header),
+          "Expected header to contain: {} but was: {}",  expectedHeader, header);
+      return tokenizer;
+
+    } catch (IOException | RuntimeException e) {
+      tokenizer.close();
+      throw e;
+    }
+  }
+
+  // Get the next row which is not an empty line, or null at the end of the file
+  private static CsvRow nextDataRow(CsvTokenizer tokenizer) {
+    try {
+      while (tokenizer.next()) {
+        CsvRow row = tokenizer.row();
+        if (!row.isEmptyLine()) {
+          return row;
+        }
+      }
+      return null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
-  private static List<String> splitLine(String line) {
-    return Stream.of(line.split(",")).map(String::trim).collect(toList());
+  private static Reader createReader(File file) throws FileNotFoundException {
+    return new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
   }
 }
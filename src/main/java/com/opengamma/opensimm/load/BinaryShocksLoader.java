@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Function;
+
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.StandardRiskFactor;
+import com.opengamma.opensimm.util.ArgChecker;
+import com.opengamma.opensimm.util.Pair;
+import com.opengamma.opensimm.util.PrimitiveDoubleList;
+
+/**
+ * Loads risk factor or FX shocks from a binary shocks file, as
+ * written by {@link BinaryShocksWriter}.
+ * <p>
+ * The file is memory-mapped and each set of shocks is returned as a
+ * read-only view onto the mapped data, so loading does not depend on
+ * the number of scenarios and no shocks are copied until they are used.
+ * The views implement {@link PrimitiveDoubleList}, so when the market
+ * movements are generated the shocks are copied in bulk rather than
+ * being boxed one at a time.
+ * <p>
+ * The file format is:
+ * <ul>
+ *   <li>the magic bytes {@code OSIMMSHK}</li>
+ *   <li>the format version, as an int</li>
+ *   <li>the type of shocks, as a byte: {@code R} for risk factor
+ *     shocks or {@code F} for FX shocks, followed by 3 bytes of padding</li>
+ *   <li>the number of entries in the dictionary, as an int</li>
+ *   <li>the dictionary, with one entry per risk factor or currency
+ *     pair, each holding the length of the name as a short, the UTF-8
+ *     bytes of the name, the number of scenarios as an int and the
+ *     offset of the shocks from the start of the file as a long</li>
+ *   <li>the shocks for each entry, as doubles aligned to 8 bytes</li>
+ * </ul>
+ * All values are little-endian. Currency pairs are named as in
+ * the FX shocks CSV file, for example {@code EUR/USD}.
+ */
+public class BinaryShocksLoader {
+
+  /**
+   * The magic bytes at the start of every binary shocks file.
+   */
+  static final byte[] MAGIC = "OSIMMSHK".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * The current version of the format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The type of a file holding risk factor shocks.
+   */
+  static final byte RISK_FACTOR_SHOCKS = 'R';
+
+  /**
+   * The type of a file holding FX shocks.
+   */
+  static final byte FX_SHOCKS = 'F';
+
+  /**
+   * The size of the fixed part of the header, before the dictionary.
+   */
+  static final int HEADER_SIZE = MAGIC.length + 12;
+
+  private final File file;
+
+  /**
+   * Create a loader for the specified file.
+   *
+   * @param f  the binary file containing the shocks
+   * @return a new loader
+   */
+  public static BinaryShocksLoader of(File f) {
+    return new BinaryShocksLoader(f);
+  }
+
+  /**
+   * Checks whether a file is a binary shocks file, by checking
+   * for the magic bytes at the start of the file.
+   *
+   * @param file  the file to check
+   * @return true if the file is a binary shocks file
+   * @throws RuntimeException if there is a problem reading the file
+   */
+  public static boolean isBinaryShocksFile(File file) {
+    ArgChecker.notNull(file, "file");
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      byte[] start = new byte[MAGIC.length];
+      return raf.length() >= MAGIC.length && raf.read(start) == MAGIC.length && Arrays.equals(start, MAGIC);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Load the risk factor shocks into a {@code Map<RiskFactor, List<Double>>}.
+   *
+   * @return a map containing the risk factor shocks
+   * @throws IllegalArgumentException if the file does not contain risk factor shocks
+   */
+  public Map<RiskFactor, List<Double>> loadRiskFactorShocks() {
+    return load(RISK_FACTOR_SHOCKS, StandardRiskFactor::of);
+  }
+
+  /**
+   * Load the FX shocks into a Map.
+   *
+   * @return a Map from currency pair to shocks
+   * @throws IllegalArgumentException if the file does not contain FX shocks
+   */
+  public Map<Pair<Currency, Currency>, List<Double>> loadFxShocks() {
+    Map<Pair<Currency, Currency>, List<Double>> shocks = load(FX_SHOCKS, BinaryShocksLoader::parseCurrencyPair);
+    long shockVariations = shocks.values()
+        .stream()
+        .map(List::size)
+        .distinct()
+        .count();
+    ArgChecker.isTrue(shockVariations <= 1, "All shocks must be the same length");
+    return shocks;
+  }
+
+  //-------------------------------------------------------------------------
+  private <K> Map<K, List<Double>> load(byte expectedType, Function<String, K> keyParser) {
+    try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+      ArgChecker.isTrue(channel.size() <= Integer.MAX_VALUE,
+          "File: {} is too large to be mapped, size: {}", file, channel.size());
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+      int entryCount = readHeader(buffer, expectedType, file);
+      Map<K, List<Double>> result = new HashMap<>();
+      for (int i = 0; i < entryCount; i++) {
+        byte[] nameBytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(nameBytes);
+        String name = new String(nameBytes, StandardCharsets.UTF_8);
+        int scenarioCount = buffer.getInt();
+        long offset = buffer.getLong();
+
+        ArgChecker.isTrue(scenarioCount > 0, "No shocks found for: {}", name);
+        ArgChecker.isTrue(offset >= 0 && offset + 8L * scenarioCount <= buffer.limit(),
+            "Shocks for: {} lie outside the file", name);
+        if (result.put(keyParser.apply(name), view(buffer, (int) offset, scenarioCount)) != null) {
+          throw new IllegalArgumentException("Duplicate shocks found for: " + name);
+        }
+      }
+      return result;
+
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Check the fixed part of the header, returning the number of entries
+  static int readHeader(ByteBuffer buffer, byte expectedType, File file) {
+    ArgChecker.isTrue(buffer.limit() >= HEADER_SIZE, "File: {} is not a binary shocks file", file);
+    byte[] magic = new byte[MAGIC.length];
+    buffer.get(magic);
+    ArgChecker.isTrue(Arrays.equals(magic, MAGIC), "File: {} is not a binary shocks file", file);
+    int version = buffer.getInt();
+    ArgChecker.isTrue(version == VERSION, "File: {} has unsupported version: {}", file, version);
+    byte type = buffer.get();
+    ArgChecker.isTrue(type == expectedType, "File: {} contains {} but {} were expected",
+        file, describe(type), describe(expectedType));
+    buffer.position(buffer.position() + 3);
+    return buffer.getInt();
+  }
+
+  private static String describe(byte type) {
+    return type == RISK_FACTOR_SHOCKS ? "risk factor shocks" : type == FX_SHOCKS ? "FX shocks" : "unknown data";
+  }
+
+  // Create a view of the shocks which reads directly from the mapped buffer
+  private static List<Double> view(ByteBuffer buffer, int offset, int scenarioCount) {
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(offset).limit(offset + 8 * scenarioCount);
+    return new DoubleBufferList(slice.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+  }
+
+  // Parse the name of a currency pair, for example EUR/USD
+  static Pair<Currency, Currency> parseCurrencyPair(String name) {
+    ArgChecker.isTrue(name.length() == 7 && name.charAt(3) == '/', "Invalid currency pair: {}", name);
+    return Pair.of(Currency.getInstance(name.substring(0, 3)), Currency.getInstance(name.substring(4)));
+  }
+
+  private BinaryShocksLoader(File file) {
+    checkFile(file);
+    this.file = file;
+  }
+
+  private void checkFile(File file) {
+    ArgChecker.notNull(file, "file");
+    ArgChecker.isTrue(file.exists(), "File: {} could not be found", file);
+  }
+
+  //-------------------------------------------------------------------------
+  // Unmodifiable list reading its values from a buffer
+  private static final class DoubleBufferList
+      extends AbstractList<Double>
+      implements PrimitiveDoubleList, RandomAccess {
+
+    private final DoubleBuffer buffer;
+
+    private DoubleBufferList(DoubleBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public Double get(int index) {
+      return buffer.get(index);
+    }
+
+    @Override
+    public int size() {
+      return buffer.limit();
+    }
+
+    @Override
+    public void copyTo(double[] destination) {
+      // Read through a duplicate as the bulk get moves the position,
+      // and the list may be read from several threads
+      buffer.duplicate().get(destination, 0, buffer.limit());
+    }
+  }
+
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.load;
+
+import static com.opengamma.opensimm.load.BinaryShocksLoader.FX_SHOCKS;
+import static com.opengamma.opensimm.load.BinaryShocksLoader.HEADER_SIZE;
+import static com.opengamma.opensimm.load.BinaryShocksLoader.MAGIC;
+import static com.opengamma.opensimm.load.BinaryShocksLoader.RISK_FACTOR_SHOCKS;
+import static com.opengamma.opensimm.load.BinaryShocksLoader.VERSION;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.StandardRiskFactor;
+import com.opengamma.opensimm.util.ArgChecker;
+import com.opengamma.opensimm.util.Pair;
+
+/**
+ * Writes risk factor or FX shocks to a binary shocks file, which can
+ * be loaded much more quickly than the equivalent CSV file using
+ * {@link BinaryShocksLoader}.
+ * <p>
+ * As shock histories change infrequently, the intended use is to
+ * convert the CSV files once, when they change, for example:
+ * <pre>
+ *   java -cp opensimm-1.0.jar com.opengamma.opensimm.load.BinaryShocksWriter \
+ *       risk-factor-shocks.csv risk-factor-shocks.bin
+ * </pre>
+ * The type of shocks is determined from the header of the CSV file.
+ */
+public class BinaryShocksWriter {
+
+  /**
+   * The size of the buffer used when writing shocks.
+   */
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Convert a risk factor shocks or FX shocks CSV file to a binary
+   * shocks file.
+   *
+   * @param args  the CSV file to read and the binary file to write
+   * @throws IOException if there is a problem reading or writing the files
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: BinaryShocksWriter <shocks-csv-file> <binary-file>");
+      System.exit(1);
+    }
+    convert(new File(args[0]), new File(args[1]));
+  }
+
+  /**
+   * Convert a risk factor shocks or FX shocks CSV file to a binary
+   * shocks file, determining the type of shocks from the header of
+   * the CSV file.
+   *
+   * @param csvFile  the CSV file to be read
+   * @param binaryFile  the binary file to be written
+   * @throws IllegalArgumentException if the CSV file is not a shocks file
+   * @throws RuntimeException if there is a problem reading or writing the files
+   */
+  public static void convert(File csvFile, File binaryFile) {
+    ArgChecker.notNull(csvFile, "csvFile");
+    ArgChecker.isTrue(csvFile.exists(), "File: {} could not be found", csvFile);
+
+    String header;
+    try (BufferedReader reader = Files.newBufferedReader(csvFile.toPath(), StandardCharsets.UTF_8)) {
+      header = reader.readLine();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    if (header != null && header.trim().startsWith("CurrencyPair")) {
+      writeFxShocks(FxShocksLoader.of(csvFile).load(), binaryFile);
+    } else {
+      writeRiskFactorShocks(RiskFactorShocksLoader.of(csvFile).load(), binaryFile);
+    }
+  }
+
+  /**
+   * Write risk factor shocks to a binary shocks file.
+   *
+   * @param shocks  the shocks for each risk factor, which must all be
+   *   instances of {@link StandardRiskFactor}
+   * @param binaryFile  the binary file to be written
+   * @throws RuntimeException if there is a problem writing the file
+   */
+  public static void writeRiskFactorShocks(Map<RiskFactor, List<Double>> shocks, File binaryFile) {
+    ArgChecker.notNull(shocks, "shocks");
+    List<Pair<String, List<Double>>> entries = new ArrayList<>();
+    shocks.forEach((riskFactor, values) -> {
+      ArgChecker.isTrue(riskFactor instanceof StandardRiskFactor,
+          "Only standard risk factors can be written, found: {}", riskFactor);
+      entries.add(Pair.of(((StandardRiskFactor) riskFactor).getName(), values));
+    });
+    write(RISK_FACTOR_SHOCKS, entries, binaryFile);
+  }
+
+  /**
+   * Write FX shocks to a binary shocks file.
+   *
+   * @param shocks  the shocks for each currency pair
+   * @param binaryFile  the binary file to be written
+   * @throws RuntimeException if there is a problem writing the file
+   */
+  public static void writeFxShocks(Map<Pair<Currency, Currency>, List<Double>> shocks, File binaryFile) {
+    ArgChecker.notNull(shocks, "shocks");
+    List<Pair<String, List<Double>>> entries = new ArrayList<>();
+    shocks.forEach((pair, values) ->
+        entries.add(Pair.of(pair.getFirst().getCurrencyCode() + "/" + pair.getSecond().getCurrencyCode(), values)));
+    write(FX_SHOCKS, entries, binaryFile);
+  }
+
+  //-------------------------------------------------------------------------
+  private static void write(byte type, List<Pair<String, List<Double>>> entries, File binaryFile) {
+    ArgChecker.notNull(binaryFile, "binaryFile");
+
+    // Size the dictionary so the offsets of the shocks are known up front
+    List<byte[]> names = new ArrayList<>(entries.size());
+    long dictionarySize = 0;
+    for (Pair<String, List<Double>> entry : entries) {
+      byte[] name = entry.getFirst().getBytes(StandardCharsets.UTF_8);
+      ArgChecker.isTrue(name.length <= 0xFFFF, "Name is too long: {}", entry.getFirst());
+      ArgChecker.isFalse(entry.getSecond().isEmpty(), "No shocks found for: {}", entry.getFirst());
+      names.add(name);
+      dictionarySize += 2 + name.length + 4 + 8;
+    }
+    long dataStart = align(HEADER_SIZE + dictionarySize);
+    ArgChecker.isTrue(dataStart <= Integer.MAX_VALUE, "Too many entries to write: {}", entries.size());
+
+    ByteBuffer header = ByteBuffer.allocate((int) dataStart).order(ByteOrder.LITTLE_ENDIAN);
+    header.put(MAGIC).putInt(VERSION).put(type).put(new byte[3]).putInt(entries.size());
+    long offset = dataStart;
+    for (int i = 0; i < entries.size(); i++) {
+      int scenarioCount = entries.get(i).getSecond().size();
+      header.putShort((short) names.get(i).length).put(names.get(i)).putInt(scenarioCount).putLong(offset);
+      offset += 8L * scenarioCount;
+    }
+    header.position(0);
+
+    try (FileChannel channel = FileChannel.open(binaryFile.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+      writeFully(channel, header);
+      ByteBuffer data = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      for (Pair<String, List<Double>> entry : entries) {
+        for (double shock : entry.getSecond()) {
+          if (!data.hasRemaining()) {
+            data.flip();
+            writeFully(channel, data);
+            data.clear();
+          }
+          data.putDouble(shock);
+        }
+      }
+      data.flip();
+      writeFully(channel, data);
+
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  // Round up to a multiple of 8 so the doubles are aligned
+  private static long align(long position) {
+    return (position + 7) & ~7L;
+  }
+
+  // Private constructor as only static methods
+  private BinaryShocksWriter() {
+  }
+
+}
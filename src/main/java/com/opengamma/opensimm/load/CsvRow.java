@@ -0,0 +1,289 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.opengamma.opensimm.util.ArgChecker;
+
+/**
+ * A cursor onto the current row of a CSV file being parsed.
+ * <p>
+ * The fields of the row are held as offsets into the parser's
+ * character buffer, so no objects are created unless a field is
+ * requested as a {@code String}. Numeric fields are parsed directly
+ * from the buffer.
+ * <p>
+ * A single instance is reused for every row of a file, so it must
+ * not be retained or used outside of the callback it was passed to.
+ * Fields have leading and trailing whitespace removed and trailing
+ * empty fields are ignored, as for {@code String.split(",")}.
+ */
+public final class CsvRow {
+
+  /**
+   * Powers of ten that can be represented exactly as doubles.
+   */
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+      1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  /**
+   * The largest mantissa which can be represented exactly as a double.
+   */
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  /**
+   * The buffer holding the characters of the row.
+   */
+  private char[] buffer;
+
+  /**
+   * The start offset of each field in the buffer.
+   */
+  private int[] starts = new int[16];
+
+  /**
+   * The end offset (exclusive) of each field in the buffer.
+   */
+  private int[] ends = new int[16];
+
+  /**
+   * The number of fields in the row.
+   */
+  private int fieldCount;
+
+  /**
+   * The line number of the row in the file, starting at 1.
+   */
+  private int lineNumber;
+
+  /**
+   * Whether the line contained no characters at all.
+   */
+  private boolean emptyLine;
+
+  // Package-private constructor, rows are only created by the tokenizer
+  CsvRow() {
+  }
+
+  /**
+   * Get the number of fields in the row.
+   *
+   * @return the number of fields
+   */
+  public int getFieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * Get the line number of the row in the file, starting from 1
+   * for the header row.
+   *
+   * @return the line number
+   */
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * Get the specified field as a string.
+   *
+   * @param index  the index of the field
+   * @return the field value
+   */
+  public String getString(int index) {
+    checkIndex(index);
+    return new String(buffer, starts[index], ends[index] - starts[index]);
+  }
+
+  /**
+   * Get the specified field as a double.
+   * <p>
+   * Plain decimal values are parsed directly from the buffer. Anything
+   * else is delegated to {@link Double#parseDouble(String)}, so values
+   * are accepted, and errors reported, exactly as for that method.
+   *
+   * @param index  the index of the field
+   * @return the field value
+   * @throws NumberFormatException if the field is not a valid double
+   */
+  public double getDouble(int index) {
+    checkIndex(index);
+    return parseDouble(buffer, starts[index], ends[index]);
+  }
+
+  /**
+   * Get all the fields from the specified index to the end
+   * of the row as doubles.
+   *
+   * @param fromIndex  the index of the first field
+   * @return the field values
+   * @throws NumberFormatException if any field is not a valid double
+   */
+  public double[] getDoubles(int fromIndex) {
+    ArgChecker.isTrue(fromIndex >= 0 && fromIndex <= fieldCount,
+        "Index {} is out of range for row with {} fields", fromIndex, fieldCount);
+    double[] values = new double[fieldCount - fromIndex];
+    for (int i = fromIndex; i < fieldCount; i++) {
+      values[i - fromIndex] = parseDouble(buffer, starts[i], ends[i]);
+    }
+    return values;
+  }
+
+  /**
+   * Get all the fields of the row as strings.
+   *
+   * @return the field values
+   */
+  public List<String> toList() {
+    List<String> fields = new ArrayList<>(fieldCount);
+    for (int i = 0; i < fieldCount; i++) {
+      fields.add(getString(i));
+    }
+    return fields;
+  }
+
+  @Override
+  public String toString() {
+    return "CsvRow{line=" + lineNumber + ", fields=" + toList() + '}';
+  }
+
+  //-------------------------------------------------------------------------
+  // Whether the line contained no characters at all
+  boolean isEmptyLine() {
+    return emptyLine;
+  }
+
+  // Point the row at a new line of the buffer, splitting it into fields
+  void reset(char[] buffer, int start, int end, int lineNumber) {
+    this.buffer = buffer;
+    this.lineNumber = lineNumber;
+    this.fieldCount = 0;
+    this.emptyLine = start == end;
+
+    // As for String.split, trailing empty fields are discarded
+    // unless the line contains no separators at all
+    int fieldStart = start;
+    int lastNonEmpty = 0;
+    for (int i = start; i <= end; i++) {
+      if (i == end || buffer[i] == ',') {
+        addField(fieldStart, i);
+        if (i > fieldStart) {
+          lastNonEmpty = fieldCount;
+        }
+        fieldStart = i + 1;
+      }
+    }
+    if (fieldCount > 1) {
+      fieldCount = lastNonEmpty;
+    }
+  }
+
+  // Add a field, trimming whitespace in the same way as String.trim
+  private void addField(int start, int end) {
+    if (fieldCount == starts.length) {
+      starts = Arrays.copyOf(starts, fieldCount * 2);
+      ends = Arrays.copyOf(ends, fieldCount * 2);
+    }
+    while (start < end && buffer[start] <= ' ') {
+      start++;
+    }
+    while (end > start && buffer[end - 1] <= ' ') {
+      end--;
+    }
+    starts[fieldCount] = start;
+    ends[fieldCount] = end;
+    fieldCount++;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= fieldCount) {
+      throw new IndexOutOfBoundsException(
+          "Index " + index + " is out of range for row with " + fieldCount + " fields");
+    }
+  }
+
+  /**
+   * Parse a double from a range of a character array.
+   * <p>
+   * Values of the form {@code [+-]digits[.digits][(e|E)[+-]digits]}
+   * whose significant digits fit exactly in a double and whose decimal
+   * exponent is small enough for the power of ten to be exact are
+   * converted with a single multiplication or division, which gives a
+   * correctly rounded result. All other values are delegated to
+   * {@link Double#parseDouble(String)}.
+   *
+   * @param chars  the characters
+   * @param start  the start of the value
+   * @param end  the end of the value, exclusive
+   * @return the parsed value
+   * @throws NumberFormatException if the value is not a valid double
+   */
+  static double parseDouble(char[] chars, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+      negative = chars[i] == '-';
+      i++;
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean exact = true;
+
+    while (i < end && isDigit(chars[i])) {
+      mantissa = mantissa * 10 + (chars[i] - '0');
+      exact &= mantissa <= MAX_EXACT_MANTISSA;
+      digits++;
+      i++;
+    }
+    if (i < end && chars[i] == '.') {
+      i++;
+      while (i < end && isDigit(chars[i])) {
+        mantissa = mantissa * 10 + (chars[i] - '0');
+        exact &= mantissa <= MAX_EXACT_MANTISSA;
+        exponent--;
+        digits++;
+        i++;
+      }
+    }
+    boolean valid = digits > 0 && digits <= 18;
+
+    if (valid && i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+        negativeExponent = chars[i] == '-';
+        i++;
+      }
+      int explicitExponent = 0;
+      int exponentStart = i;
+      while (i < end && isDigit(chars[i]) && explicitExponent < 1000) {
+        explicitExponent = explicitExponent * 10 + (chars[i] - '0');
+        i++;
+      }
+      valid = i > exponentStart;
+      exponent += negativeExponent ? -explicitExponent : explicitExponent;
+    }
+
+    if (valid && exact && i == end && exponent >= -22 && exponent <= 22) {
+      double value = exponent < 0 ?
+          mantissa / POWERS_OF_TEN[-exponent] :
+          mantissa * POWERS_OF_TEN[exponent];
+      return negative ? -value : value;
+    }
+    return Double.parseDouble(new String(chars, start, end - start));
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+}
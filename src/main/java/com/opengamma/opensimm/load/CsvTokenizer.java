@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.load;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import com.opengamma.opensimm.util.ArgChecker;
+
+/**
+ * Splits the contents of a reader into lines and fields without
+ * creating any intermediate objects.
+ * <p>
+ * Characters are read in large blocks into a single buffer which
+ * grows only if a line is longer than the buffer. Each call to
+ * {@link #next()} points the {@link CsvRow} cursor at the next line
+ * of the buffer. Lines may be terminated by {@code \n}, {@code \r}
+ * or {@code \r\n}, as for {@code BufferedReader.readLine()}.
+ */
+final class CsvTokenizer implements Closeable {
+
+  /**
+   * The default size of the character buffer.
+   */
+  static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The source of characters.
+   */
+  private final Reader reader;
+
+  /**
+   * The cursor pointing at the current line.
+   */
+  private final CsvRow row = new CsvRow();
+
+  /**
+   * The character buffer.
+   */
+  private char[] buffer;
+
+  /**
+   * The position of the first unconsumed character in the buffer.
+   */
+  private int position;
+
+  /**
+   * The number of valid characters in the buffer.
+   */
+  private int limit;
+
+  /**
+   * Whether the end of the reader has been reached.
+   */
+  private boolean endOfInput;
+
+  /**
+   * The number of lines read so far.
+   */
+  private int lineNumber;
+
+  /**
+   * Create a tokenizer for the specified reader. The reader
+   * does not need to be buffered.
+   *
+   * @param reader  the reader to tokenize
+   * @param bufferSize  the initial size of the character buffer
+   */
+  CsvTokenizer(Reader reader, int bufferSize) {
+    ArgChecker.notNegativeOrZero(bufferSize, "bufferSize");
+    this.reader = ArgChecker.notNull(reader, "reader");
+    this.buffer = new char[bufferSize];
+  }
+
+  /**
+   * Move the cursor to the next line.
+   *
+   * @return true if there was another line, false at the end of the input
+   * @throws IOException if there is a problem reading
+   */
+  boolean next() throws IOException {
+    int scan = position;
+    while (true) {
+      for (int i = scan; i < limit; i++) {
+        char c = buffer[i];
+        if (c == '\n' || c == '\r') {
+          if (c == '\r' && i + 1 == limit && !endOfInput) {
+            // Need the next character to know whether this is \r\n
+            break;
+          }
+          row.reset(buffer, position, i, ++lineNumber);
+          position = c == '\r' && i + 1 < limit && buffer[i + 1] == '\n' ? i + 2 : i + 1;
+          return true;
+        }
+        scan = i + 1;
+      }
+      if (endOfInput) {
+        if (position == limit) {
+          return false;
+        }
+        // Last line has no terminator
+        row.reset(buffer, position, limit, ++lineNumber);
+        position = limit;
+        return true;
+      }
+      scan -= position;
+      fill();
+    }
+  }
+
+  /**
+   * Get the cursor for the current line.
+   *
+   * @return the current row
+   */
+  CsvRow row() {
+    return row;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  // Move any unconsumed characters to the start of the buffer,
+  // growing it if it is full, and then read as many as will fit
+  private void fill() throws IOException {
+    int remaining = limit - position;
+    if (position > 0) {
+      System.arraycopy(buffer, position, buffer, 0, remaining);
+    } else if (remaining == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    position = 0;
+    limit = remaining;
+
+    int read = reader.read(buffer, limit, buffer.length - limit);
+    if (read < 0) {
+      endOfInput = true;
+    } else {
+      limit += read;
+    }
+  }
+
+}
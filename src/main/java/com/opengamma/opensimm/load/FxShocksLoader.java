@@ -11,14 +11,14 @@ import com.opengamma.opensimm.util.Pair;
 import java.io.File;
 import java.util.Arrays;
 import java.util.Currency;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static com.opengamma.opensimm.util.CollectionUtils.pairsToMap;
-import static java.util.stream.Collectors.toList;
+import static com.opengamma.opensimm.util.CollectionUtils.asList;
 
 /**
  * Loads FX shocks from a file into a map.
@@ -47,10 +47,14 @@ public class FxShocksLoader {
    * @return a Map from currency pair to shocks
    */
   public Map<Pair<Currency, Currency>, List<Double>> load() {
-    return BasicCsvParser.parseFile(file, EXPECTED_HEADER, data ->
-        checkShockLengths(
-            data.map(this::convertToPairs)
-                .collect(pairsToMap())));
+    Map<Pair<Currency, Currency>, List<Double>> result = new HashMap<>();
+    BasicCsvParser.parseRows(file, EXPECTED_HEADER, row -> {
+      Pair<Pair<Currency, Currency>, List<Double>> pair = convertToPair(row);
+      if (result.put(pair.getFirst(), pair.getSecond()) != null) {
+        throw new IllegalArgumentException("Duplicate shocks found for currency pair: " + pair.getFirst());
+      }
+    });
+    return checkShockLengths(result);
   }
 
   private Map<Pair<Currency, Currency>, List<Double>> checkShockLengths(
@@ -70,18 +74,13 @@ public class FxShocksLoader {
     }
   }
 
-  private Pair<Pair<Currency, Currency>, List<Double>> convertToPairs(List<String> row) {
+  private Pair<Pair<Currency, Currency>, List<Double>> convertToPair(CsvRow row) {
 
-    Pair<Currency, Currency> currencyPair = extractCurrencyPair(row.get(0));
+    Pair<Currency, Currency> currencyPair = extractCurrencyPair(row.getString(0));
 
-    if (row.size() > 1) {
-      List<Double> shocks =
-          row.stream()
-              .skip(1)  // Skip the currency pair which was already handled
-              .map(Double::valueOf)
-              .collect(toList());
-
-      return Pair.of(currencyPair, shocks);
+    if (row.getFieldCount() > 1) {
+      // Skip the currency pair which was already handled
+      return Pair.of(currencyPair, asList(row.getDoubles(1)));
     } else {
       throw new IllegalArgumentException("No shocks found for currency pair: " + currencyPair);
     }
@@ -5,23 +5,21 @@
  */
 package com.opengamma.opensimm.load;
 
-import static java.util.stream.Collectors.collectingAndThen;
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.toList;
-
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Currency;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.opengamma.opensimm.basics.FxRiskFactor;
 import com.opengamma.opensimm.basics.PortfolioExposure;
 import com.opengamma.opensimm.basics.RiskFactor;
-import com.opengamma.opensimm.basics.StandardRiskFactor;
+import com.opengamma.opensimm.basics.RiskFactorRegistry;
 import com.opengamma.opensimm.util.ArgChecker;
-import com.opengamma.opensimm.util.Pair;
+import com.opengamma.opensimm.util.DoubleAccumulatorMap;
 
 /**
  * Loads portfolio risk exposure from a file, producing
@@ -33,7 +31,7 @@ public class PortfolioLoader {
       Arrays.asList("RiskFactorName", "Amount", "Currency");
 
   private final File file;
-  private Set<RiskFactor> riskFactors;
+  private final RiskFactorRegistry riskFactors;
 
   /**
    * Create a loader for the specified file.
@@ -43,6 +41,24 @@ public class PortfolioLoader {
    * @return a new loader
    */
   public static PortfolioLoader of(File f, Set<RiskFactor> riskFactors) {
+    ArgChecker.notNull(riskFactors, "riskFactors");
+    return new PortfolioLoader(f, RiskFactorRegistry.of(riskFactors));
+  }
+
+  /**
+   * Create a loader for the specified file, resolving the risk factor
+   * names to the canonical risk factors held by the registry.
+   * <p>
+   * Using the registry of the calculator the portfolio is for, see
+   * {@link com.opengamma.opensimm.SimmCalculator#getRiskFactorRegistry()},
+   * avoids creating risk factors for each row and speeds up the
+   * conversion of the exposures.
+   *
+   * @param f  the file containing the portfolio risk exposures
+   * @param riskFactors  the registry of available risk factors
+   * @return a new loader
+   */
+  public static PortfolioLoader of(File f, RiskFactorRegistry riskFactors) {
     return new PortfolioLoader(f, riskFactors);
   }
 
@@ -53,51 +69,23 @@ public class PortfolioLoader {
    *   portfolio risk exposure from the file
    */
   public List<PortfolioExposure> load() {
-
-    return BasicCsvParser.parseFile(file, EXPECTED_HEADER, data ->
-        data.map(this::convertToExposure)
-          .collect(collectingAndThen(
-              groupingBy(this::aggregationKey),
-              this::aggregate)));
-  }
-
-  // Aggregate PortfolioExposures where the currency and
-  // risk factors are the same
-  private List<PortfolioExposure> aggregate(Map<Pair<RiskFactor, Currency>, List<PortfolioExposure>> groups) {
-    return groups.entrySet()
-        .stream()
-        .map(e -> {
-          double total = e.getValue()
-              .stream()
-              .mapToDouble(PortfolioExposure::getAmount)
-              .sum();
-          Pair<RiskFactor, Currency> key = e.getKey();
-          return PortfolioExposure.of(key.getFirst(), total, key.getSecond());
-        })
-        .collect(toList());
-  }
-
-  private Pair<RiskFactor, Currency> aggregationKey(PortfolioExposure rd) {
-    return Pair.of(rd.getRiskFactor(), rd.getCurrency());
-  }
-
-  private PortfolioExposure convertToExposure(List<String> row) {
-    return PortfolioExposure.of(
-        createRiskFactorName(row.get(0)),
-        Double.parseDouble(row.get(1)),
-        Currency.getInstance(row.get(2)));
-  }
-
-  private RiskFactor createRiskFactorName(String name) {
-    // Either it's a user-supplied risk factor name, else
-    // it's one for currency
-    StandardRiskFactor nonFxName = StandardRiskFactor.of(name);
-    return riskFactors.contains(nonFxName) ?
-        nonFxName :
-        FxRiskFactor.of(name);
+    // Aggregate the amounts where the currency and
+    // risk factors are the same as the rows are read
+    Map<Currency, DoubleAccumulatorMap<RiskFactor>> totals = new LinkedHashMap<>();
+    Map<String, Currency> currenciesByCode = new HashMap<>();
+    BasicCsvParser.parseRows(file, EXPECTED_HEADER, row -> totals
+        .computeIfAbsent(
+            currenciesByCode.computeIfAbsent(row.getString(2), Currency::getInstance),
+            ccy -> DoubleAccumulatorMap.create())
+        .add(riskFactors.resolve(row.getString(0)), row.getDouble(1)));
+
+    List<PortfolioExposure> exposures = new ArrayList<>();
+    totals.forEach((ccy, amounts) ->
+        amounts.forEach((riskFactor, amount) -> exposures.add(PortfolioExposure.of(riskFactor, amount, ccy))));
+    return exposures;
   }
 
-  private PortfolioLoader(File file, Set<RiskFactor> riskFactors) {
+  private PortfolioLoader(File file, RiskFactorRegistry riskFactors) {
     checkFile(file);
     this.file = file;
     this.riskFactors = ArgChecker.notNull(riskFactors, "riskFactors");
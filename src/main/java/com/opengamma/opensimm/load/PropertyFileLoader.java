@@ -5,6 +5,9 @@
  */
 package com.opengamma.opensimm.load;
 
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.stream.Collectors.toList;
+
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Currency;
@@ -12,24 +15,56 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 import com.opengamma.opensimm.SimmCalculator;
+import com.opengamma.opensimm.SimmResult;
 import com.opengamma.opensimm.basics.AssetClass;
 import com.opengamma.opensimm.basics.FxMatrix;
+import com.opengamma.opensimm.basics.Portfolio;
 import com.opengamma.opensimm.basics.PortfolioExposure;
 import com.opengamma.opensimm.basics.RiskFactor;
 import com.opengamma.opensimm.basics.RiskFactorProperties;
+import com.opengamma.opensimm.basics.RiskFactorRegistry;
+import com.opengamma.opensimm.util.ArgChecker;
 import com.opengamma.opensimm.util.Pair;
 
 /**
  * Reads a set of properties (generally from a file) and
  * locates the items required for the SIMM calculation.
+ * <p>
+ * The risk factor shocks and FX shocks may be supplied either as
+ * CSV files or as binary shocks files written by {@link BinaryShocksWriter}.
+ * The format is determined from the contents of the file.
+ * <p>
+ * The calculator and the portfolio are loaded on first use and cached,
+ * so that the market data is only loaded and the market movements
+ * generated once however many results are requested. The cache is
+ * keyed on the modification times of the files, so a file which is
+ * changed is reloaded the next time a result is requested.
+ * <p>
+ * The files are independent of each other, apart from the portfolio
+ * files which need the risk factor definitions, so they are loaded in
+ * parallel. By default each file is loaded on its own thread, as the
+ * time taken is generally dominated by reading the files. An executor
+ * can be supplied to control this.
  */
 public class PropertyFileLoader {
 
   private static final String DEFAULT_VAR_LEVEL = "0.99";
 
+  /**
+   * Executor which loads each file on a new daemon thread.
+   */
+  private static final Executor THREAD_PER_FILE = task -> {
+    Thread thread = new Thread(task, "opensimm-loader");
+    thread.setDaemon(true);
+    thread.start();
+  };
+
   private static final String BASE_CURRENCY_KEY = "base-currency";
   private static final String VAR_LEVEL_KEY = "var-level";
 
@@ -52,6 +87,13 @@ public class PropertyFileLoader {
   private final File derivatives;
   private final Optional<File> initialMargin;
   private final Optional<File> variationMargin;
+  private final Executor executor;
+
+  // Cached calculator and portfolio, guarded by this
+  private List<Pair<File, Long>> calculatorFiles;
+  private SimmCalculator calculator;
+  private List<Pair<File, Long>> portfolioFiles;
+  private Portfolio portfolio;
 
   /**
    * Creates a reader for the supplied properties.
@@ -60,6 +102,20 @@ public class PropertyFileLoader {
    * @throws RuntimeException if there is a problem parsing the files
    */
   public PropertyFileLoader(Properties props) {
+    this(props, THREAD_PER_FILE);
+  }
+
+  /**
+   * Creates a reader for the supplied properties, using the
+   * executor to load the files in parallel.
+   *
+   * @param props  the properties to be used
+   * @param executor  the executor used to load the files
+   * @throws RuntimeException if there is a problem parsing the files
+   */
+  public PropertyFileLoader(Properties props, Executor executor) {
+
+    this.executor = ArgChecker.notNull(executor, "executor");
 
     varLevel = Double.parseDouble(props.getProperty(VAR_LEVEL_KEY, DEFAULT_VAR_LEVEL));
     baseCurrency = Currency.getInstance(loadProperty(props, BASE_CURRENCY_KEY));
@@ -80,16 +136,49 @@ public class PropertyFileLoader {
    * @return a new {@link SimmCalculator}
    */
   public SimmCalculator createSimmCalculator() {
+    return createSimmCalculator(supplyAsync(this::loadRiskFactorDefinitions, executor));
+  }
 
-    return SimmCalculator.builder()
-        .varLevel(varLevel)
-        .baseCurrency(baseCurrency)
-        .riskFactors(loadRiskFactorDefinitions())
-        .riskFactorLevels(loadRiskFactorLevels())
-        .fxMatrix(loadFxMatrix())
-        .riskFactorShocks(loadRiskFactorShocks())
-        .fxShocks(loadFxShocks())
-        .build();
+  /**
+   * Get a {@link SimmCalculator} using data from the files defined
+   * in the properties. The calculator is cached and only recreated
+   * if any of the market data files have been modified.
+   *
+   * @return the cached {@link SimmCalculator}
+   */
+  public synchronized SimmCalculator getSimmCalculator() {
+    refresh(false);
+    return calculator;
+  }
+
+  /**
+   * Get the portfolio defined in the properties. The portfolio is
+   * cached and only reloaded if any of the portfolio files have been
+   * modified, or if the calculator has been recreated.
+   *
+   * @return the cached portfolio
+   */
+  public synchronized Portfolio getPortfolio() {
+    refresh(true);
+    return portfolio;
+  }
+
+  /**
+   * Calculate both the SIMM VaR and P&amp;L vectors per asset class
+   * using data from the files defined in the properties, calculating
+   * the P&amp;L of each scenario only once.
+   *
+   * @return the VaR and P&amp;L vector results
+   */
+  public SimmResult calculateAll() {
+    SimmCalculator currentCalculator;
+    Portfolio currentPortfolio;
+    synchronized (this) {
+      // Loading the portfolio ensures the calculator is up to date
+      currentPortfolio = getPortfolio();
+      currentCalculator = calculator;
+    }
+    return currentCalculator.calculateAll(currentPortfolio);
   }
 
   /**
@@ -99,13 +188,7 @@ public class PropertyFileLoader {
    * @return the VaR results
    */
   public Map<AssetClass, Double> calculateVar() {
-
-    SimmCalculator calculator = createSimmCalculator();
-    Set<RiskFactor> riskFactors = calculator.getRiskFactors();
-    return calculator.varByAssetClass(
-        loadDerivatives(riskFactors),
-        loadInitialMargin(riskFactors),
-        loadVariationMargin(riskFactors));
+    return calculateAll().getVar();
   }
 
   /**
@@ -115,13 +198,97 @@ public class PropertyFileLoader {
    * @return the P&amp;L vectors
    */
   public Map<AssetClass, List<Pair<Integer, Double>>> calculatePnlVectors() {
+    return calculateAll().getPnlVectors();
+  }
+
+  // Reload the calculator, and the portfolio if required, if any
+  // of their files have changed. When both are reloaded, the
+  // portfolio files are loaded alongside the market data.
+  private void refresh(boolean includePortfolio) {
+    List<Pair<File, Long>> marketDataFiles = fileVersions(
+        Stream.of(riskFactors, riskFactorBaseLevels, riskFactorShocks, fxRates, fxRateShocks));
+    List<Pair<File, Long>> currentPortfolioFiles = fileVersions(
+        Stream.concat(Stream.of(derivatives), Stream.concat(
+            initialMargin.map(Stream::of).orElse(Stream.empty()),
+            variationMargin.map(Stream::of).orElse(Stream.empty()))));
+
+    boolean reloadCalculator = calculator == null || !marketDataFiles.equals(calculatorFiles);
+    boolean reloadPortfolio = includePortfolio &&
+        (reloadCalculator || portfolio == null || !currentPortfolioFiles.equals(portfolioFiles));
+
+    if (reloadCalculator) {
+      CompletableFuture<Map<RiskFactor, RiskFactorProperties>> definitions =
+          supplyAsync(this::loadRiskFactorDefinitions, executor);
+      CompletableFuture<Portfolio> loadedPortfolio = reloadPortfolio ?
+          loadPortfolio(definitions.thenApply(d -> RiskFactorRegistry.of(d.keySet()))) :
+          null;
+      SimmCalculator reloadedCalculator = createSimmCalculator(definitions);
+      Portfolio reloadedPortfolio = loadedPortfolio == null ? null : join(loadedPortfolio);
+      // Only replace the cached values once everything has loaded, so a
+      // failure leaves them consistent and the reload is retried next time.
+      // The cached portfolio is cleared as it was resolved against the
+      // risk factors of the previous calculator.
+      calculator = reloadedCalculator;
+      calculatorFiles = marketDataFiles;
+      portfolio = reloadedPortfolio;
+    } else if (reloadPortfolio) {
+      portfolio = join(loadPortfolio(CompletableFuture.completedFuture(calculator.getRiskFactorRegistry())));
+    }
+    if (reloadPortfolio) {
+      portfolioFiles = currentPortfolioFiles;
+    }
+  }
+
+  // Load the market data files in parallel, joining them to build the calculator
+  private SimmCalculator createSimmCalculator(CompletableFuture<Map<RiskFactor, RiskFactorProperties>> definitions) {
+    CompletableFuture<Map<RiskFactor, Double>> levels = supplyAsync(this::loadRiskFactorLevels, executor);
+    CompletableFuture<FxMatrix> fxMatrix = supplyAsync(this::loadFxMatrix, executor);
+    CompletableFuture<Map<RiskFactor, List<Double>>> shocks = supplyAsync(this::loadRiskFactorShocks, executor);
+    CompletableFuture<Map<Pair<Currency, Currency>, List<Double>>> fxShocks =
+        supplyAsync(this::loadFxShocks, executor);
+
+    return SimmCalculator.builder()
+        .varLevel(varLevel)
+        .baseCurrency(baseCurrency)
+        .riskFactors(join(definitions))
+        .riskFactorLevels(join(levels))
+        .fxMatrix(join(fxMatrix))
+        .riskFactorShocks(join(shocks))
+        .fxShocks(join(fxShocks))
+        .build();
+  }
+
+  // Load the portfolio files in parallel once the risk factors are available
+  private CompletableFuture<Portfolio> loadPortfolio(CompletableFuture<RiskFactorRegistry> riskFactorRegistry) {
+    CompletableFuture<List<PortfolioExposure>> loadedDerivatives =
+        riskFactorRegistry.thenApplyAsync(this::loadDerivatives, executor);
+    CompletableFuture<List<PortfolioExposure>> loadedInitialMargin =
+        riskFactorRegistry.thenApplyAsync(this::loadInitialMargin, executor);
+    CompletableFuture<List<PortfolioExposure>> loadedVariationMargin =
+        riskFactorRegistry.thenApplyAsync(this::loadVariationMargin, executor);
+
+    return CompletableFuture.allOf(loadedDerivatives, loadedInitialMargin, loadedVariationMargin)
+        .thenApply(v -> Portfolio.of(
+            loadedDerivatives.join(), loadedInitialMargin.join(), loadedVariationMargin.join()));
+  }
+
+  // Wait for a file to be loaded, rethrowing the original exception if possible
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
 
-    SimmCalculator calculator = createSimmCalculator();
-    Set<RiskFactor> riskFactors = calculator.getRiskFactors();
-    return calculator.pnlVectorsByAssetClass(
-        loadDerivatives(riskFactors),
-        loadInitialMargin(riskFactors),
-        loadVariationMargin(riskFactors));
+  // Identify the current version of each file by its modification time
+  private List<Pair<File, Long>> fileVersions(Stream<File> files) {
+    return files
+        .map(f -> Pair.of(f, f.lastModified()))
+        .collect(toList());
   }
 
   private Optional<File> locateOptionalFile(Properties props, String key) {
@@ -147,19 +314,19 @@ public class PropertyFileLoader {
         .orElseThrow(() -> new IllegalStateException("No property found for: " + key));
   }
 
-  private List<PortfolioExposure> loadVariationMargin(Set<RiskFactor> riskFactors) {
+  private List<PortfolioExposure> loadVariationMargin(RiskFactorRegistry riskFactors) {
     return variationMargin
         .map(f -> PortfolioLoader.of(f, riskFactors).load())
         .orElse(new ArrayList<>());
   }
 
-  private List<PortfolioExposure> loadInitialMargin(Set<RiskFactor> riskFactors) {
+  private List<PortfolioExposure> loadInitialMargin(RiskFactorRegistry riskFactors) {
     return initialMargin
         .map(f -> PortfolioLoader.of(f, riskFactors).load())
         .orElse(new ArrayList<>());
   }
 
-  private List<PortfolioExposure> loadDerivatives(Set<RiskFactor> riskFactors) {
+  private List<PortfolioExposure> loadDerivatives(RiskFactorRegistry riskFactors) {
     return PortfolioLoader.of(derivatives, riskFactors).load();
   }
 
@@ -176,10 +343,14 @@ public class PropertyFileLoader {
   }
 
   private Map<RiskFactor, List<Double>> loadRiskFactorShocks() {
-    return RiskFactorShocksLoader.of(riskFactorShocks).load();
+    return BinaryShocksLoader.isBinaryShocksFile(riskFactorShocks) ?
+        BinaryShocksLoader.of(riskFactorShocks).loadRiskFactorShocks() :
+        RiskFactorShocksLoader.of(riskFactorShocks).load();
   }
 
   private Map<Pair<Currency, Currency>, List<Double>> loadFxShocks() {
-    return FxShocksLoader.of(fxRateShocks).load();
+    return BinaryShocksLoader.isBinaryShocksFile(fxRateShocks) ?
+        BinaryShocksLoader.of(fxRateShocks).loadFxShocks() :
+        FxShocksLoader.of(fxRateShocks).load();
   }
 }
@@ -8,15 +8,13 @@ package com.opengamma.opensimm.load;
 import com.opengamma.opensimm.basics.RiskFactor;
 import com.opengamma.opensimm.basics.StandardRiskFactor;
 import com.opengamma.opensimm.util.ArgChecker;
-import com.opengamma.opensimm.util.Pair;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static com.opengamma.opensimm.util.CollectionUtils.pairsToMap;
-
 /**
  * Loads risk factor base levels from a file, producing a {@code Map<RiskFactor, Double>}.
  */
@@ -42,13 +40,14 @@ public class RiskFactorBaseLevelsLoader {
    * @return a map containing RiskFactor to Double
    */
   public Map<RiskFactor, Double> load() {
-    return BasicCsvParser.parseFile(file, EXPECTED_HEADER, data ->
-        data.map(this::convertToPairs)
-            .collect(pairsToMap()));
-  }
-
-  private Pair<RiskFactor, Double> convertToPairs(List<String> row) {
-    return Pair.of(StandardRiskFactor.of(row.get(0)), Double.parseDouble(row.get(1)));
+    Map<RiskFactor, Double> result = new HashMap<>();
+    BasicCsvParser.parseRows(file, EXPECTED_HEADER, row -> {
+      RiskFactor riskFactor = StandardRiskFactor.of(row.getString(0));
+      if (result.put(riskFactor, row.getDouble(1)) != null) {
+        throw new IllegalArgumentException("Duplicate base level found for risk factor: " + riskFactor);
+      }
+    });
+    return result;
   }
 
   private RiskFactorBaseLevelsLoader(File file) {
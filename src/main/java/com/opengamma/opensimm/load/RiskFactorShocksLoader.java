@@ -12,11 +12,11 @@ import com.opengamma.opensimm.util.Pair;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static com.opengamma.opensimm.util.CollectionUtils.pairsToMap;
-import static java.util.stream.Collectors.toList;
+import static com.opengamma.opensimm.util.CollectionUtils.asList;
 
 /**
  * Loads risk factor shocks from a file, producing
@@ -44,24 +44,23 @@ public class RiskFactorShocksLoader {
    * @return a map containing the risk factor shocks
    */
   public Map<RiskFactor, List<Double>> load() {
-    return BasicCsvParser.parseFile(
-        file,
-        EXPECTED_HEADER,
-        data -> data.map(this::convertToPairs).collect(pairsToMap()));
+    Map<RiskFactor, List<Double>> result = new HashMap<>();
+    BasicCsvParser.parseRows(file, EXPECTED_HEADER, row -> {
+      Pair<RiskFactor, List<Double>> pair = convertToPair(row);
+      if (result.put(pair.getFirst(), pair.getSecond()) != null) {
+        throw new IllegalArgumentException("Duplicate shocks found for risk factor: " + pair.getFirst());
+      }
+    });
+    return result;
   }
 
-  private Pair<RiskFactor, List<Double>> convertToPairs(List<String> row) {
+  private Pair<RiskFactor, List<Double>> convertToPair(CsvRow row) {
 
-    RiskFactor name = StandardRiskFactor.of(row.get(0));
+    RiskFactor name = StandardRiskFactor.of(row.getString(0));
 
-    if (row.size() > 1) {
-      List<Double> shocks =
-          row.stream()
-              .skip(1)  // Skip the name which was already handled
-              .map(Double::valueOf)
-              .collect(toList());
-
-      return Pair.of(name, shocks);
+    if (row.getFieldCount() > 1) {
+      // Skip the name which was already handled
+      return Pair.of(name, asList(row.getDoubles(1)));
     } else {
       throw new IllegalArgumentException("No shocks found for risk factor: " + name);
     }
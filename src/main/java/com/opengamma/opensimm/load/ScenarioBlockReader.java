@@ -0,0 +1,240 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.load;
+
+import static com.opengamma.opensimm.load.BinaryShocksLoader.FX_SHOCKS;
+import static com.opengamma.opensimm.load.BinaryShocksLoader.RISK_FACTOR_SHOCKS;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Currency;
+
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.StandardRiskFactor;
+import com.opengamma.opensimm.util.ArgChecker;
+import com.opengamma.opensimm.util.Pair;
+
+/**
+ * Reads ranges of scenarios from a binary shocks file, as written
+ * by {@link BinaryShocksWriter}, without loading the whole file.
+ * <p>
+ * Unlike {@link BinaryShocksLoader}, which maps the whole file and so is
+ * limited to files of 2GB, the shocks are read from the file as they are
+ * requested. This allows shock histories which are too large to be held
+ * in memory to be processed a block of scenarios at a time.
+ * <p>
+ * The entries of the file are identified by their index in the
+ * dictionary. A reader holds the file open until it is closed, and
+ * reuses a buffer for reading, so it must not be shared between threads.
+ */
+public final class ScenarioBlockReader implements Closeable {
+
+  /**
+   * The size of the buffer used to read the dictionary, which can hold an entry with the longest name.
+   */
+  private static final int DICTIONARY_BUFFER_SIZE = 128 * 1024;
+
+  private final File file;
+  private final FileChannel channel;
+  private final byte type;
+  private final String[] names;
+  private final int[] scenarioCounts;
+  private final long[] offsets;
+  private ByteBuffer buffer = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+
+  /**
+   * Open a reader for a binary file containing risk factor shocks.
+   *
+   * @param file  the binary shocks file
+   * @return a new reader, which must be closed
+   * @throws IllegalArgumentException if the file does not contain risk factor shocks
+   * @throws UncheckedIOException if there is a problem reading the file
+   */
+  public static ScenarioBlockReader riskFactorShocks(File file) {
+    return new ScenarioBlockReader(file, RISK_FACTOR_SHOCKS);
+  }
+
+  /**
+   * Open a reader for a binary file containing FX shocks.
+   *
+   * @param file  the binary shocks file
+   * @return a new reader, which must be closed
+   * @throws IllegalArgumentException if the file does not contain FX shocks
+   * @throws UncheckedIOException if there is a problem reading the file
+   */
+  public static ScenarioBlockReader fxShocks(File file) {
+    return new ScenarioBlockReader(file, FX_SHOCKS);
+  }
+
+  // Private constructor
+  private ScenarioBlockReader(File file, byte expectedType) {
+    ArgChecker.notNull(file, "file");
+    ArgChecker.isTrue(file.exists(), "File: {} could not be found", file);
+    this.file = file;
+    this.type = expectedType;
+
+    try {
+      this.channel = new RandomAccessFile(file, "r").getChannel();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    try {
+      // The header and dictionary are read a chunk at a time,
+      // as mapping the file would reserve far more than is needed
+      long size = channel.size();
+      ByteBuffer header = ByteBuffer.allocate(DICTIONARY_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.limit(0);
+      long position = fill(header, 0, BinaryShocksLoader.HEADER_SIZE);
+      int entryCount = BinaryShocksLoader.readHeader(header, expectedType, file);
+      names = new String[entryCount];
+      scenarioCounts = new int[entryCount];
+      offsets = new long[entryCount];
+      for (int i = 0; i < entryCount; i++) {
+        position = fill(header, position, 2);
+        byte[] nameBytes = new byte[Short.toUnsignedInt(header.getShort())];
+        position = fill(header, position, nameBytes.length + 12);
+        header.get(nameBytes);
+        names[i] = new String(nameBytes, StandardCharsets.UTF_8);
+        scenarioCounts[i] = header.getInt();
+        offsets[i] = header.getLong();
+        ArgChecker.isTrue(scenarioCounts[i] > 0, "No shocks found for: {}", names[i]);
+        ArgChecker.isTrue(offsets[i] >= 0 && offsets[i] + 8L * scenarioCounts[i] <= size,
+            "Shocks for: {} lie outside the file", names[i]);
+      }
+    } catch (IOException | RuntimeException e) {
+      closeQuietly();
+      if (e instanceof IOException) {
+        throw new UncheckedIOException((IOException) e);
+      }
+      throw (RuntimeException) e;
+    }
+  }
+
+  /**
+   * Get the number of entries in the file, which is the number
+   * of risk factors or currency pairs.
+   *
+   * @return the number of entries
+   */
+  public int getEntryCount() {
+    return names.length;
+  }
+
+  /**
+   * Get the risk factor of an entry in a risk factor shocks file.
+   *
+   * @param entry  the index of the entry
+   * @return the risk factor
+   * @throws IllegalArgumentException if the file contains FX shocks
+   */
+  public RiskFactor getRiskFactor(int entry) {
+    ArgChecker.isTrue(type == RISK_FACTOR_SHOCKS, "File: {} does not contain risk factor shocks", file);
+    return StandardRiskFactor.of(names[entry]);
+  }
+
+  /**
+   * Get the currency pair of an entry in an FX shocks file.
+   *
+   * @param entry  the index of the entry
+   * @return the currency pair
+   * @throws IllegalArgumentException if the file contains risk factor shocks
+   */
+  public Pair<Currency, Currency> getCurrencyPair(int entry) {
+    ArgChecker.isTrue(type == FX_SHOCKS, "File: {} does not contain FX shocks", file);
+    return BinaryShocksLoader.parseCurrencyPair(names[entry]);
+  }
+
+  /**
+   * Get the number of scenarios of an entry.
+   *
+   * @param entry  the index of the entry
+   * @return the number of scenarios
+   */
+  public int getScenarioCount(int entry) {
+    return scenarioCounts[entry];
+  }
+
+  /**
+   * Read the shocks of an entry for a range of scenarios.
+   *
+   * @param entry  the index of the entry
+   * @param from  the first scenario to read, inclusive
+   * @param to  the last scenario to read, exclusive
+   * @param out  the array to read the shocks into, starting at index zero
+   * @throws IllegalArgumentException if the range is not valid for the
+   *   entry or the array is too small
+   * @throws UncheckedIOException if there is a problem reading the file
+   */
+  public void read(int entry, int from, int to, double[] out) {
+    ArgChecker.isTrue(from >= 0 && from <= to && to <= scenarioCounts[entry],
+        "Scenario range [{}, {}) is not within the {} scenarios of: {}", from, to, scenarioCounts[entry], names[entry]);
+    ArgChecker.isTrue(out.length >= to - from, "Array of length {} is too small for {} scenarios", out.length, to - from);
+
+    int length = 8 * (to - from);
+    if (buffer.capacity() < length) {
+      buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    buffer.clear().limit(length);
+    long position = offsets[entry] + 8L * from;
+    try {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) < 0) {
+          throw new EOFException("Unexpected end of file: " + file);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    buffer.flip();
+    buffer.asDoubleBuffer().get(out, 0, to - from);
+  }
+
+  /**
+   * Close the file.
+   *
+   * @throws IOException if there is a problem closing the file
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  // Read more of the file into the buffer, from the file position following the data already read,
+  // until the required number of bytes remain or the end of the file is reached
+  private long fill(ByteBuffer buffer, long position, int required) throws IOException {
+    if (buffer.remaining() >= required) {
+      return position;
+    }
+    buffer.compact();
+    long next = position;
+    while (buffer.position() < required) {
+      int read = channel.read(buffer, next);
+      if (read < 0) {
+        break;
+      }
+      next += read;
+    }
+    buffer.flip();
+    return next;
+  }
+
+  private void closeQuietly() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Ignored as an exception is already being thrown
+    }
+  }
+
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.load;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import com.opengamma.opensimm.basics.Portfolio;
+import com.opengamma.opensimm.basics.PortfolioExposure;
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.RiskFactorRegistry;
+import com.opengamma.opensimm.util.ArgChecker;
+import com.opengamma.opensimm.util.DoubleAccumulatorMap;
+
+/**
+ * Loads trade-level risk sensitivities for any number of portfolios from
+ * a single file, in a layout similar to the ISDA Common Risk Interchange
+ * Format (CRIF), producing a {@link Portfolio} for each portfolio id.
+ * <p>
+ * The file has the columns {@code TradeId, PortfolioId, RiskFactorName,
+ * Amount, Currency}. The sensitivities are aggregated by portfolio, risk
+ * factor and currency as the rows are read, in the same way as for
+ * {@link PortfolioLoader}, so the memory used depends on the number of
+ * distinct exposures rather than the number of trades. The portfolios
+ * have no initial or variation margin.
+ * <p>
+ * The result of {@link #load()} can be passed directly to the methods of
+ * {@link com.opengamma.opensimm.SimmCalculator} which handle multiple
+ * portfolios. Where the rows of each portfolio are contiguous in the
+ * file, {@link #load(BiConsumer)} passes each portfolio on as soon as its
+ * rows have been read, so only one portfolio is held at a time.
+ */
+public class TradeSensitivityLoader {
+
+  private static final List<String> EXPECTED_HEADER =
+      Arrays.asList("TradeId", "PortfolioId", "RiskFactorName", "Amount", "Currency");
+
+  private final File file;
+  private final RiskFactorRegistry riskFactors;
+
+  /**
+   * Create a loader for the specified file.
+   *
+   * @param f  the file containing the trade sensitivities
+   * @param riskFactors  the set of available risk factors
+   * @return a new loader
+   */
+  public static TradeSensitivityLoader of(File f, Set<RiskFactor> riskFactors) {
+    ArgChecker.notNull(riskFactors, "riskFactors");
+    return new TradeSensitivityLoader(f, RiskFactorRegistry.of(riskFactors));
+  }
+
+  /**
+   * Create a loader for the specified file, resolving the risk factor
+   * names to the canonical risk factors held by the registry.
+   * <p>
+   * Using the registry of the calculator the portfolio is for, see
+   * {@link com.opengamma.opensimm.SimmCalculator#getRiskFactorRegistry()},
+   * avoids creating risk factors for each row and speeds up the
+   * conversion of the exposures.
+   *
+   * @param f  the file containing the trade sensitivities
+   * @param riskFactors  the registry of available risk factors
+   * @return a new loader
+   */
+  public static TradeSensitivityLoader of(File f, RiskFactorRegistry riskFactors) {
+    return new TradeSensitivityLoader(f, riskFactors);
+  }
+
+  /**
+   * Load the trade sensitivities, aggregating them into a portfolio for
+   * each portfolio id. The rows of a portfolio may appear anywhere in
+   * the file.
+   *
+   * @return the portfolios, keyed by portfolio id in the order
+   *   each id first appears in the file
+   */
+  public Map<String, Portfolio> load() {
+    Map<String, ExposureTotals> totals = new LinkedHashMap<>();
+    RowParser parser = new RowParser();
+    BasicCsvParser.parseRows(file, EXPECTED_HEADER, row -> {
+      String portfolioId = parser.parse(row);
+      totals.computeIfAbsent(portfolioId, id -> new ExposureTotals()).add(parser);
+    });
+
+    Map<String, Portfolio> portfolios = new LinkedHashMap<>();
+    totals.forEach((portfolioId, exposures) -> portfolios.put(portfolioId, exposures.toPortfolio()));
+    return portfolios;
+  }
+
+  /**
+   * Load the trade sensitivities, passing the portfolio for each portfolio
+   * id to the consumer as soon as all its rows have been read.
+   * <p>
+   * The rows of each portfolio must be contiguous in the file, as they
+   * would be for a file sorted by portfolio id. The consumer is called
+   * on the calling thread, with the portfolios in file order.
+   *
+   * @param consumer  the consumer receiving the id and portfolio
+   *   for each portfolio in the file
+   * @throws IllegalArgumentException if the rows for a portfolio are not contiguous
+   */
+  public void load(BiConsumer<String, Portfolio> consumer) {
+    ArgChecker.notNull(consumer, "consumer");
+    Set<String> completed = new HashSet<>();
+    RowParser parser = new RowParser();
+    ExposureTotals[] current = {new ExposureTotals()};
+    String[] currentId = {null};
+
+    BasicCsvParser.parseRows(file, EXPECTED_HEADER, row -> {
+      String portfolioId = parser.parse(row);
+      if (!portfolioId.equals(currentId[0])) {
+        if (currentId[0] != null) {
+          consumer.accept(currentId[0], current[0].toPortfolio());
+          completed.add(currentId[0]);
+          current[0] = new ExposureTotals();
+        }
+        ArgChecker.isTrue(!completed.contains(portfolioId),
+            "Rows for portfolio {} must be contiguous, but found again on line {}",
+            portfolioId, row.getLineNumber());
+        currentId[0] = portfolioId;
+      }
+      current[0].add(parser);
+    });
+    if (currentId[0] != null) {
+      consumer.accept(currentId[0], current[0].toPortfolio());
+    }
+  }
+
+  //-------------------------------------------------------------------------
+  // Parses the fields of each row, reusing the currencies
+  // which have already been seen
+  private final class RowParser {
+
+    private final Map<String, Currency> currenciesByCode = new HashMap<>();
+    private RiskFactor riskFactor;
+    private double amount;
+    private Currency currency;
+
+    // Parse the row, returning the portfolio id
+    private String parse(CsvRow row) {
+      ArgChecker.isTrue(row.getFieldCount() == EXPECTED_HEADER.size(),
+          "Expected {} fields on line {} but found {}",
+          EXPECTED_HEADER.size(), row.getLineNumber(), row.getFieldCount());
+      String portfolioId = row.getString(1);
+      ArgChecker.isTrue(!portfolioId.isEmpty(), "No portfolio id found on line {}", row.getLineNumber());
+      riskFactor = riskFactors.resolve(row.getString(2));
+      amount = row.getDouble(3);
+      currency = currenciesByCode.computeIfAbsent(row.getString(4), Currency::getInstance);
+      return portfolioId;
+    }
+  }
+
+  // The aggregated exposures of a single portfolio
+  private static final class ExposureTotals {
+
+    private final Map<Currency, DoubleAccumulatorMap<RiskFactor>> totals = new LinkedHashMap<>();
+
+    private void add(RowParser parser) {
+      totals.computeIfAbsent(parser.currency, ccy -> DoubleAccumulatorMap.create())
+          .add(parser.riskFactor, parser.amount);
+    }
+
+    private Portfolio toPortfolio() {
+      List<PortfolioExposure> exposures = new ArrayList<>();
+      totals.forEach((ccy, amounts) ->
+          amounts.forEach((riskFactor, amount) -> exposures.add(PortfolioExposure.of(riskFactor, amount, ccy))));
+      return Portfolio.of(exposures);
+    }
+  }
+
+  private TradeSensitivityLoader(File file, RiskFactorRegistry riskFactors) {
+    checkFile(file);
+    this.file = file;
+    this.riskFactors = ArgChecker.notNull(riskFactors, "riskFactors");
+  }
+
+  private void checkFile(File file) {
+    ArgChecker.notNull(file, "file");
+    ArgChecker.isTrue(file.exists(), "File: {} could not be found", file);
+  }
+
+}
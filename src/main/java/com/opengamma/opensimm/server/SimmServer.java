@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.server;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.opengamma.opensimm.SimmCalculator;
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.basics.Portfolio;
+import com.opengamma.opensimm.basics.PortfolioExposure;
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.RiskFactorRegistry;
+import com.opengamma.opensimm.load.BasicCsvParser;
+import com.opengamma.opensimm.load.CsvRow;
+import com.opengamma.opensimm.util.ArgChecker;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A long-running server which keeps a {@link SimmCalculator} loaded
+ * and calculates VaR for portfolios submitted over HTTP.
+ * <p>
+ * Loading the market data and generating the market movements is by
+ * far the most expensive part of the calculation, so holding the
+ * calculator in a server means it is only done once rather than for
+ * every portfolio. The server handles requests from multiple clients
+ * concurrently, as the calculator is thread-safe.
+ * <p>
+ * The following endpoints are provided:
+ * <ul>
+ *   <li>{@code POST /var} - calculates VaR by asset class for a batch
+ *     of portfolios. The body of the request is CSV with the header
+ *     {@code Portfolio, Type, RiskFactorName, Amount, Currency}, where
+ *     the type is one of {@code DERIVATIVE}, {@code INITIAL_MARGIN} or
+ *     {@code VARIATION_MARGIN}. Rows with the same portfolio identifier
+ *     make up one portfolio. The response is CSV with the header
+ *     {@code Portfolio,AssetClass,Var}, with the portfolios in the order
+ *     they first appear in the request.</li>
+ *   <li>{@code GET /status} - reports that the server is running and
+ *     the version of the calculator's market data snapshot.</li>
+ * </ul>
+ * Invalid requests receive a 400 response containing the error message.
+ */
+public final class SimmServer {
+
+  /**
+   * The header expected for a batch of portfolios.
+   */
+  private static final List<String> EXPECTED_HEADER =
+      Arrays.asList("Portfolio", "Type", "RiskFactorName", "Amount", "Currency");
+
+  /**
+   * The calculator used for all requests.
+   */
+  private final SimmCalculator calculator;
+
+  /**
+   * The underlying HTTP server.
+   */
+  private final HttpServer server;
+
+  /**
+   * The threads used to handle requests.
+   */
+  private final ExecutorService executor;
+
+  /**
+   * Create a server for the calculator, listening on the specified port.
+   * The server does not accept requests until {@link #start()} is called.
+   *
+   * @param calculator  the calculator to use for all requests
+   * @param port  the port to listen on, or 0 to use any free port
+   * @param threads  the number of threads used to handle requests
+   * @return a new server
+   * @throws RuntimeException if the server cannot listen on the port
+   */
+  public static SimmServer of(SimmCalculator calculator, int port, int threads) {
+    return new SimmServer(calculator, port, threads);
+  }
+
+  // Private constructor
+  private SimmServer(SimmCalculator calculator, int port, int threads) {
+    this.calculator = ArgChecker.notNull(calculator, "calculator");
+    ArgChecker.isTrue(port >= 0, "Port must not be negative but was: {}", port);
+    ArgChecker.isTrue(threads > 0, "Number of threads must be positive but was: {}", threads);
+
+    try {
+      this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    this.executor = Executors.newFixedThreadPool(threads);
+    server.setExecutor(executor);
+    server.createContext("/var", exchange -> handle(exchange, "POST", this::calculateVar));
+    server.createContext("/status", exchange -> handle(exchange, "GET", this::status));
+  }
+
+  /**
+   * Start accepting requests.
+   */
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Stop the server, allowing a short time for requests
+   * which are in progress to complete.
+   */
+  public void stop() {
+    server.stop(1);
+    executor.shutdown();
+    try {
+      executor.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Get the port the server is listening on.
+   *
+   * @return the port the server is listening on
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  //-------------------------------------------------------------------------
+  // Handle a request, checking the method and converting errors to responses
+  private void handle(HttpExchange exchange, String method, RequestHandler handler) throws IOException {
+    try {
+      if (!exchange.getRequestMethod().equals(method)) {
+        respond(exchange, 405, "Method must be " + method);
+      } else {
+        respond(exchange, 200, handler.handle(exchange));
+      }
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      respond(exchange, 400, String.valueOf(e.getMessage()));
+    } catch (RuntimeException e) {
+      respond(exchange, 500, e.toString());
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private String status(HttpExchange exchange) {
+    return "Status,SnapshotVersion\nOK," + calculator.getSnapshot().getVersion() + "\n";
+  }
+
+  // Calculate VaR for each portfolio in the batch
+  private String calculateVar(HttpExchange exchange) {
+    Map<String, Map<AssetClass, Double>> results = calculator.varByAssetClass(parsePortfolios(exchange));
+
+    StringBuilder buf = new StringBuilder("Portfolio,AssetClass,Var\n");
+    results.forEach((portfolio, var) ->
+        var.forEach((assetClass, value) ->
+            buf.append(portfolio).append(',').append(assetClass).append(',').append(value).append('\n')));
+    return buf.toString();
+  }
+
+  // Read the portfolios from the request body, keyed by identifier
+  private Map<String, Portfolio> parsePortfolios(HttpExchange exchange) {
+    RiskFactorRegistry riskFactors = calculator.getRiskFactorRegistry();
+    Map<String, PortfolioBuilder> builders = new LinkedHashMap<>();
+
+    BasicCsvParser.parseRows(
+        new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8),
+        EXPECTED_HEADER,
+        row -> {
+          ArgChecker.isTrue(row.getFieldCount() == EXPECTED_HEADER.size(),
+              "Line {} should have {} fields but has {}",
+              row.getLineNumber(), EXPECTED_HEADER.size(), row.getFieldCount());
+          builders.computeIfAbsent(row.getString(0), id -> new PortfolioBuilder())
+              .add(row.getString(1), convertToExposure(row, riskFactors));
+        });
+
+    Map<String, Portfolio> portfolios = new LinkedHashMap<>();
+    builders.forEach((id, builder) -> portfolios.put(id, builder.build()));
+    return portfolios;
+  }
+
+  private PortfolioExposure convertToExposure(CsvRow row, RiskFactorRegistry riskFactors) {
+    // Either it's a user-supplied risk factor name, else
+    // it's one for currency
+    RiskFactor riskFactor = riskFactors.resolve(row.getString(2));
+    return PortfolioExposure.of(riskFactor, row.getDouble(3), Currency.getInstance(row.getString(4)));
+  }
+
+  //-------------------------------------------------------------------------
+  // Handles a request, returning the body of the response
+  private interface RequestHandler {
+
+    String handle(HttpExchange exchange);
+  }
+
+  // Collects the exposures of a portfolio by type
+  private static final class PortfolioBuilder {
+
+    private final List<PortfolioExposure> derivatives = new ArrayList<>();
+    private final List<PortfolioExposure> initialMargin = new ArrayList<>();
+    private final List<PortfolioExposure> variationMargin = new ArrayList<>();
+
+    private void add(String type, PortfolioExposure exposure) {
+      switch (type) {
+        case "DERIVATIVE":
+          derivatives.add(exposure);
+          break;
+        case "INITIAL_MARGIN":
+          initialMargin.add(exposure);
+          break;
+        case "VARIATION_MARGIN":
+          variationMargin.add(exposure);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown exposure type: " + type +
+              ", expected one of DERIVATIVE, INITIAL_MARGIN or VARIATION_MARGIN");
+      }
+    }
+
+    private Portfolio build() {
+      return Portfolio.of(derivatives, initialMargin, variationMargin);
+    }
+  }
+
+}
@@ -0,0 +1,11 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+
+/**
+ * Contains a server which keeps a SIMM calculator loaded and
+ * calculates margin for portfolios submitted over HTTP.
+ */
+package com.opengamma.opensimm.server;
@@ -7,11 +7,13 @@ package com.opengamma.opensimm.util;
 
 import static java.util.stream.Collectors.toMap;
 
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.stream.Collector;
 
 /**
@@ -88,10 +90,73 @@ public class CollectionUtils {
     return Arrays.asList(items);
   }
 
+  /**
+   * Create an unmodifiable list view of an array of primitive doubles.
+   * <p>
+   * The array is not copied, so no objects are created until elements
+   * are requested. The array must not be modified after being passed
+   * to this method.
+   *
+   * @param values  the values to wrap
+   * @return an unmodifiable list backed by the array
+   */
+  public static List<Double> asList(double[] values) {
+    ArgChecker.notNull(values, "values");
+    return new DoubleArrayList(values);
+  }
+
+  /**
+   * Copy a list of doubles into a new array of primitive doubles.
+   * <p>
+   * If the list is a {@link PrimitiveDoubleList}, such as one created by
+   * {@link #asList(double[])}, the values are copied in bulk without
+   * boxing. Otherwise each value is unboxed in turn.
+   *
+   * @param values  the values to copy
+   * @return a new array holding the values
+   */
+  public static double[] toDoubleArray(List<Double> values) {
+    ArgChecker.notNull(values, "values");
+    double[] array = new double[values.size()];
+    if (values instanceof PrimitiveDoubleList) {
+      ((PrimitiveDoubleList) values).copyTo(array);
+    } else {
+      for (int i = 0; i < array.length; i++) {
+        array[i] = values.get(i);
+      }
+    }
+    return array;
+  }
+
   public static <K, V> Collector<Pair<K, V>, ?, Map<K, V>> pairsToMap() {
     return toMap(Pair::getFirst, Pair::getSecond);
   }
   public static <K, V> Collector<Map.Entry<K, V>, ?, Map<K, V>> entriesToMap() {
     return toMap(Map.Entry::getKey, Map.Entry::getValue);
   }
+
+  // Unmodifiable list backed by an array of primitive doubles
+  private static final class DoubleArrayList extends AbstractList<Double> implements PrimitiveDoubleList, RandomAccess {
+
+    private final double[] values;
+
+    private DoubleArrayList(double[] values) {
+      this.values = values;
+    }
+
+    @Override
+    public Double get(int index) {
+      return values[index];
+    }
+
+    @Override
+    public int size() {
+      return values.length;
+    }
+
+    @Override
+    public void copyTo(double[] destination) {
+      System.arraycopy(values, 0, destination, 0, values.length);
+    }
+  }
 }
@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ObjDoubleConsumer;
+
+/**
+ * A map from keys to totals, which adds values to the total
+ * for their key as they are supplied.
+ * <p>
+ * This replaces grouping values into lists by key and then summing each
+ * list, avoiding the intermediate lists and the boxing of the values.
+ * Totals are held in primitive arrays, and keys are located using an
+ * open-addressing hash table with linear probing. The values for each key
+ * are summed using compensated summation, in the same way as
+ * {@link java.util.stream.DoubleStream#sum()}.
+ * <p>
+ * Keys are iterated in the order they were first added. Null keys are
+ * not permitted. This class is not thread-safe.
+ *
+ * @param <K>  the type of the keys
+ */
+public final class DoubleAccumulatorMap<K> {
+
+  /**
+   * The default number of keys the map can hold before it is resized.
+   */
+  private static final int DEFAULT_EXPECTED_SIZE = 16;
+
+  /**
+   * The keys, in the order they were added.
+   */
+  private Object[] keys;
+
+  /**
+   * The running total for each key.
+   */
+  private double[] sums;
+
+  /**
+   * The compensation for the lost low-order bits of each total.
+   */
+  private double[] compensations;
+
+  /**
+   * The uncompensated total for each key, used if the
+   * compensated total is NaN due to infinite values.
+   */
+  private double[] simpleSums;
+
+  /**
+   * The hash table, holding one more than the index of
+   * the key in each slot, or zero for an empty slot.
+   */
+  private int[] table;
+
+  private int size;
+
+  /**
+   * Create an empty map.
+   *
+   * @param <K>  the type of the keys
+   * @return a new map
+   */
+  public static <K> DoubleAccumulatorMap<K> create() {
+    return new DoubleAccumulatorMap<>(DEFAULT_EXPECTED_SIZE);
+  }
+
+  /**
+   * Create an empty map which can hold the expected
+   * number of keys without being resized.
+   *
+   * @param expectedSize  the expected number of keys
+   * @param <K>  the type of the keys
+   * @return a new map
+   */
+  public static <K> DoubleAccumulatorMap<K> withExpectedSize(int expectedSize) {
+    return new DoubleAccumulatorMap<>(ArgChecker.notNegative(expectedSize, "expectedSize"));
+  }
+
+  // Private constructor
+  private DoubleAccumulatorMap(int expectedSize) {
+    int capacity = Math.max(expectedSize, 1);
+    keys = new Object[capacity];
+    sums = new double[capacity];
+    compensations = new double[capacity];
+    simpleSums = new double[capacity];
+    // Keep the table at most half full
+    table = new int[Integer.highestOneBit(capacity) << 2];
+  }
+
+  /**
+   * Add a value to the total for a key.
+   *
+   * @param key  the key
+   * @param value  the value to add
+   */
+  public void add(K key, double value) {
+    int index = indexOrInsert(key);
+    double y = value - compensations[index];
+    double sum = sums[index];
+    double t = sum + y;
+    compensations[index] = (t - sum) - y;
+    sums[index] = t;
+    simpleSums[index] += value;
+  }
+
+  /**
+   * Get the total for a key.
+   *
+   * @param key  the key
+   * @return the total for the key, or zero if no values have been added for it
+   */
+  public double get(K key) {
+    int index = indexOf(key);
+    return index < 0 ? 0 : total(index);
+  }
+
+  /**
+   * Check whether any values have been added for a key.
+   *
+   * @param key  the key
+   * @return true if any values have been added for the key
+   */
+  public boolean containsKey(K key) {
+    return indexOf(key) >= 0;
+  }
+
+  /**
+   * Get the number of keys in the map.
+   *
+   * @return the number of keys
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Pass each key and its total to the consumer,
+   * in the order the keys were first added.
+   *
+   * @param consumer  the consumer of the keys and totals
+   */
+  @SuppressWarnings("unchecked")
+  public void forEach(ObjDoubleConsumer<? super K> consumer) {
+    for (int i = 0; i < size; i++) {
+      consumer.accept((K) keys[i], total(i));
+    }
+  }
+
+  /**
+   * Create a map holding the total for each key, with
+   * the keys in the order they were first added.
+   *
+   * @return a new map holding the totals
+   */
+  public Map<K, Double> toMap() {
+    Map<K, Double> map = new LinkedHashMap<>(size * 2);
+    forEach(map::put);
+    return map;
+  }
+
+  //-------------------------------------------------------------------------
+  private double total(int index) {
+    double total = sums[index] - compensations[index];
+    return Double.isNaN(total) && Double.isInfinite(simpleSums[index]) ? simpleSums[index] : total;
+  }
+
+  private int indexOf(Object key) {
+    int mask = table.length - 1;
+    for (int slot = hash(key) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+      int index = table[slot] - 1;
+      if (keys[index].equals(key)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  private int indexOrInsert(Object key) {
+    int mask = table.length - 1;
+    int slot = hash(key) & mask;
+    for (; table[slot] != 0; slot = (slot + 1) & mask) {
+      int index = table[slot] - 1;
+      if (keys[index].equals(key)) {
+        return index;
+      }
+    }
+    if (size == keys.length) {
+      grow();
+      return indexOrInsert(key);
+    }
+    int index = size++;
+    keys[index] = key;
+    table[slot] = index + 1;
+    return index;
+  }
+
+  // Double the capacity of the arrays and rebuild the hash table
+  private void grow() {
+    int capacity = keys.length * 2;
+    keys = Arrays.copyOf(keys, capacity);
+    sums = Arrays.copyOf(sums, capacity);
+    compensations = Arrays.copyOf(compensations, capacity);
+    simpleSums = Arrays.copyOf(simpleSums, capacity);
+    table = new int[Integer.highestOneBit(capacity) << 2];
+    int mask = table.length - 1;
+    for (int i = 0; i < size; i++) {
+      int slot = hash(keys[i]) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = i + 1;
+    }
+  }
+
+  // Spread the bits of the hash code so that keys whose hash
+  // codes only differ in the high bits use different slots
+  private static int hash(Object key) {
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.util;
+
+import java.util.List;
+
+/**
+ * A list of doubles backed by primitive storage, whose values
+ * can be read in bulk without boxing.
+ * <p>
+ * Shocks are supplied to the calculator as lists, but are converted to
+ * primitive arrays before use. Reading a list through {@link List#get(int)}
+ * boxes every value, so lists which already hold primitive values
+ * implement this interface to allow them to be copied directly. See
+ * {@link CollectionUtils#toDoubleArray(List)}.
+ */
+public interface PrimitiveDoubleList extends List<Double> {
+
+  /**
+   * Copy the values of the list into the start of an array.
+   *
+   * @param destination  the array to copy the values into, which
+   *   must be at least as long as the list
+   */
+  void copyTo(double[] destination);
+
+}
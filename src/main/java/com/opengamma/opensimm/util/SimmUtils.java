@@ -7,10 +7,10 @@ package com.opengamma.opensimm.util;
 
 import static java.util.stream.Collectors.toList;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.DoubleStream;
-import java.util.stream.IntStream;
 
 import com.opengamma.opensimm.basics.RiskFactor;
 
@@ -19,6 +19,13 @@ import com.opengamma.opensimm.basics.RiskFactor;
  */
 public class SimmUtils {
 
+  /**
+   * The number of scenarios processed together when computing the profits
+   * of several portfolios. A block of one movement row occupies 4KB so
+   * stays in cache while it is applied to each portfolio.
+   */
+  private static final int SCENARIO_BLOCK_SIZE = 512;
+
   /**
    * Compute the value at a specified percentile from set of values.
    * From the values the discrete percentiles are computed. The percentile
@@ -30,20 +37,105 @@ public class SimmUtils {
    * @return the percentile value
    */
   public static double percentile(List<Double> values, double level) {
+    return percentileInPlace(values.stream().mapToDouble(d -> d).toArray(), level);
+  }
 
-    int size = values.size();
-    ArgChecker.isTrue(level < 1.0d - 0.5d / size, "level not within the data range");
+  /**
+   * Compute the value at a specified percentile from an array of values.
+   * From the values the discrete percentiles are computed. The percentile
+   * for the level requested is estimated by linear interpolation on the
+   * cumulative distribution function.
+   * <p>
+   * Rather than sorting the values, the two order statistics required
+   * for the interpolation are found by selection, which takes linear
+   * time on average. The selection is performed on a copy of the values,
+   * so the array is not changed.
+   * <p>
+   * NaN values are ordered above all other values, as they are by
+   * {@link Arrays#sort(double[])}, so the result is NaN if either of the
+   * values used for the interpolation is NaN.
+   *
+   * @param values  the (unsorted) array of values, which is not changed
+   * @param level  the level at which the percentile should be computed
+   * @return the percentile value
+   */
+  public static double percentile(double[] values, double level) {
+    return percentileInPlace(values.clone(), values.length, level);
+  }
 
-    List<Double> sorted = values.stream()
-        .sorted(Double::compare)
-        .collect(toList());
+  /**
+   * Compute the value at a specified percentile from an array of values,
+   * using the supplied array as working space.
+   * <p>
+   * This is the same as {@link #percentile(double[], double)}, except that
+   * the values are copied into the scratch array rather than a new one,
+   * so no objects are allocated. The values are not changed.
+   *
+   * @param values  the (unsorted) array of values, which is not changed
+   * @param level  the level at which the percentile should be computed
+   * @param scratch  the working space, at least as long as the values,
+   *   whose contents are overwritten
+   * @return the percentile value
+   */
+  public static double percentile(double[] values, double level, double[] scratch) {
+    ArgChecker.isTrue(scratch.length >= values.length,
+        "Scratch array of length {} is too small for {} values", scratch.length, values.length);
+    System.arraycopy(values, 0, scratch, 0, values.length);
+    return percentileInPlace(scratch, values.length, level);
+  }
+
+  /**
+   * Compute the value at a specified percentile from an array of values,
+   * reordering the array.
+   * <p>
+   * This is the same as {@link #percentile(double[], double)}, except that
+   * the selection is performed in the array itself, avoiding a copy. It is
+   * intended for arrays whose order is no longer needed once the
+   * percentile has been computed.
+   *
+   * @param values  the (unsorted) array of values, reordered by this method
+   * @param level  the level at which the percentile should be computed
+   * @return the percentile value
+   */
+  public static double percentileInPlace(double[] values, double level) {
+    return percentileInPlace(values, values.length, level);
+  }
+
+  /**
+   * Find the positions of the values which determine the percentile at
+   * the specified level, together with their interpolation weights.
+   * <p>
+   * The percentile computed by {@link #percentile(double[], double)} is
+   * a weighted sum of two of the values. This method returns the index
+   * of each of those values in the array, paired with its weight, so
+   * the percentile is {@code w1 * values[i1] + w2 * values[i2]}, subject
+   * to rounding. As the percentile is linear in the values, this allows
+   * it to be attributed to anything the values are a linear combination
+   * of. Where several values are equal, the first index is used.
+   * <p>
+   * Unlike the percentile method, the values are not reordered.
+   *
+   * @param values  the (unsorted) array of values
+   * @param level  the level at which the percentile should be computed
+   * @return the index and weight of the lower value, followed by
+   *   the index and weight of the upper value
+   */
+  public static List<Pair<Integer, Double>> percentileScenarios(double[] values, double level) {
+
+    int size = values.length;
+    int i = percentileIndex(size, level);
 
-    int i = (int) Math.ceil(size * level - 0.5);
     double lower = (i - 0.5) / size;
     double upper = (i + 0.5) / size;
-    double lowerValue = sorted.get(i - 1);
-    double upperValue = sorted.get(i);
-    return lowerValue + (level - lower) * (upperValue - lowerValue) / (upper - lower);
+    double[] copy = values.clone();
+    int count = moveNaNsToEnd(copy, size);
+    double lowerValue = orderStatistic(copy, count, i - 1);
+    double upperValue = i < count ? min(copy, i, count) : Double.NaN;
+    double upperWeight = (level - lower) / (upper - lower);
+
+    int lowerIndex = indexOf(values, lowerValue, -1);
+    int upperIndex = indexOf(values, upperValue, lowerIndex);
+    return Arrays.asList(Pair.of(lowerIndex, 1 - upperWeight), Pair.of(upperIndex, upperWeight));
   }
 
   /**
@@ -63,29 +155,294 @@ public class SimmUtils {
         .findFirst()
         .orElseThrow(() -> new IllegalStateException("Market movement shocks are empty"));
 
-    return marketMovements.entrySet()
-        .stream()
-        // Ignore movements where we have no exposure
-        .filter(e -> exposure.getOrDefault(e.getKey(), 0d) != 0d)
-        // Calculate contribution to profits from each risk factor
-        .map(e -> calculateProfits(e.getValue(), exposure.get(e.getKey())))
-        // Sum the lists of doubles creating a final list of the same size
-        .reduce((l1, l2) ->
-            IntStream.range(0, l1.size())
-                .mapToObj(i -> l1.get(i) + l2.get(i))
-                .collect(toList()))
-        .orElse(createZeroList(shocksSize));
+    // Arrange the movements and exposures so that they are aligned by row
+    double[][] movements = new double[marketMovements.size()][];
+    double[] exposures = new double[marketMovements.size()];
+    int row = 0;
+    for (Map.Entry<RiskFactor, List<Double>> entry : marketMovements.entrySet()) {
+      movements[row] = entry.getValue().stream().mapToDouble(d -> d).toArray();
+      exposures[row] = exposure.getOrDefault(entry.getKey(), 0d);
+      row++;
+    }
+
+    return DoubleStream.of(profits(movements, exposures, new double[shocksSize]))
+        .boxed()
+        .collect(toList());
   }
 
-  private static List<Double> createZeroList(int shocksSize) {
-    return DoubleStream.of(new double[shocksSize]).mapToObj(d -> d).collect(toList());
+  /**
+   * Computes the profits from the market movements and the portfolio exposures,
+   * accumulating into the supplied buffer.
+   * <p>
+   * Row i of the movements holds the movements of a risk factor in each
+   * scenario, and element i of the exposures holds the exposure to the
+   * same risk factor. Rows with no exposure are skipped. The buffer is
+   * cleared before use so can be reused across calls, which means that
+   * no objects are allocated by this method.
+   *
+   * @param movements  the market movements, one row per risk factor, each
+   *   containing one value per scenario
+   * @param exposures  the exposures to the risk factors, aligned with the
+   *   rows of the movements
+   * @param out  the buffer to write the profits to, one value per scenario
+   * @return the supplied buffer, containing the profit in each scenario
+   */
+  public static double[] profits(double[][] movements, double[] exposures, double[] out) {
+    return profits(movements, exposures, out, 0, out.length);
   }
 
-  private static List<Double> calculateProfits(List<Double> movements, double delta) {
-    return movements
-        .stream()
-        .map(d -> d * delta)
-        .collect(toList());
+  /**
+   * Computes the profits for a range of scenarios from the market movements
+   * and the portfolio exposures, accumulating into the supplied buffer.
+   * <p>
+   * This is the same as {@link #profits(double[][], double[], double[])}
+   * except that only the scenarios in the range are computed, with the rest
+   * of the buffer left untouched. This allows the scenarios to be split
+   * between threads, each writing to a distinct range of the same buffer.
+   *
+   * @param movements  the market movements, one row per risk factor, each
+   *   containing one value per scenario
+   * @param exposures  the exposures to the risk factors, aligned with the
+   *   rows of the movements
+   * @param out  the buffer to write the profits to, one value per scenario
+   * @param from  the first scenario to compute, inclusive
+   * @param to  the last scenario to compute, exclusive
+   * @return the supplied buffer, containing the profit in each scenario of the range
+   */
+  public static double[] profits(double[][] movements, double[] exposures, double[] out, int from, int to) {
+    ArgChecker.isTrue(movements.length == exposures.length,
+        "Number of exposures: {} does not match number of movements: {}", exposures.length, movements.length);
+    ArgChecker.isTrue(from >= 0 && from <= to && to <= out.length,
+        "Scenario range [{}, {}) is not within the buffer of length {}", from, to, out.length);
+
+    int scenarios = out.length;
+    Arrays.fill(out, from, to, 0d);
+    for (int i = 0; i < movements.length; i++) {
+      double exposure = exposures[i];
+      // Ignore movements where we have no exposure
+      if (exposure != 0d) {
+        double[] row = movements[i];
+        ArgChecker.isTrue(row.length == scenarios,
+            "Movements have {} scenarios but the buffer has {}", row.length, scenarios);
+        for (int j = from; j < to; j++) {
+          out[j] += exposure * row[j];
+        }
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Computes the profits for a number of portfolios at once from the market
+   * movements and the exposures of each portfolio, accumulating into the
+   * supplied buffers.
+   * <p>
+   * This is the matrix product of the exposures (one row per portfolio)
+   * and the movements (one row per risk factor). It is computed in blocks
+   * of scenarios so that each block of a movement row is read from memory
+   * once and then applied to every portfolio, rather than the whole of
+   * the movements being read once per portfolio.
+   * <p>
+   * The buffer must contain at least one row per portfolio. Rows are
+   * cleared before use so the buffer can be reused across calls.
+   *
+   * @param movements  the market movements, one row per risk factor, each
+   *   containing one value per scenario
+   * @param exposures  the exposures of each portfolio to the risk factors,
+   *   one row per portfolio, each aligned with the rows of the movements
+   * @param out  the buffer to write the profits to, one row per portfolio,
+   *   each containing one value per scenario
+   * @return the supplied buffer, containing the profit in each scenario
+   *   for each portfolio
+   */
+  public static double[][] profits(double[][] movements, double[][] exposures, double[][] out) {
+    ArgChecker.isTrue(out.length >= exposures.length,
+        "Buffer has {} rows but there are {} portfolios", out.length, exposures.length);
+
+    int portfolios = exposures.length;
+    int scenarios = portfolios == 0 ? 0 : out[0].length;
+    for (int p = 0; p < portfolios; p++) {
+      ArgChecker.isTrue(exposures[p].length == movements.length,
+          "Number of exposures: {} does not match number of movements: {}", exposures[p].length, movements.length);
+      ArgChecker.isTrue(out[p].length == scenarios, "All buffer rows must have the same number of scenarios");
+      Arrays.fill(out[p], 0d);
+    }
+    for (double[] row : movements) {
+      ArgChecker.isTrue(row.length == scenarios,
+          "Movements have {} scenarios but the buffer has {}", row.length, scenarios);
+    }
+
+    for (int from = 0; from < scenarios; from += SCENARIO_BLOCK_SIZE) {
+      int to = Math.min(from + SCENARIO_BLOCK_SIZE, scenarios);
+      for (int i = 0; i < movements.length; i++) {
+        double[] row = movements[i];
+        for (int p = 0; p < portfolios; p++) {
+          double exposure = exposures[p][i];
+          // Ignore movements where the portfolio has no exposure
+          if (exposure != 0d) {
+            double[] profits = out[p];
+            for (int j = from; j < to; j++) {
+              profits[j] += exposure * row[j];
+            }
+          }
+        }
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Find the order of the values from highest to lowest, without
+   * reordering or boxing the values. Equal values remain in their
+   * original order.
+   *
+   * @param values  the values to be ordered
+   * @return the indices of the values, ordered from the index of the
+   *   highest value to the index of the lowest
+   */
+  public static int[] descendingOrder(double[] values) {
+    int size = values.length;
+    int[] order = new int[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    // Bottom-up merge sort, which is stable
+    int[] scratch = new int[size];
+    for (int width = 1; width < size; width *= 2) {
+      for (int from = 0; from < size - width; from += 2 * width) {
+        merge(values, order, scratch, from, from + width, Math.min(from + 2 * width, size));
+      }
+    }
+    return order;
+  }
+
+  // Merge two adjacent runs of indices which are each in descending
+  // order of value, taking from the first run when values are equal
+  private static void merge(double[] values, int[] order, int[] scratch, int from, int mid, int to) {
+    System.arraycopy(order, from, scratch, from, to - from);
+    int i = from;
+    int j = mid;
+    for (int k = from; k < to; k++) {
+      if (j >= to || (i < mid && Double.compare(values[scratch[i]], values[scratch[j]]) >= 0)) {
+        order[k] = scratch[i++];
+      } else {
+        order[k] = scratch[j++];
+      }
+    }
+  }
+
+  // Compute the percentile of the first size values of the
+  // array, reordering them
+  private static double percentileInPlace(double[] values, int size, double level) {
+    int i = percentileIndex(size, level);
+
+    double lower = (i - 0.5) / size;
+    double upper = (i + 0.5) / size;
+    int count = moveNaNsToEnd(values, size);
+    double lowerValue = orderStatistic(values, count, i - 1);
+    // Selection leaves all values above the selected one to its right
+    double upperValue = i < count ? min(values, i, count) : Double.NaN;
+    return lowerValue + (level - lower) * (upperValue - lowerValue) / (upper - lower);
+  }
+
+  // Move any NaN values to the end of the first size values, as they
+  // are ordered above all other values, returning the number of values
+  // which are not NaN
+  private static int moveNaNsToEnd(double[] values, int size) {
+    int count = size;
+    for (int i = 0; i < count; i++) {
+      if (Double.isNaN(values[i])) {
+        swap(values, i--, --count);
+      }
+    }
+    return count;
+  }
+
+  // Find the value at index k in sorted order, where the first count
+  // values are not NaN and any values after them are
+  private static double orderStatistic(double[] values, int count, int k) {
+    return k < count ? select(values, count, k) : Double.NaN;
+  }
+
+  // Find the 1-based position in sorted order of the upper value used
+  // for interpolation, checking the level is within the data range
+  private static int percentileIndex(int size, double level) {
+    ArgChecker.isTrue(level < 1.0d - 0.5d / size, "level not within the data range");
+    int i = (int) Math.ceil(size * level - 0.5);
+    ArgChecker.isTrue(i > 0, "level not within the data range");
+    return i;
+  }
+
+  // Find the first index of a value, ignoring the excluded index
+  private static int indexOf(double[] values, double value, int excluded) {
+    for (int i = 0; i < values.length; i++) {
+      // Compared as for sorting so that NaN values can be found
+      if (Double.compare(values[i], value) == 0 && i != excluded) {
+        return i;
+      }
+    }
+    throw new IllegalStateException("Value not found: " + value);
+  }
+
+  // Find the value which would be at index k if the first size values
+  // were sorted, partially reordering them such that all values
+  // before k are no greater and all values after k are no smaller.
+  // Uses quickselect with three-way partitioning to cope with
+  // repeated values, falling back to a sort of the remaining range
+  // if the partitioning is unbalanced for too long.
+  private static double select(double[] values, int size, int k) {
+    int left = 0;
+    int right = size - 1;
+    int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(size));
+
+    while (left < right) {
+      if (depthLimit-- == 0) {
+        Arrays.sort(values, left, right + 1);
+        return values[k];
+      }
+
+      double pivot = medianOfThree(values[left], values[(left + right) >>> 1], values[right]);
+      int lt = left;
+      int gt = right;
+      int i = left;
+      while (i <= gt) {
+        double value = values[i];
+        if (value < pivot) {
+          swap(values, lt++, i++);
+        } else if (value > pivot) {
+          swap(values, i, gt--);
+        } else {
+          i++;
+        }
+      }
+
+      if (k < lt) {
+        right = lt - 1;
+      } else if (k > gt) {
+        left = gt + 1;
+      } else {
+        return pivot;
+      }
+    }
+    return values[k];
+  }
+
+  private static double medianOfThree(double a, double b, double c) {
+    return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+  }
+
+  private static double min(double[] values, int from, int to) {
+    double min = values[from];
+    for (int i = from + 1; i < to; i++) {
+      min = Math.min(min, values[i]);
+    }
+    return min;
+  }
+
+  private static void swap(double[] values, int i, int j) {
+    double tmp = values[i];
+    values[i] = values[j];
+    values[j] = tmp;
   }
 
   // Private constructor for utils class
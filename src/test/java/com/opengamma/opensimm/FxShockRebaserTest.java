@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.opensimm.basics.FxMatrix;
+import com.opengamma.opensimm.util.Pair;
+
+@Test
+public class FxShockRebaserTest {
+
+  private static final double TOLERANCE = 1e-12;
+
+  private static final Currency USD = Currency.getInstance("USD");
+  private static final Currency EUR = Currency.getInstance("EUR");
+  private static final Currency GBP = Currency.getInstance("GBP");
+  private static final Currency JPY = Currency.getInstance("JPY");
+  private static final Currency CHF = Currency.getInstance("CHF");
+
+  public void shocksMatchFxMatrixForEachScenario() {
+    Map<Pair<Currency, Currency>, List<Double>> fxShocks = new HashMap<>();
+    fxShocks.put(Pair.of(EUR, USD), Arrays.asList(1.01, 0.98, 1.003));
+    fxShocks.put(Pair.of(GBP, USD), Arrays.asList(0.99, 1.02, 1.0));
+    fxShocks.put(Pair.of(USD, JPY), Arrays.asList(1.005, 0.995, 1.01));
+    fxShocks.put(Pair.of(EUR, CHF), Arrays.asList(1.002, 0.997, 0.999));
+
+    FxShockRebaser rebaser = FxShockRebaser.of(GBP, fxShocks);
+
+    for (int s = 0; s < 3; s++) {
+      int scenario = s;
+      FxMatrix matrix = FxMatrix.builder()
+          .addRates(fxShocks.entrySet()
+              .stream()
+              .collect(HashMap::new, (m, e) -> m.put(e.getKey(), e.getValue().get(scenario)), Map::putAll))
+          .build();
+
+      for (Currency ccy : matrix.getCurrencies()) {
+        assertEquals(rebaser.getShocks(ccy)[s], matrix.getRate(GBP, ccy), TOLERANCE);
+      }
+    }
+  }
+
+  public void baseCurrencyIsUnshocked() {
+    Map<Pair<Currency, Currency>, List<Double>> fxShocks = new HashMap<>();
+    fxShocks.put(Pair.of(EUR, USD), Arrays.asList(1.01, 0.98));
+
+    FxShockRebaser rebaser = FxShockRebaser.of(USD, fxShocks);
+    assertEquals(rebaser.getShocks(USD), new double[] {1.0, 1.0});
+    assertEquals(rebaser.getShocks(EUR)[0], 1 / 1.01, TOLERANCE);
+    assertEquals(rebaser.getShocks(EUR)[1], 1 / 0.98, TOLERANCE);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void unreachableCurrencyIsRejected() {
+    Map<Pair<Currency, Currency>, List<Double>> fxShocks = new HashMap<>();
+    fxShocks.put(Pair.of(EUR, USD), Arrays.asList(1.01, 0.98));
+    fxShocks.put(Pair.of(GBP, JPY), Arrays.asList(1.02, 0.99));
+
+    FxShockRebaser.of(USD, fxShocks).getShocks(JPY);
+  }
+
+}
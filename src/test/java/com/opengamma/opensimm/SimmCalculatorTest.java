@@ -6,19 +6,43 @@
 package com.opengamma.opensimm;
 
 import static com.opengamma.opensimm.example.SimmMarketData.EUR;
+import static com.opengamma.opensimm.util.CollectionUtils.createMap;
+import static java.util.stream.Collectors.toList;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Currency;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
 
 import org.testng.annotations.Test;
 
 import com.opengamma.opensimm.SimmCalculator;
+import com.opengamma.opensimm.SimmCalculator.SimmCalculatorBuilder;
 import com.opengamma.opensimm.basics.AssetClass;
 import com.opengamma.opensimm.basics.FxMatrix;
+import com.opengamma.opensimm.basics.Portfolio;
+import com.opengamma.opensimm.basics.PortfolioExposure;
+import com.opengamma.opensimm.basics.RiskFactor;
 import com.opengamma.opensimm.example.SimmMarketData;
 import com.opengamma.opensimm.example.SimmPortfolios;
+import com.opengamma.opensimm.format.PnlVectorCsvWriter;
+import com.opengamma.opensimm.util.Pair;
+import com.opengamma.opensimm.util.SimmUtils;
 
 @Test
 public class SimmCalculatorTest {
@@ -68,21 +92,350 @@ public class SimmCalculatorTest {
         });
   }
 
+  public void calculateVarForMultiplePortfolios() {
+
+    SimmCalculator calculator = buildSimmCalculator();
+
+    // Enough portfolios to span more than one block, with
+    // differing scales so that the results all differ
+    Map<Integer, Portfolio> portfolios = new LinkedHashMap<>();
+    IntStream.range(0, 150).forEach(i -> portfolios.put(i, Portfolio.of(
+        scale(SimmPortfolios.DERIVATIVES, 1 + i % 7),
+        scale(SimmPortfolios.INITIAL_MARGIN, i % 3),
+        SimmPortfolios.VARIATION_MARGIN)));
+
+    Map<Integer, Map<AssetClass, Double>> results = calculator.varByAssetClass(portfolios);
+    assertEquals(results.keySet(), portfolios.keySet());
+
+    portfolios.forEach((id, portfolio) -> {
+      Map<AssetClass, Double> expected = calculator.varByAssetClass(
+          portfolio.getDerivatives(), portfolio.getInitialMargin(), portfolio.getVariationMargin());
+      Map<AssetClass, Double> var = results.get(id);
+      assertEquals(var.keySet(), expected.keySet());
+      expected.forEach((assetClass, value) -> assertEquals(var.get(assetClass), value, 1e-8));
+    });
+  }
+
+  public void calculateVarInParallel() {
+
+    SimmCalculator sequential = buildSimmCalculator();
+    ExecutorService executorService = Executors.newFixedThreadPool(3);
+    ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+    try {
+      List<SimmCalculator> parallelCalculators = Arrays.asList(
+          buildSimmCalculator(builder -> builder.executor(forkJoinPool)),
+          buildSimmCalculator(builder -> builder.executor(executorService)));
+
+      Map<Integer, Portfolio> portfolios = new LinkedHashMap<>();
+      IntStream.range(0, 100).forEach(i -> portfolios.put(i, Portfolio.of(
+          scale(SimmPortfolios.DERIVATIVES, 1 + i % 5), SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN)));
+
+      Map<AssetClass, Double> expected = sequential.varByAssetClass(
+          SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN);
+      Map<Integer, Map<AssetClass, Double>> expectedBatch = sequential.varByAssetClass(portfolios);
+
+      for (SimmCalculator calculator : parallelCalculators) {
+        Map<AssetClass, Double> var = calculator.varByAssetClass(
+            SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN);
+        assertEquals(var, expected);
+        assertEquals(calculator.varByAssetClass(portfolios), expectedBatch);
+      }
+    } finally {
+      executorService.shutdown();
+      forkJoinPool.shutdown();
+    }
+  }
+
+  public void streamedPnlVectorsMatchPnlVectorsByAssetClass() {
+
+    SimmCalculator calculator = buildSimmCalculator();
+
+    Map<Integer, Portfolio> portfolios = new LinkedHashMap<>();
+    IntStream.range(0, 70).forEach(i -> portfolios.put(i, Portfolio.of(
+        scale(SimmPortfolios.DERIVATIVES, 1 + i % 4), SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN)));
+
+    Map<Integer, Map<AssetClass, List<Pair<Integer, Double>>>> streamed = new LinkedHashMap<>();
+    calculator.pnlVectors(portfolios, (id, assetClass, profits) -> {
+      List<Pair<Integer, Double>> pnl = new ArrayList<>();
+      for (int scenario : SimmUtils.descendingOrder(profits)) {
+        pnl.add(Pair.of(scenario + 1, profits[scenario]));
+      }
+      streamed.computeIfAbsent(id, k -> new LinkedHashMap<>()).put(assetClass, pnl);
+    });
+    assertEquals(new ArrayList<>(streamed.keySet()), new ArrayList<>(portfolios.keySet()));
+
+    portfolios.forEach((id, portfolio) -> assertEquals(
+        streamed.get(id),
+        calculator.pnlVectorsByAssetClass(
+            portfolio.getDerivatives(), portfolio.getInitialMargin(), portfolio.getVariationMargin())));
+  }
+
+  public void pnlVectorsAreWrittenAsCsv() throws IOException {
+
+    SimmCalculator calculator = buildSimmCalculator();
+    Portfolio portfolio = Portfolio.of(
+        SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (PnlVectorCsvWriter<String> writer = PnlVectorCsvWriter.of(out, true)) {
+      calculator.pnlVectors(Collections.singletonMap("P1", portfolio), writer);
+    }
+
+    List<String> expected = new ArrayList<>();
+    expected.add("Portfolio,Asset Class,Index,P&L Vector");
+    calculator.pnlVectorsByAssetClass(
+        portfolio.getDerivatives(), portfolio.getInitialMargin(), portfolio.getVariationMargin())
+        .forEach((assetClass, pnl) -> pnl.forEach(p ->
+            expected.add("P1," + assetClass.name() + "," + p.getFirst() + "," + p.getSecond())));
+    assertEquals(Arrays.asList(out.toString("UTF-8").split(System.lineSeparator())), expected);
+  }
+
+  public void whatIfSessionMatchesFullRecalculation() {
+
+    SimmCalculator calculator = buildSimmCalculator();
+    MarginSession session = calculator.session(Portfolio.of(
+        SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN));
+
+    Map<AssetClass, Double> baseVar = calculator.varByAssetClass(
+        SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN);
+    assertVarEquals(session.getVar(), baseVar);
+
+    // A trade with exposures to the credit, equity and commodity risk factors
+    List<PortfolioExposure> trade = scale(SimmPortfolios.DERIVATIVES.subList(6, 9), -0.5);
+    List<PortfolioExposure> combined = new ArrayList<>(SimmPortfolios.DERIVATIVES);
+    combined.addAll(trade);
+    Map<AssetClass, Double> expected = calculator.varByAssetClass(
+        combined, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN);
+
+    Map<AssetClass, Double> whatIf = session.whatIf(trade);
+    assertVarEquals(whatIf, expected);
+    assertEquals(whatIf.get(AssetClass.INTEREST_RATE), session.getVar().get(AssetClass.INTEREST_RATE));
+    assertVarEquals(session.getVar(), baseVar);
+
+    assertVarEquals(session.add(trade), expected);
+    assertVarEquals(session.getVar(), expected);
+  }
+
+  public void varAttributionSumsToVar() {
+
+    SimmCalculator calculator = buildSimmCalculator();
+    VarAttribution attribution = calculator.varAttribution(
+        SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN);
+
+    Map<AssetClass, Double> var = calculator.varByAssetClass(
+        SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN);
+    assertEquals(attribution.getVar(), var);
+
+    // The component VaRs of the risk factors in each asset class sum to its VaR
+    Map<AssetClass, Double> riskFactorTotals = new HashMap<>();
+    attribution.getComponentVar().forEach((riskFactor, component) -> {
+      AssetClass assetClass = SimmMarketData.RISK_FACTOR_NON_FX.containsKey(riskFactor) ?
+          SimmMarketData.RISK_FACTOR_NON_FX.get(riskFactor).getAssetClass() :
+          AssetClass.INTEREST_RATE;
+      riskFactorTotals.merge(assetClass, component, Double::sum);
+    });
+    assertVarEquals(riskFactorTotals, var);
+
+    // As do the component VaRs of the individual exposures
+    int exposureCount = SimmPortfolios.DERIVATIVES.size() +
+        SimmPortfolios.INITIAL_MARGIN.size() + SimmPortfolios.VARIATION_MARGIN.size();
+    assertEquals(attribution.getExposureComponentVar().size(), exposureCount);
+    double exposureTotal = attribution.getExposureComponentVar().stream().mapToDouble(Pair::getSecond).sum();
+    assertEquals(exposureTotal, var.values().stream().mapToDouble(d -> d).sum(), 1e-8);
+
+    // And those of the exposures to each risk factor sum to its component VaR
+    Map<RiskFactor, Double> exposureTotals = new HashMap<>();
+    attribution.getExposureComponentVar().forEach(p ->
+        exposureTotals.merge(p.getFirst().getRiskFactor(), p.getSecond(), Double::sum));
+    assertEquals(exposureTotals.keySet(), attribution.getComponentVar().keySet());
+    attribution.getComponentVar().forEach((riskFactor, component) ->
+        assertEquals(exposureTotals.get(riskFactor), component, 1e-8));
+  }
+
+  public void exposureMarginalVarMatchesFiniteDifference() {
+
+    SimmCalculator calculator = buildSimmCalculator();
+    List<List<PortfolioExposure>> inputs = Arrays.asList(
+        SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN);
+    VarAttribution attribution = calculator.varAttribution(inputs.get(0), inputs.get(1), inputs.get(2));
+    Map<AssetClass, Double> var = attribution.getVar();
+
+    List<Pair<PortfolioExposure, Double>> marginals = attribution.getExposureMarginalVar();
+    List<Pair<PortfolioExposure, Double>> components = attribution.getExposureComponentVar();
+    assertEquals(marginals.size(), components.size());
+    assertTrue(marginals.stream().anyMatch(p -> p.getSecond() != 0));
+
+    double bump = 1e-4;
+    int index = 0;
+    for (List<PortfolioExposure> input : inputs) {
+      for (int i = 0; i < input.size(); i++, index++) {
+        PortfolioExposure exposure = input.get(i);
+        double marginal = marginals.get(index).getSecond();
+        assertSame(marginals.get(index).getFirst(), exposure);
+        assertSame(components.get(index).getFirst(), exposure);
+        assertEquals(components.get(index).getSecond(), exposure.getAmount() * marginal, 1e-8);
+
+        // Bump the amount of the exposure and recalculate the VaR
+        List<PortfolioExposure> bumped = new ArrayList<>(input);
+        bumped.set(i, PortfolioExposure.of(
+            exposure.getRiskFactor(), exposure.getAmount() + bump, exposure.getCurrency()));
+        List<List<PortfolioExposure>> bumpedInputs = new ArrayList<>(inputs);
+        bumpedInputs.set(inputs.indexOf(input), bumped);
+        Map<AssetClass, Double> bumpedVar =
+            calculator.varByAssetClass(bumpedInputs.get(0), bumpedInputs.get(1), bumpedInputs.get(2));
+
+        RiskFactor riskFactor = exposure.getRiskFactor();
+        AssetClass assetClass = SimmMarketData.RISK_FACTOR_NON_FX.containsKey(riskFactor) ?
+            SimmMarketData.RISK_FACTOR_NON_FX.get(riskFactor).getAssetClass() :
+            AssetClass.INTEREST_RATE;
+        double finiteDifference = (bumpedVar.get(assetClass) - var.get(assetClass)) / bump;
+        assertEquals(marginal, finiteDifference, 1e-6 * Math.max(1, Math.abs(marginal)));
+      }
+    }
+  }
+
+  public void updatedRiskFactorLevelsMatchRebuiltCalculator() {
+
+    SimmCalculator calculator = buildSimmCalculator();
+    MarketDataSnapshot original = calculator.getSnapshot();
+
+    Map<RiskFactor, Double> levels = new HashMap<>(SimmMarketData.INITIAL_MARKET_LEVELS);
+    levels.put(SimmMarketData.SP500, 1100.0);
+    MarketDataSnapshot updated = calculator.updateRiskFactorLevels(createMap(SimmMarketData.SP500, 1100.0));
+    SimmCalculator rebuilt = buildSimmCalculator(builder -> builder.riskFactorLevels(levels));
+
+    assertEquals(updated.getVersion(), original.getVersion() + 1);
+    assertSame(calculator.getSnapshot(), updated);
+    assertVarEquals(
+        calculator.varByAssetClass(
+            SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN),
+        rebuilt.varByAssetClass(
+            SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN));
+
+    // Movements of the asset classes which are unaffected are shared
+    assertSame(
+        updated.getMarketMovements().get(AssetClass.COMMODITY),
+        original.getMarketMovements().get(AssetClass.COMMODITY));
+  }
+
+  public void updatedFxMatrixMatchesRebuiltCalculator() {
+
+    SimmCalculator calculator = buildSimmCalculator();
+    MarginSession session = calculator.session(Portfolio.of(
+        SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN));
+    Map<AssetClass, Double> sessionVar = session.getVar();
+
+    FxMatrix fxMatrix = FxMatrix.builder()
+        .addRate(SimmMarketData.EUR, SimmMarketData.USD, 1.45)
+        .addRate(SimmMarketData.GBP, SimmMarketData.USD, 1.55)
+        .build();
+    calculator.updateFxMatrix(fxMatrix);
+    SimmCalculator rebuilt = buildSimmCalculator(builder -> builder.fxMatrix(fxMatrix));
+
+    Map<AssetClass, Double> var = calculator.varByAssetClass(
+        SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN);
+    assertVarEquals(var, rebuilt.varByAssetClass(
+        SimmPortfolios.DERIVATIVES, SimmPortfolios.INITIAL_MARGIN, SimmPortfolios.VARIATION_MARGIN));
+    assertNotEquals(var.get(AssetClass.INTEREST_RATE), sessionVar.get(AssetClass.INTEREST_RATE));
+
+    // The session continues to use the snapshot it was created with
+    assertVarEquals(session.getVar(), sessionVar);
+  }
+
+  public void bulkConvertedExposuresMatchConvertExposures() {
+
+    SimmCalculator calculator = buildSimmCalculator();
+    List<PortfolioExposure> exposures = new ArrayList<>(SimmPortfolios.DERIVATIVES);
+    exposures.addAll(SimmPortfolios.INITIAL_MARGIN);
+    exposures.addAll(SimmPortfolios.VARIATION_MARGIN);
+    assertBulkConversionMatches(calculator, exposures);
+
+    // Ids are retained when the FX rates change
+    calculator.updateFxMatrix(FxMatrix.builder()
+        .addRate(SimmMarketData.EUR, SimmMarketData.USD, 1.45)
+        .addRate(SimmMarketData.GBP, SimmMarketData.USD, 1.55)
+        .build());
+    assertBulkConversionMatches(calculator, exposures);
+  }
+
+  private void assertBulkConversionMatches(SimmCalculator calculator, List<PortfolioExposure> exposures) {
+    MarketDataSnapshot snapshot = calculator.getSnapshot();
+    double[] amounts = exposures.stream().mapToDouble(PortfolioExposure::getAmount).toArray();
+    int[] riskFactorIds = exposures.stream().mapToInt(e -> snapshot.getRiskFactorId(e.getRiskFactor())).toArray();
+    int[] currencyIds = exposures.stream().mapToInt(e -> snapshot.getFxMatrix().getCurrencyId(e.getCurrency())).toArray();
+    double[] converted = snapshot.convertExposures(amounts, riskFactorIds, currencyIds);
+    assertEquals(converted.length, snapshot.getRiskFactorCount());
+
+    Map<RiskFactor, Double> expected = calculator.convertExposures(exposures);
+    for (int id = 0; id < converted.length; id++) {
+      assertEquals(converted[id], expected.getOrDefault(snapshot.getRiskFactor(id), 0d), 1e-8);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void fxRiskFactorLevelsCannotBeUpdatedDirectly() {
+    buildSimmCalculator().updateRiskFactorLevels(createMap(SimmMarketData.USD_RF, 1.5));
+  }
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = "No base level found for: .*XAU.*")
+  public void exposureToRiskFactorWithoutLevelIsRejected() {
+    Map<RiskFactor, Double> levels = new HashMap<>(SimmMarketData.INITIAL_MARKET_LEVELS);
+    levels.remove(SimmMarketData.XAU);
+    Map<RiskFactor, List<Double>> shocks = new HashMap<>(SimmMarketData.RF_SHOCKS);
+    shocks.remove(SimmMarketData.XAU);
+    SimmCalculator calculator =
+        buildSimmCalculator(builder -> builder.riskFactorLevels(levels).riskFactorShocks(shocks));
+
+    calculator.varByAssetClass(Collections.singletonList(PortfolioExposure.of(SimmMarketData.XAU, 100, EUR)));
+  }
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = "No base level found for: .*SP500.*")
+  public void exposureToRiskFactorWithZeroLevelIsRejected() {
+    Map<RiskFactor, Double> levels = new HashMap<>(SimmMarketData.INITIAL_MARKET_LEVELS);
+    levels.put(SimmMarketData.SP500, 0d);
+    SimmCalculator calculator = buildSimmCalculator(builder -> builder.riskFactorLevels(levels));
+    MarketDataSnapshot snapshot = calculator.getSnapshot();
+
+    snapshot.convertExposures(
+        new double[] {100},
+        new int[] {snapshot.getRiskFactorId(SimmMarketData.SP500)},
+        new int[] {snapshot.getFxMatrix().getCurrencyId(EUR)});
+  }
+
+  private void assertVarEquals(Map<AssetClass, Double> var, Map<AssetClass, Double> expected) {
+    assertEquals(var.keySet(), expected.keySet());
+    expected.forEach((assetClass, value) -> assertEquals(var.get(assetClass), value, 1e-8));
+  }
+
+  private List<PortfolioExposure> scale(List<PortfolioExposure> exposures, double factor) {
+    return exposures.stream()
+        .map(e -> PortfolioExposure.of(e.getRiskFactor(), e.getAmount() * factor, e.getCurrency()))
+        .collect(toList());
+  }
+
   private SimmCalculator buildSimmCalculator() {
+    return buildSimmCalculator(builder -> builder);
+  }
+
+  private SimmCalculator buildSimmCalculator(UnaryOperator<SimmCalculatorBuilder> configuration) {
     FxMatrix fxMatrix = SimmMarketData.FX_RATES
         .entrySet()
         .stream()
         .collect(FxMatrix.entryCollector());
 
-    return SimmCalculator.builder()
+    SimmCalculatorBuilder builder = SimmCalculator.builder()
         .varLevel(VAR_LEVEL)
         .baseCurrency(BASE_CURRENCY)
         .riskFactors(SimmMarketData.RISK_FACTOR_NON_FX)
         .riskFactorLevels(SimmMarketData.INITIAL_MARKET_LEVELS)
         .fxMatrix(fxMatrix)
         .riskFactorShocks(SimmMarketData.RF_SHOCKS)
-        .fxShocks(SimmMarketData.FX_SHOCKS)
-        .build();
+        .fxShocks(SimmMarketData.FX_SHOCKS);
+    return configuration.apply(builder).build();
   }
 
 }
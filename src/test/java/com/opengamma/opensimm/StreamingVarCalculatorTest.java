@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm;
+
+import static com.opengamma.opensimm.example.SimmMarketData.EUR;
+import static java.util.stream.Collectors.toList;
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.basics.FxMatrix;
+import com.opengamma.opensimm.basics.Portfolio;
+import com.opengamma.opensimm.basics.PortfolioExposure;
+import com.opengamma.opensimm.example.SimmMarketData;
+import com.opengamma.opensimm.example.SimmPortfolios;
+import com.opengamma.opensimm.load.BinaryShocksWriter;
+import com.opengamma.opensimm.util.Pair;
+
+@Test
+public class StreamingVarCalculatorTest {
+
+  private static final double VAR_LEVEL = 0.90; // 90% VaR
+  private static final double TOLERANCE = 1.0E-8;
+
+  private static final FxMatrix FX_MATRIX = SimmMarketData.FX_RATES
+      .entrySet()
+      .stream()
+      .collect(FxMatrix.entryCollector());
+
+  public void varMatchesSimmCalculator() throws IOException {
+    Map<Integer, Portfolio> portfolios = portfolios();
+    Map<Integer, Map<AssetClass, Double>> expected = simmCalculator().varByAssetClass(portfolios);
+
+    // Block sizes which do and do not divide the number of scenarios
+    for (int blockSize : new int[] {1, 7, 1000}) {
+      Map<Integer, Map<AssetClass, Double>> results = streamingCalculator(blockSize).varByAssetClass(portfolios);
+      assertEquals(results.keySet(), expected.keySet());
+      expected.forEach((id, var) -> {
+        assertEquals(results.get(id).keySet(), var.keySet());
+        var.forEach((assetClass, value) -> assertEquals(results.get(id).get(assetClass), value, TOLERANCE));
+      });
+    }
+  }
+
+  public void pnlVectorsMatchSimmCalculator() throws IOException {
+    Map<Integer, Portfolio> portfolios = portfolios();
+    Map<Pair<Integer, AssetClass>, double[]> expected = new HashMap<>();
+    simmCalculator().pnlVectors(portfolios, (id, assetClass, profits) ->
+        expected.put(Pair.of(id, assetClass), profits.clone()));
+
+    List<Pair<Integer, AssetClass>> keys = new ArrayList<>();
+    streamingCalculator(7).pnlVectors(portfolios, (id, assetClass, profits) -> {
+      keys.add(Pair.of(id, assetClass));
+      double[] expectedProfits = expected.get(Pair.of(id, assetClass));
+      assertEquals(profits.length, expectedProfits.length);
+      for (int i = 0; i < profits.length; i++) {
+        assertEquals(profits[i], expectedProfits[i], TOLERANCE);
+      }
+    });
+    assertEquals(keys.size(), expected.size());
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void baseCurrencyMustBeInFxMatrix() throws IOException {
+    StreamingVarCalculator.builder()
+        .baseCurrency(EUR)
+        .riskFactorShocks(tempFile())
+        .fxShocks(tempFile())
+        .build();
+  }
+
+  //-------------------------------------------------------------------------
+  private Map<Integer, Portfolio> portfolios() {
+    Map<Integer, Portfolio> portfolios = new LinkedHashMap<>();
+    IntStream.range(0, 5).forEach(i -> portfolios.put(i, Portfolio.of(
+        scale(SimmPortfolios.DERIVATIVES, 1 + i),
+        scale(SimmPortfolios.INITIAL_MARGIN, i % 3),
+        SimmPortfolios.VARIATION_MARGIN)));
+    return portfolios;
+  }
+
+  private List<PortfolioExposure> scale(List<PortfolioExposure> exposures, double factor) {
+    return exposures.stream()
+        .map(e -> PortfolioExposure.of(e.getRiskFactor(), e.getAmount() * factor, e.getCurrency()))
+        .collect(toList());
+  }
+
+  private SimmCalculator simmCalculator() {
+    return SimmCalculator.builder()
+        .varLevel(VAR_LEVEL)
+        .baseCurrency(EUR)
+        .riskFactors(SimmMarketData.RISK_FACTOR_NON_FX)
+        .riskFactorLevels(SimmMarketData.INITIAL_MARKET_LEVELS)
+        .fxMatrix(FX_MATRIX)
+        .riskFactorShocks(SimmMarketData.RF_SHOCKS)
+        .fxShocks(SimmMarketData.FX_SHOCKS)
+        .build();
+  }
+
+  private StreamingVarCalculator streamingCalculator(int scenarioBlockSize) throws IOException {
+    File riskFactorShocks = tempFile();
+    BinaryShocksWriter.writeRiskFactorShocks(SimmMarketData.RF_SHOCKS, riskFactorShocks);
+    File fxShocks = tempFile();
+    BinaryShocksWriter.writeFxShocks(SimmMarketData.FX_SHOCKS, fxShocks);
+
+    return StreamingVarCalculator.builder()
+        .varLevel(VAR_LEVEL)
+        .baseCurrency(EUR)
+        .riskFactors(SimmMarketData.RISK_FACTOR_NON_FX)
+        .riskFactorLevels(SimmMarketData.INITIAL_MARKET_LEVELS)
+        .fxMatrix(FX_MATRIX)
+        .riskFactorShocks(riskFactorShocks)
+        .fxShocks(fxShocks)
+        .scenarioBlockSize(scenarioBlockSize)
+        .build();
+  }
+
+  private File tempFile() throws IOException {
+    File file = File.createTempFile("shocks", ".bin");
+    file.deleteOnExit();
+    return file;
+  }
+
+}
@@ -278,6 +278,44 @@ public class FxMatrixTest {
     assertEquals(result.getRate(GBP, AUD), (1.6 / 1.4) * 1.2 * 1.2, TOLERANCE);
   }
 
+  public void currencyIdsFollowInsertionOrder() {
+    FxMatrix matrix = FxMatrix.builder()
+        .addRate(GBP, USD, 1.6)
+        .addRate(EUR, USD, 1.4)
+        .build();
+
+    assertEquals(matrix.getCurrencyCount(), 3);
+    assertEquals(matrix.getCurrencyId(GBP), 0);
+    assertEquals(matrix.getCurrencyId(USD), 1);
+    assertEquals(matrix.getCurrencyId(EUR), 2);
+    assertEquals(matrix.getCurrencyId(CHF), -1);
+    assertEquals(matrix.getCurrency(2), EUR);
+  }
+
+  public void rateByIdMatchesRateByCurrency() {
+    FxMatrix matrix = FxMatrix.builder()
+        .addRate(GBP, USD, 1.6)
+        .addRate(EUR, USD, 1.4)
+        .addRate(EUR, CHF, 1.2)
+        .build();
+
+    for (Currency ccy1 : matrix.getCurrencies()) {
+      for (Currency ccy2 : matrix.getCurrencies()) {
+        assertEquals(
+            matrix.getRate(matrix.getCurrencyId(ccy1), matrix.getCurrencyId(ccy2)),
+            matrix.getRate(ccy1, ccy2));
+      }
+    }
+  }
+
+  @Test(expectedExceptions = IndexOutOfBoundsException.class)
+  public void rateByIdRejectsUnknownId() {
+    FxMatrix matrix = FxMatrix.builder()
+        .addRate(GBP, USD, 1.6)
+        .build();
+    matrix.getRate(0, 2);
+  }
+
   private Pair<Currency, Currency> currencyPair(Currency ccy1, Currency ccy2) {
     return Pair.of(ccy1, ccy2);
   }
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.basics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Currency;
+
+import org.testng.annotations.Test;
+
+@Test
+public class RiskFactorRegistryTest {
+
+  private static final StandardRiskFactor IBM = StandardRiskFactor.of("IBM");
+  private static final StandardRiskFactor XAU = StandardRiskFactor.of("XAU");
+  private static final FxRiskFactor USD = FxRiskFactor.of(Currency.getInstance("USD"));
+
+  public void idsFollowIterationOrder() {
+    RiskFactorRegistry registry = RiskFactorRegistry.of(Arrays.asList(XAU, IBM, USD, StandardRiskFactor.of("IBM")));
+    assertEquals(registry.size(), 3);
+    assertEquals(registry.getId(XAU), 0);
+    assertEquals(registry.getId(StandardRiskFactor.of("IBM")), 1);
+    assertEquals(registry.getId(USD), 2);
+    assertEquals(registry.getId(StandardRiskFactor.of("SP500")), -1);
+    assertSame(registry.getRiskFactor(1), IBM);
+  }
+
+  public void namesResolveToCanonicalInstances() {
+    RiskFactorRegistry registry = RiskFactorRegistry.of(Arrays.asList(IBM, XAU, USD));
+    assertSame(registry.resolve("IBM"), IBM);
+    assertSame(registry.intern(StandardRiskFactor.of("XAU")), XAU);
+    assertSame(registry.resolve("USD"), USD);
+    assertEquals(registry.resolve("GBP"), FxRiskFactor.of(Currency.getInstance("GBP")));
+  }
+
+  public void fxRiskFactorsAreCanonical() {
+    assertSame(FxRiskFactor.of("EUR"), FxRiskFactor.of(Currency.getInstance("EUR")));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void unknownNameWhichIsNotCurrencyThrowsException() {
+    RiskFactorRegistry.of(Arrays.asList(IBM)).resolve("SP500");
+  }
+
+}
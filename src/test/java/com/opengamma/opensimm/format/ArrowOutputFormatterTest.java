@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.opensimm.basics.AssetClass;
+
+/**
+ * Test Arrow files are written as expected, by reading them back
+ * following the Arrow IPC file format specification.
+ */
+@Test
+public class ArrowOutputFormatterTest {
+
+  public void rowsAreWrittenAsTypedColumns() throws IOException {
+    File file = Files.createTempFile("formatter", ".arrow").toFile();
+    file.deleteOnExit();
+
+    // Enough rows for more than one record batch
+    int rowCount = 70_000;
+    OutputFormatter formatter = new ArrowOutputFormatter(file.getAbsolutePath());
+    formatter.addHeader("Asset Class", "Index", "Count", "P&L Vector");
+    formatter.addRows(IntStream.range(0, rowCount)
+        .mapToObj(i -> Arrays.<Object>asList(AssetClass.values()[i % 4], i + 1, (long) i << 32, i * 0.5)));
+    formatter.addFooter("Total", 0, 0L, 1.5);
+    formatter.print();
+
+    ArrowFile arrow = new ArrowFile(Files.readAllBytes(file.toPath()));
+    assertEquals(arrow.names, Arrays.asList("Asset Class", "Index", "Count", "P&L Vector"));
+    assertEquals(arrow.typeIds, Arrays.asList(5, 2, 2, 3));
+    assertEquals(arrow.batchSizes, Arrays.asList(65536, rowCount + 1 - 65536));
+
+    List<List<Object>> rows = arrow.rows;
+    assertEquals(rows.size(), rowCount + 1);
+    assertEquals(rows.get(0), Arrays.asList("COMMODITY", 1, 0L, 0d));
+    assertEquals(rows.get(65537), Arrays.asList("CREDIT", 65538, 65537L << 32, 32768.5));
+    assertEquals(rows.get(rowCount), Arrays.asList("Total", 0, 0L, 1.5));
+  }
+
+  public void floatsAreWrittenUsingTheirStringForm() throws IOException {
+    File file = Files.createTempFile("formatter", ".arrow").toFile();
+    file.deleteOnExit();
+
+    OutputFormatter formatter = new ArrowOutputFormatter(file.getAbsolutePath());
+    formatter.addHeader("Asset Class", "Var");
+    formatter.addRows(Stream.of(Arrays.<Object>asList("EQUITY", 0.1f)));
+    formatter.print();
+
+    ArrowFile arrow = new ArrowFile(Files.readAllBytes(file.toPath()));
+    assertEquals(arrow.rows, Arrays.asList(Arrays.asList("EQUITY", 0.1d)));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Column Var.*")
+  public void rowsMustMatchTypesOfFirstRow() throws IOException {
+    File file = Files.createTempFile("formatter", ".arrow").toFile();
+    file.deleteOnExit();
+
+    OutputFormatter formatter = new ArrowOutputFormatter(file.getAbsolutePath());
+    formatter.addHeader("Asset Class", "Var");
+    formatter.addRows(Arrays.asList(Arrays.<Object>asList("EQUITY", 1.0), Arrays.<Object>asList("CREDIT", "1.0")).stream());
+    formatter.print();
+  }
+
+  public void pnlVectorsAreWrittenInDescendingOrder() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (PnlVectorArrowWriter<String> writer = PnlVectorArrowWriter.of(out)) {
+      writer.accept("P1", AssetClass.EQUITY, new double[] {1.5, -2.0, 3.0});
+      writer.accept("P2", AssetClass.CREDIT, new double[] {0.0});
+    }
+
+    ArrowFile arrow = new ArrowFile(out.toByteArray());
+    assertEquals(arrow.names, Arrays.asList("Portfolio", "Asset Class", "Index", "P&L Vector"));
+    assertEquals(arrow.rows, Arrays.asList(
+        Arrays.asList("P1", "EQUITY", 3, 3.0),
+        Arrays.asList("P1", "EQUITY", 1, 1.5),
+        Arrays.asList("P1", "EQUITY", 2, -2.0),
+        Arrays.asList("P2", "CREDIT", 1, 0.0)));
+  }
+
+  //-------------------------------------------------------------------------
+  // Reads the schema and record batches of an Arrow file from its footer
+  private static final class ArrowFile {
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Integer> typeIds = new ArrayList<>();
+    private final List<Integer> bitWidths = new ArrayList<>();
+    private final List<Integer> batchSizes = new ArrayList<>();
+    private final List<List<Object>> rows = new ArrayList<>();
+
+    private ArrowFile(byte[] bytes) {
+      ByteBuffer file = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+      assertEquals(new String(bytes, 0, 6, StandardCharsets.US_ASCII), "ARROW1");
+      assertEquals(new String(bytes, bytes.length - 6, 6, StandardCharsets.US_ASCII), "ARROW1");
+
+      int footerLength = file.getInt(bytes.length - 10);
+      int footerStart = bytes.length - 10 - footerLength;
+      FlatTable footer = FlatTable.root(file, footerStart);
+      for (FlatTable field : footer.table(1).tables(1)) {
+        names.add(field.string(0));
+        typeIds.add((int) file.get(field.position(2)));
+        bitWidths.add(typeIds.get(typeIds.size() - 1) == 2 ? file.getInt(field.table(3).position(0)) : 0);
+      }
+
+      int blocks = footer.vector(3);
+      for (int i = 0; i < file.getInt(blocks); i++) {
+        int block = blocks + 4 + 24 * i;
+        int offset = (int) file.getLong(block);
+        int metadataLength = file.getInt(block + 8);
+        assertEquals(file.getInt(offset), -1);
+        FlatTable message = FlatTable.root(file, offset + 8);
+        assertEquals(file.get(message.position(1)), 3);
+        readBatch(file, message.table(2), offset + metadataLength);
+      }
+    }
+
+    private void readBatch(ByteBuffer file, FlatTable batch, int body) {
+      int rowCount = (int) file.getLong(batch.position(0));
+      batchSizes.add(rowCount);
+      int buffers = batch.vector(2) + 4;
+      List<List<Object>> columns = new ArrayList<>();
+      for (int column = 0; column < names.size(); column++) {
+        List<Object> values = new ArrayList<>();
+        // Skip the validity buffer
+        buffers += 16;
+        int valuesStart = body + (int) file.getLong(buffers);
+        buffers += 16;
+        for (int row = 0; row < rowCount; row++) {
+          switch (typeIds.get(column)) {
+            case 5:
+              int dataStart = body + (int) file.getLong(buffers);
+              int from = file.getInt(valuesStart + 4 * row);
+              int to = file.getInt(valuesStart + 4 * row + 4);
+              values.add(new String(file.array(), dataStart + from, to - from, StandardCharsets.UTF_8));
+              break;
+            case 2:
+              values.add(bitWidths.get(column) == 32 ?
+                  (Object) file.getInt(valuesStart + 4 * row) :
+                  (Object) file.getLong(valuesStart + 8 * row));
+              break;
+            default:
+              values.add(file.getDouble(valuesStart + 8 * row));
+          }
+        }
+        if (typeIds.get(column) == 5) {
+          buffers += 16;
+        }
+        columns.add(values);
+      }
+      for (int row = 0; row < rowCount; row++) {
+        List<Object> values = new ArrayList<>();
+        for (List<Object> column : columns) {
+          values.add(column.get(row));
+        }
+        rows.add(values);
+      }
+    }
+  }
+
+  // A flatbuffer table, whose fields are located through its vtable
+  private static final class FlatTable {
+
+    private final ByteBuffer buffer;
+    private final int position;
+
+    private static FlatTable root(ByteBuffer buffer, int start) {
+      return new FlatTable(buffer, start + buffer.getInt(start));
+    }
+
+    private FlatTable(ByteBuffer buffer, int position) {
+      this.buffer = buffer;
+      this.position = position;
+    }
+
+    private int position(int slot) {
+      int vtable = position - buffer.getInt(position);
+      int offset = buffer.getShort(vtable + 4 + 2 * slot);
+      assertEquals(offset == 0, false, "Missing field in slot " + slot);
+      return position + offset;
+    }
+
+    private int vector(int slot) {
+      int field = position(slot);
+      return field + buffer.getInt(field);
+    }
+
+    private FlatTable table(int slot) {
+      return new FlatTable(buffer, vector(slot));
+    }
+
+    private List<FlatTable> tables(int slot) {
+      int vector = vector(slot);
+      List<FlatTable> tables = new ArrayList<>();
+      for (int i = 0; i < buffer.getInt(vector); i++) {
+        int element = vector + 4 + 4 * i;
+        tables.add(new FlatTable(buffer, element + buffer.getInt(element)));
+      }
+      return tables;
+    }
+
+    private String string(int slot) {
+      int vector = vector(slot);
+      return new String(buffer.array(), vector + 4, buffer.getInt(vector), StandardCharsets.UTF_8);
+    }
+  }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+import static java.util.stream.Collectors.toList;
+import static org.testng.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.DoubleStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.opensimm.basics.AssetClass;
+
+@Test
+public class CsvOutputFormatterTest {
+
+  public void shortestEncodingMatchesDoubleToString() {
+    Random random = new Random(1);
+    DoubleStream values = DoubleStream.concat(
+        DoubleStream.of(0d, -0d, 1d, -1d, 100d, 9999999d, 1e7, -1e7, 0.1, 1785.949, 1e-300,
+            Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY),
+        random.doubles(1000).map(d -> (d - 0.5) * 1e6));
+    values.forEach(value -> assertEquals(encode(NumberEncoder.shortest(), value), Double.toString(value)));
+  }
+
+  public void fixedEncodingRoundsToDecimalPlaces() {
+    NumberEncoder encoder = NumberEncoder.fixed(2);
+    assertEquals(encode(encoder, 1785.949), "1785.95");
+    assertEquals(encode(encoder, -0.125), "-0.13");
+    assertEquals(encode(encoder, -0.001), "0.00");
+    assertEquals(encode(encoder, 12), "12.00");
+    assertEquals(encode(encoder, 1e20), "100000000000000000000.00");
+    assertEquals(encode(encoder, Double.NaN), "NaN");
+    assertEquals(encode(NumberEncoder.fixed(0), 2.5), "3");
+    assertEquals(encode(NumberEncoder.fixed(4), 0.00005), "0.0001");
+  }
+
+  public void fixedEncodingRoundsExactValueHalfUp() {
+    // The largest double below one half must not be rounded up
+    assertEquals(encode(NumberEncoder.fixed(0), 0.49999999999999994), "0");
+    assertEquals(encode(NumberEncoder.fixed(0), 0.5), "1");
+    assertEquals(encode(NumberEncoder.fixed(0), -0.5), "-1");
+    // Held just below the midpoint, although the scaled product rounds to it
+    assertEquals(encode(NumberEncoder.fixed(2), 1.115), "1.11");
+    assertEquals(encode(NumberEncoder.fixed(2), 1.125), "1.13");
+    assertEquals(encode(NumberEncoder.fixed(1), 0.35), "0.3");
+    assertEquals(encode(NumberEncoder.fixed(2), 4503599627370.495), "4503599627370.50");
+  }
+
+  public void fixedEncodingMatchesBigDecimal() {
+    Random random = new Random(1);
+    for (int decimalPlaces = 0; decimalPlaces <= 6; decimalPlaces++) {
+      NumberEncoder encoder = NumberEncoder.fixed(decimalPlaces);
+      for (int i = 0; i < 10000; i++) {
+        // Values with one more decimal place than written, most of which lie near a midpoint
+        double value = Math.round((random.nextDouble() - 0.5) * 1e7) / Math.pow(10, decimalPlaces + 1);
+        String expected = new BigDecimal(value).setScale(decimalPlaces, RoundingMode.HALF_UP).toPlainString();
+        // Negative values which round to zero are written without a sign
+        if (expected.startsWith("-") && isZero(expected)) {
+          expected = expected.substring(1);
+        }
+        assertEquals(encode(encoder, value), expected);
+      }
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void fixedEncodingRejectsTooManyDecimalPlaces() {
+    NumberEncoder.fixed(18);
+  }
+
+  public void outputMatchesStringForm() throws IOException {
+    File file = Files.createTempFile("formatter", ".csv").toFile();
+    file.deleteOnExit();
+
+    OutputFormatter formatter = new CsvOutputFormatter(file.getAbsolutePath());
+    formatter.addHeader("Asset Class", "Index", "P&L Vector");
+    formatter.addRows(Stream.of(
+        Arrays.asList(AssetClass.EQUITY, 1, 1785.9493),
+        Arrays.asList(AssetClass.CREDIT, 2, -0.5)));
+    formatter.addFooter("Total", 1785.4493);
+    formatter.print();
+
+    assertEquals(
+        Files.readAllLines(file.toPath(), StandardCharsets.UTF_8),
+        Arrays.asList("Asset Class,Index,P&L Vector", "EQUITY,1,1785.9493", "CREDIT,2,-0.5", "Total,1785.4493"));
+  }
+
+  public void floatCellsMatchStringForm() throws IOException {
+    File file = Files.createTempFile("formatter", ".csv").toFile();
+    file.deleteOnExit();
+
+    OutputFormatter formatter = new CsvOutputFormatter(file.getAbsolutePath());
+    formatter.addHeader("Float", "Double");
+    formatter.addRows(Stream.of(
+        Arrays.asList(0.1f, 0.1),
+        Arrays.asList(-1.5e-7f, 1785.9493)));
+    formatter.print();
+
+    assertEquals(
+        Files.readAllLines(file.toPath(), StandardCharsets.UTF_8),
+        Arrays.asList("Float,Double", "0.1,0.1", "-1.5E-7,1785.9493"));
+  }
+
+  public void gzipOutputWithFixedEncoding() throws IOException {
+    File file = Files.createTempFile("formatter", ".csv.gz").toFile();
+    file.deleteOnExit();
+
+    OutputFormatter formatter = CsvOutputFormatter.builder(file.getAbsolutePath())
+        .numberEncoder(NumberEncoder.fixed(3))
+        .gzip(true)
+        .flushInterval(1000)
+        .build();
+    formatter.addHeader("Index", "Value");
+    formatter.addRows(DoubleStream.iterate(0.25, d -> d * 2).limit(5000).boxed()
+        .map(d -> Arrays.<Object>asList(d.longValue(), d)));
+    formatter.print();
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+      List<String> lines = reader.lines().collect(toList());
+      assertEquals(lines.size(), 5001);
+      assertEquals(lines.get(0), "Index,Value");
+      assertEquals(lines.get(1), "0,0.250");
+      assertEquals(lines.get(4), "2,2.000");
+    }
+  }
+
+  private static boolean isZero(String number) {
+    return number.chars().noneMatch(c -> c >= '1' && c <= '9');
+  }
+
+  private static String encode(NumberEncoder encoder, double value) {
+    byte[] buffer = new byte[NumberEncoder.MAX_LENGTH + 1];
+    buffer[0] = '#';
+    int end = encoder.encode(value, buffer, 1);
+    return new String(buffer, 1, end - 1, StandardCharsets.US_ASCII);
+  }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.format;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.opensimm.basics.AssetClass;
+
+@Test
+public class PrettyPrintOutputFormatterTest {
+
+  public void columnsAreSizedToWidestValue() throws UnsupportedEncodingException {
+    OutputFormatter formatter = new PrettyPrintOutputFormatter();
+    formatter.addHeader("Asset Class", "Index", "Var");
+    formatter.addRows(Stream.of(
+        Arrays.asList(AssetClass.INTEREST_RATE, 2, 564.37029),
+        Arrays.asList(AssetClass.CREDIT, 10, 33.33)));
+    formatter.addFooter("Total", "", 597.70029);
+
+    assertEquals(print(formatter), Arrays.asList(
+        "------------- ----- --------",
+        "Asset Class   Index Var     ",
+        "------------- ----- --------",
+        "INTEREST_RATE     2 564.3703",
+        "CREDIT           10  33.3300",
+        "------------- ----- --------",
+        "Total               597.7003",
+        "------------- ----- --------"));
+  }
+
+  public void rowsBeyondLimitUseFixedWidths() throws UnsupportedEncodingException {
+    OutputFormatter formatter = new PrettyPrintOutputFormatter(1);
+    formatter.addHeader("Asset Class", "Var");
+    formatter.addRows(Stream.of(
+        Arrays.asList(AssetClass.CREDIT, 1.0),
+        Arrays.asList(AssetClass.INTEREST_RATE, 22.0),
+        Arrays.asList(AssetClass.EQUITY, 3.5)));
+
+    assertEquals(print(formatter), Arrays.asList(
+        "----------- ------",
+        "Asset Class Var   ",
+        "----------- ------",
+        "CREDIT      1.0000",
+        "INTEREST_RATE 22.0000",
+        "EQUITY      3.5000"));
+  }
+
+  private static List<String> print(OutputFormatter formatter) throws UnsupportedEncodingException {
+    PrintStream original = System.out;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(out, true, "UTF-8"));
+    try {
+      formatter.print();
+    } finally {
+      System.setOut(original);
+    }
+    return Arrays.asList(out.toString("UTF-8").split(System.lineSeparator()));
+  }
+
+}
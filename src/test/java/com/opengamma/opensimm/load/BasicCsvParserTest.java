@@ -10,6 +10,7 @@ import static org.testng.Assert.assertEquals;
 import static com.opengamma.opensimm.util.CollectionUtils.pairsToMap;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -69,4 +70,29 @@ public class BasicCsvParserTest {
     assertEquals(result.get(3), 31d / 32);
   }
 
-}
\ No newline at end of file
+  public void rowsArePassedToCallback() {
+
+    File file = new File(BASE_DIR + "simple-with-empty-lines.csv");
+
+    List<List<String>> result = new ArrayList<>();
+    List<Integer> lineNumbers = new ArrayList<>();
+    BasicCsvParser.parseRows(file, EXPECTED_HEADER, row -> {
+      result.add(row.toList());
+      lineNumbers.add(row.getLineNumber());
+    });
+
+    assertEquals(result.size(), 3);
+    assertEquals(result.get(0), Arrays.asList("row1", "data 11", "data 12"));
+    assertEquals(result.get(2), Arrays.asList("row3", "data 31", "data 32"));
+    assertEquals(lineNumbers.get(0), (Integer) 2);
+  }
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = "Expected header to contain.*")
+  public void wrongHeaderIsRejectedByRowParser() {
+    File file = new File(BASE_DIR + "simple.csv");
+    BasicCsvParser.parseRows(file, Arrays.asList("Header1"), row -> {});
+  }
+
+}
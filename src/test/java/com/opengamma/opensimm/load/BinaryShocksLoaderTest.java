@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.load;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.basics.FxRiskFactor;
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.StandardRiskFactor;
+import com.opengamma.opensimm.util.CollectionUtils;
+import com.opengamma.opensimm.util.Pair;
+import com.opengamma.opensimm.util.PrimitiveDoubleList;
+
+@Test
+public class BinaryShocksLoaderTest {
+
+  private static final String SAMPLE_DIR = "src/test/resources/simm-sample/";
+
+  public void riskFactorShocksMatchCsv() throws IOException {
+    File csv = new File(SAMPLE_DIR + "risk-factor-shocks.csv");
+    File binary = tempFile();
+    BinaryShocksWriter.convert(csv, binary);
+
+    assertTrue(BinaryShocksLoader.isBinaryShocksFile(binary));
+    assertFalse(BinaryShocksLoader.isBinaryShocksFile(csv));
+
+    Map<RiskFactor, List<Double>> result = BinaryShocksLoader.of(binary).loadRiskFactorShocks();
+    assertEquals(result, RiskFactorShocksLoader.of(csv).load());
+    assertEquals(result.get(StandardRiskFactor.of("XAU")),
+        Arrays.asList(1.01, 0.995, 0.997, 1.001, 0.9955, 1.0002, 1.011, 0.994, 0.9975, 1.003, 0.99, 1.0004, 1.012, 0.9945));
+  }
+
+  public void loadedShocksCanBeCopiedWithoutBoxing() throws IOException {
+    File csv = new File(SAMPLE_DIR + "risk-factor-shocks.csv");
+    File binary = tempFile();
+    BinaryShocksWriter.convert(csv, binary);
+
+    Map<RiskFactor, List<Double>> result = BinaryShocksLoader.of(binary).loadRiskFactorShocks();
+    result.values().forEach(shocks -> {
+      assertTrue(shocks instanceof PrimitiveDoubleList);
+      double[] copied = CollectionUtils.toDoubleArray(shocks);
+      assertEquals(copied, shocks.stream().mapToDouble(d -> d).toArray());
+      // Copying does not affect the list, so it can be copied again
+      assertEquals(CollectionUtils.toDoubleArray(shocks), copied);
+    });
+  }
+
+  public void fxShocksMatchCsv() throws IOException {
+    File csv = new File(SAMPLE_DIR + "fx-rate-shocks.csv");
+    File binary = tempFile();
+    BinaryShocksWriter.convert(csv, binary);
+
+    Map<Pair<Currency, Currency>, List<Double>> result = BinaryShocksLoader.of(binary).loadFxShocks();
+    assertEquals(result, FxShocksLoader.of(csv).load());
+  }
+
+  public void emptyShocksCanBeWritten() throws IOException {
+    File binary = tempFile();
+    BinaryShocksWriter.writeRiskFactorShocks(new HashMap<>(), binary);
+    assertEquals(BinaryShocksLoader.of(binary).loadRiskFactorShocks().size(), 0);
+  }
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = ".*contains FX shocks but risk factor shocks were expected")
+  public void wrongTypeOfShocksThrowsException() throws IOException {
+    File binary = tempFile();
+    BinaryShocksWriter.convert(new File(SAMPLE_DIR + "fx-rate-shocks.csv"), binary);
+    BinaryShocksLoader.of(binary).loadRiskFactorShocks();
+  }
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = ".*is not a binary shocks file")
+  public void csvFileThrowsException() {
+    BinaryShocksLoader.of(new File(SAMPLE_DIR + "risk-factor-shocks.csv")).loadRiskFactorShocks();
+  }
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = "Only standard risk factors can be written.*")
+  public void fxRiskFactorCannotBeWritten() throws IOException {
+    Map<RiskFactor, List<Double>> shocks = new HashMap<>();
+    shocks.put(FxRiskFactor.of(Currency.getInstance("USD")), Arrays.asList(1d, 2d));
+    BinaryShocksWriter.writeRiskFactorShocks(shocks, tempFile());
+  }
+
+  public void blockReaderReadsDictionaryLargerThanItsBuffer() throws IOException {
+    // Long names so the dictionary spans several reads
+    Map<RiskFactor, List<Double>> shocks = new LinkedHashMap<>();
+    for (int i = 0; i < 5000; i++) {
+      shocks.put(StandardRiskFactor.of(String.format("RISK-FACTOR-WITH-A-LONG-NAME-%05d", i)), Arrays.asList((double) i, i + 0.5));
+    }
+    File binary = tempFile();
+    BinaryShocksWriter.writeRiskFactorShocks(shocks, binary);
+
+    Map<RiskFactor, List<Double>> result = new HashMap<>();
+    try (ScenarioBlockReader reader = ScenarioBlockReader.riskFactorShocks(binary)) {
+      double[] values = new double[2];
+      for (int entry = 0; entry < reader.getEntryCount(); entry++) {
+        reader.read(entry, 0, reader.getScenarioCount(entry), values);
+        result.put(reader.getRiskFactor(entry), Arrays.asList(values[0], values[1]));
+      }
+    }
+    assertEquals(result, shocks);
+  }
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = ".*is not a binary shocks file")
+  public void blockReaderRejectsCsvFile() {
+    ScenarioBlockReader.riskFactorShocks(new File(SAMPLE_DIR + "risk-factor-shocks.csv"));
+  }
+
+  public void propertyFileLoaderUsesBinaryShocks() throws IOException {
+    Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(SAMPLE_DIR + "simm.properties")) {
+      properties.load(in);
+    }
+    Map<AssetClass, Double> expected = new PropertyFileLoader(properties).calculateVar();
+
+    File riskFactorShocks = tempFile();
+    File fxShocks = tempFile();
+    BinaryShocksWriter.convert(new File(properties.getProperty("risk-factor-shocks")), riskFactorShocks);
+    BinaryShocksWriter.convert(new File(properties.getProperty("fx-rate-shocks")), fxShocks);
+    properties.setProperty("risk-factor-shocks", riskFactorShocks.getPath());
+    properties.setProperty("fx-rate-shocks", fxShocks.getPath());
+
+    assertEquals(new PropertyFileLoader(properties).calculateVar(), expected);
+  }
+
+  private static File tempFile() throws IOException {
+    File file = File.createTempFile("shocks", ".bin");
+    file.deleteOnExit();
+    return file;
+  }
+
+}
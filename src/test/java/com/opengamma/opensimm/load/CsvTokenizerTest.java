@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.load;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.annotations.Test;
+
+@Test
+public class CsvTokenizerTest {
+
+  public void linesAreSplitOnAllLineTerminators() throws IOException {
+    List<List<String>> rows = tokenize("a,b\nc,d\r\ne,f\rg,h", 4);
+    assertEquals(rows, Arrays.asList(
+        Arrays.asList("a", "b"), Arrays.asList("c", "d"), Arrays.asList("e", "f"), Arrays.asList("g", "h")));
+  }
+
+  public void linesLongerThanBufferAreRead() throws IOException {
+    String longLine = Stream.generate(() -> "1.5").limit(100).collect(Collectors.joining(","));
+    List<List<String>> rows = tokenize("header\n" + longLine + "\r\nlast\n", 8);
+    assertEquals(rows.size(), 3);
+    assertEquals(rows.get(1), Collections.nCopies(100, "1.5"));
+    assertEquals(rows.get(2), Arrays.asList("last"));
+  }
+
+  public void fieldsAreSplitAsForStringSplit() throws IOException {
+    for (String line : Arrays.asList("a, b ,c", "a,,b", "a,b,,", "a,b, ", ",,,", " ", "a", ",a")) {
+      List<String> expected = Stream.of(line.split(",")).map(String::trim).collect(Collectors.toList());
+      assertEquals(tokenize(line + "\n", 16).get(0), expected, "Line: '" + line + "'");
+    }
+  }
+
+  public void emptyLinesAreReported() throws IOException {
+    CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("a\n\nb"), 16);
+    assertTrue(tokenizer.next());
+    assertFalse(tokenizer.row().isEmptyLine());
+    assertTrue(tokenizer.next());
+    assertTrue(tokenizer.row().isEmptyLine());
+    assertEquals(tokenizer.row().getLineNumber(), 2);
+    assertTrue(tokenizer.next());
+    assertEquals(tokenizer.row().getString(0), "b");
+    assertFalse(tokenizer.next());
+  }
+
+  public void doublesAreParsedFromRow() throws IOException {
+    CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("name, 0.0001, -0.0005,1e-3 ,-0"), 16);
+    assertTrue(tokenizer.next());
+    CsvRow row = tokenizer.row();
+    assertEquals(row.getDouble(1), 0.0001);
+    double[] values = row.getDoubles(1);
+    assertEquals(values, new double[] {0.0001, -0.0005, 0.001, -0d});
+    assertEquals(Double.doubleToRawLongBits(values[3]), Double.doubleToRawLongBits(-0d));
+  }
+
+  public void parsedDoublesMatchDoubleParseDouble() {
+    List<String> values = new ArrayList<>(Arrays.asList(
+        "0", "1", "-1", "+2.5", "0.1", "0.3", "1.", ".5", "123456789012345678", "9007199254740993",
+        "1e22", "1e23", "1.7976931348623157E308", "4.9E-324", "1E-400", "0.000000000000000000001",
+        "1.0025", "0.9975", "Infinity", "-NaN", "NaN", "1.5d", "2f", "0x1p3"));
+    Random random = new Random(1L);
+    for (int i = 0; i < 10_000; i++) {
+      values.add(Double.toString(random.nextGaussian() * Math.pow(10, random.nextInt(20) - 10)));
+      values.add(String.format("%.6f", random.nextGaussian()));
+    }
+    for (String value : values) {
+      char[] chars = value.toCharArray();
+      assertEquals(
+          Double.doubleToRawLongBits(CsvRow.parseDouble(chars, 0, chars.length)),
+          Double.doubleToRawLongBits(Double.parseDouble(value)),
+          value);
+    }
+  }
+
+  @Test(expectedExceptions = NumberFormatException.class, expectedExceptionsMessageRegExp = "For input string.*")
+  public void badDoubleThrowsSameExceptionAsDoubleParseDouble() {
+    char[] chars = "0.0001XXXXXXX".toCharArray();
+    CsvRow.parseDouble(chars, 0, chars.length);
+  }
+
+  @Test(expectedExceptions = NumberFormatException.class)
+  public void emptyDoubleThrowsException() {
+    CsvRow.parseDouble(new char[0], 0, 0);
+  }
+
+  private static List<List<String>> tokenize(String input, int bufferSize) throws IOException {
+    List<List<String>> rows = new ArrayList<>();
+    try (CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(input), bufferSize)) {
+      while (tokenizer.next()) {
+        rows.add(tokenizer.row().toList());
+      }
+    }
+    return rows;
+  }
+
+}
@@ -7,6 +7,7 @@ package com.opengamma.opensimm.load;
 
 import static java.util.stream.Collectors.toSet;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 import java.io.File;
@@ -19,6 +20,7 @@ import org.testng.annotations.Test;
 import com.opengamma.opensimm.basics.FxRiskFactor;
 import com.opengamma.opensimm.basics.PortfolioExposure;
 import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.RiskFactorRegistry;
 import com.opengamma.opensimm.basics.StandardRiskFactor;
 import com.opengamma.opensimm.load.PortfolioLoader;
 
@@ -84,6 +86,22 @@ public class PortfolioLoaderTest {
     assertEquals(deltas.stream().filter(rd -> rd.getRiskFactor() instanceof FxRiskFactor).count(), 3);
   }
 
+  public void riskFactorsAreResolvedUsingRegistry() {
+    RiskFactorRegistry registry = RiskFactorRegistry.of(NON_FX_RISK_FACTOR_NAMES);
+    List<PortfolioExposure> deltas =
+        PortfolioLoader.of(new File(SAMPLE_DIR + "portfolio-derivatives.csv"), registry).load();
+    assertEquals(deltas.size(), 9);
+    // Non-FX risk factors are the instances held by the registry, which holds no FX risk factors
+    deltas.stream()
+        .map(PortfolioExposure::getRiskFactor)
+        .filter(rf -> !(rf instanceof FxRiskFactor))
+        .forEach(rf -> {
+          int id = registry.getId(rf);
+          assertTrue(id >= 0, "Risk factor not in registry: " + rf);
+          assertSame(registry.getRiskFactor(id), rf);
+        });
+  }
+
   private List<PortfolioExposure> loadTestFile(String fileName) {
     return loadFile(TEST_DIR, fileName);
   }
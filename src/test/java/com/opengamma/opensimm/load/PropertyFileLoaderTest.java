@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.load;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.opensimm.SimmCalculator;
+import com.opengamma.opensimm.SimmResult;
+import com.opengamma.opensimm.basics.Portfolio;
+
+@Test
+public class PropertyFileLoaderTest {
+
+  private static final String SAMPLE_DIR = "src/test/resources/simm-sample/";
+
+  public void calculateAllMatchesSeparateCalculations() throws IOException {
+    PropertyFileLoader loader = new PropertyFileLoader(sampleProperties());
+    SimmResult result = loader.calculateAll();
+
+    SimmCalculator calculator = loader.createSimmCalculator();
+    Portfolio portfolio = loader.getPortfolio();
+    assertEquals(result.getVar(), calculator.varByAssetClass(
+        portfolio.getDerivatives(), portfolio.getInitialMargin(), portfolio.getVariationMargin()));
+    assertEquals(result.getPnlVectors(), calculator.pnlVectorsByAssetClass(
+        portfolio.getDerivatives(), portfolio.getInitialMargin(), portfolio.getVariationMargin()));
+  }
+
+  public void calculatorIsReusedUntilFileChanges() throws IOException {
+    Properties properties = sampleProperties();
+    File levels = File.createTempFile("levels", ".csv");
+    levels.deleteOnExit();
+    Files.copy(new File(properties.getProperty("risk-factor-base-levels")).toPath(), levels.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    properties.setProperty("risk-factor-base-levels", levels.getPath());
+
+    PropertyFileLoader loader = new PropertyFileLoader(properties);
+    SimmCalculator calculator = loader.getSimmCalculator();
+    Portfolio portfolio = loader.getPortfolio();
+    assertSame(loader.getSimmCalculator(), calculator);
+    assertSame(loader.getPortfolio(), portfolio);
+
+    assertTrue(levels.setLastModified(levels.lastModified() + 10_000));
+    assertNotSame(loader.getSimmCalculator(), calculator);
+    assertNotSame(loader.getPortfolio(), portfolio);
+  }
+
+  public void parallelLoadingMatchesSequentialLoading() throws IOException {
+    AtomicInteger tasks = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      PropertyFileLoader parallel = new PropertyFileLoader(sampleProperties(), task -> {
+        tasks.incrementAndGet();
+        executor.execute(task);
+      });
+      PropertyFileLoader sequential = new PropertyFileLoader(sampleProperties(), Runnable::run);
+
+      assertEquals(parallel.calculateAll().getVar(), sequential.calculateAll().getVar());
+      // One task for each market data file and each portfolio file
+      assertEquals(tasks.get(), 8);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = "Expected header to contain.*")
+  public void loadingErrorIsRethrown() throws IOException {
+    Properties properties = sampleProperties();
+    File levels = File.createTempFile("levels", ".csv");
+    levels.deleteOnExit();
+    Files.write(levels.toPath(), "Wrong, Header\n".getBytes(StandardCharsets.UTF_8));
+    properties.setProperty("risk-factor-base-levels", levels.getPath());
+
+    new PropertyFileLoader(properties).getSimmCalculator();
+  }
+
+  public void portfolioIsNotReusedAfterFailedReload() throws IOException {
+    Properties properties = sampleProperties();
+    // Add a risk factor which only the derivatives are exposed to
+    File definitions = copyWithExtraLine(properties, "risk-factor-definitions", "EXTRA, IR, SENSITIVITY, AB");
+    copyWithExtraLine(properties, "portfolio-derivatives", "EXTRA, 1000, EUR");
+
+    PropertyFileLoader loader = new PropertyFileLoader(properties);
+    Portfolio portfolio = loader.getPortfolio();
+    SimmCalculator calculator = loader.getSimmCalculator();
+
+    // Remove the risk factor, so the unchanged portfolio can no longer be loaded
+    Files.copy(new File(SAMPLE_DIR + "risk-factor-definitions.csv").toPath(), definitions.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    assertTrue(definitions.setLastModified(definitions.lastModified() + 10_000));
+    assertPortfolioFailsToLoad(loader);
+    // The failure is reported again rather than the old portfolio
+    // being paired with the new calculator
+    assertPortfolioFailsToLoad(loader);
+    assertNotSame(loader.getSimmCalculator(), calculator);
+    assertPortfolioFailsToLoad(loader);
+    assertNotNull(portfolio);
+  }
+
+  private static void assertPortfolioFailsToLoad(PropertyFileLoader loader) {
+    try {
+      loader.getPortfolio();
+      fail("Expected the portfolio to fail to load");
+    } catch (IllegalArgumentException e) {
+      // Expected, as the portfolio refers to an unknown risk factor
+    }
+  }
+
+  // Copy the file of the property to a temporary file with an extra line,
+  // updating the property to refer to the copy
+  private static File copyWithExtraLine(Properties properties, String key, String line) throws IOException {
+    File file = File.createTempFile(key, ".csv");
+    file.deleteOnExit();
+    String content =
+        new String(Files.readAllBytes(new File(properties.getProperty(key)).toPath()), StandardCharsets.UTF_8);
+    Files.write(file.toPath(), (content.trim() + "\n" + line + "\n").getBytes(StandardCharsets.UTF_8));
+    properties.setProperty(key, file.getPath());
+    return file;
+  }
+
+  private static Properties sampleProperties() throws IOException {
+    Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(SAMPLE_DIR + "simm.properties")) {
+      properties.load(in);
+    }
+    return properties;
+  }
+
+}
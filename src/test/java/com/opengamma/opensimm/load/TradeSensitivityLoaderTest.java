@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.load;
+
+import static java.util.stream.Collectors.toSet;
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.testng.annotations.Test;
+
+import com.opengamma.opensimm.basics.FxRiskFactor;
+import com.opengamma.opensimm.basics.Portfolio;
+import com.opengamma.opensimm.basics.PortfolioExposure;
+import com.opengamma.opensimm.basics.RiskFactor;
+import com.opengamma.opensimm.basics.StandardRiskFactor;
+
+@Test
+public class TradeSensitivityLoaderTest {
+
+  private static final Set<RiskFactor> NON_FX_RISK_FACTOR_NAMES =
+      createNames("EUR-OIS-2Y", "EUR-OIS-5Y", "USD-IRSL3M-2Y", "IBM", "SP500", "XAU");
+
+  private static final String TEST_DIR = "src/test/resources/parser-test/trades/";
+
+  private static final Currency EUR = Currency.getInstance("EUR");
+  private static final Currency USD = Currency.getInstance("USD");
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = "File.*could not be found.*")
+  public void missingFileThrowsException() {
+    loader("nowhere_to_be_found");
+  }
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = "Expected header to contain.*")
+  public void fileWithWrongHeaderThrowsException() {
+    loader("wrong-header").load();
+  }
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = "Expected 5 fields on line 2 but found 4")
+  public void rowWithMissingFieldThrowsException() {
+    loader("missing-field").load();
+  }
+
+  public void sensitivitiesAreAggregatedByPortfolio() {
+    Map<String, Portfolio> portfolios = loader("grouped").load();
+    assertEquals(new ArrayList<>(portfolios.keySet()), Arrays.asList("P1", "P2"));
+
+    assertEquals(toStrings(portfolios.get("P1")), Arrays.asList(
+        "Non FX risk factor (EUR-OIS-5Y)/EUR=-20000.0",
+        "Non FX risk factor (USD-IRSL3M-2Y)/EUR=33000.0",
+        "Non FX risk factor (USD-IRSL3M-2Y)/USD=10000.0"));
+    assertEquals(toStrings(portfolios.get("P2")), Arrays.asList(
+        "FX risk factor (USD)/USD=-250.0", "Non FX risk factor (IBM)/USD=750.0"));
+    assertEquals(portfolios.get("P2").getDerivatives().get(1).getRiskFactor(), FxRiskFactor.of(USD));
+    assertEquals(portfolios.get("P2").getInitialMargin().size(), 0);
+  }
+
+  public void portfolioRowsNeedNotBeContiguous() {
+    Map<String, Portfolio> portfolios = loader("interleaved").load();
+    assertEquals(toStrings(portfolios.get("P1")), Arrays.asList("Non FX risk factor (EUR-OIS-5Y)/EUR=-15000.0"));
+    assertEquals(portfolios.get("P1").getDerivatives().get(0).getCurrency(), EUR);
+    assertEquals(toStrings(portfolios.get("P2")), Arrays.asList("Non FX risk factor (IBM)/USD=500.0"));
+  }
+
+  public void contiguousPortfoliosAreStreamed() {
+    Map<String, Portfolio> streamed = new LinkedHashMap<>();
+    loader("grouped").load((id, portfolio) -> {
+      // Each portfolio is only passed on once
+      assertEquals(streamed.put(id, portfolio), null);
+    });
+
+    Map<String, Portfolio> loaded = loader("grouped").load();
+    assertEquals(streamed.keySet(), loaded.keySet());
+    loaded.forEach((id, portfolio) -> assertEquals(toStrings(streamed.get(id)), toStrings(portfolio)));
+  }
+
+  @Test(
+      expectedExceptions = IllegalArgumentException.class,
+      expectedExceptionsMessageRegExp = "Rows for portfolio P1 must be contiguous, but found again on line 4")
+  public void streamingNonContiguousPortfoliosThrowsException() {
+    loader("interleaved").load((id, portfolio) -> { });
+  }
+
+  private TradeSensitivityLoader loader(String fileName) {
+    return TradeSensitivityLoader.of(new File(TEST_DIR + fileName + ".csv"), NON_FX_RISK_FACTOR_NAMES);
+  }
+
+  private static List<String> toStrings(Portfolio portfolio) {
+    List<String> strings = new ArrayList<>();
+    for (PortfolioExposure exposure : portfolio.getDerivatives()) {
+      strings.add(exposure.getRiskFactor() + "/" + exposure.getCurrency() + "=" + exposure.getAmount());
+    }
+    strings.sort(null);
+    return strings;
+  }
+
+  private static Set<RiskFactor> createNames(String... names) {
+    return Stream.of(names)
+        .map(StandardRiskFactor::of)
+        .collect(toSet());
+  }
+
+}
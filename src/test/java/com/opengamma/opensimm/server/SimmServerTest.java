@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.server;
+
+import static java.util.stream.Collectors.joining;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.opengamma.opensimm.SimmCalculator;
+import com.opengamma.opensimm.basics.AssetClass;
+import com.opengamma.opensimm.basics.FxRiskFactor;
+import com.opengamma.opensimm.basics.PortfolioExposure;
+import com.opengamma.opensimm.basics.StandardRiskFactor;
+import com.opengamma.opensimm.load.PropertyFileLoader;
+import com.opengamma.opensimm.util.Pair;
+
+@Test
+public class SimmServerTest {
+
+  private static final Currency EUR = Currency.getInstance("EUR");
+  private static final Currency GBP = Currency.getInstance("GBP");
+  private static final Currency USD = Currency.getInstance("USD");
+
+  private static final String HEADER = "Portfolio, Type, RiskFactorName, Amount, Currency\n";
+
+  private SimmCalculator calculator;
+  private SimmServer server;
+
+  @BeforeClass
+  public void startServer() throws IOException {
+    Properties props = new Properties();
+    try (FileReader reader = new FileReader("src/test/resources/simm-sample/simm.properties")) {
+      props.load(reader);
+    }
+    calculator = new PropertyFileLoader(props).createSimmCalculator();
+    server = SimmServer.of(calculator, 0, 2);
+    server.start();
+  }
+
+  @AfterClass
+  public void stopServer() {
+    server.stop();
+  }
+
+  public void batchOfPortfoliosMatchesCalculator() throws IOException {
+    String request = HEADER +
+        "P1, DERIVATIVE,       EUR-OIS-2Y,    100000,   EUR\n" +
+        "P1, DERIVATIVE,       IBM,           30300,    EUR\n" +
+        "P2, DERIVATIVE,       USD-IRSL3M-2Y, 20000,    EUR\n" +
+        "P1, INITIAL_MARGIN,   USD,           -1300000, GBP\n" +
+        "P1, VARIATION_MARGIN, GBP,           150000,   USD\n";
+
+    Pair<Integer, String> response = send("POST", "/var", request);
+    assertEquals((int) response.getFirst(), 200);
+
+    Map<AssetClass, Double> expected1 = calculator.varByAssetClass(
+        Arrays.asList(
+            PortfolioExposure.of(StandardRiskFactor.of("EUR-OIS-2Y"), 100000, EUR),
+            PortfolioExposure.of(StandardRiskFactor.of("IBM"), 30300, EUR)),
+        Arrays.asList(PortfolioExposure.of(FxRiskFactor.of(USD), -1300000, GBP)),
+        Arrays.asList(PortfolioExposure.of(FxRiskFactor.of(GBP), 150000, USD)));
+    Map<AssetClass, Double> expected2 = calculator.varByAssetClass(
+        Arrays.asList(PortfolioExposure.of(StandardRiskFactor.of("USD-IRSL3M-2Y"), 20000, EUR)));
+
+    List<String> lines = Arrays.asList(response.getSecond().split("\n"));
+    assertEquals(lines.get(0), "Portfolio,AssetClass,Var");
+    assertEquals(lines.size(), 1 + expected1.size() + expected2.size());
+    for (String line : lines.subList(1, lines.size())) {
+      String[] fields = line.split(",");
+      Map<AssetClass, Double> expected = fields[0].equals("P1") ? expected1 : expected2;
+      assertEquals(Double.parseDouble(fields[2]), expected.get(AssetClass.valueOf(fields[1])), 1e-8);
+    }
+    assertTrue(lines.get(1).startsWith("P1,"));
+  }
+
+  public void invalidExposureTypeIsRejected() throws IOException {
+    Pair<Integer, String> response = send("POST", "/var", HEADER + "P1, OTHER, IBM, 100, EUR\n");
+    assertEquals((int) response.getFirst(), 400);
+    assertTrue(response.getSecond().contains("Unknown exposure type: OTHER"));
+  }
+
+  public void invalidMethodIsRejected() throws IOException {
+    assertEquals((int) send("GET", "/var", null).getFirst(), 405);
+  }
+
+  public void statusReportsSnapshotVersion() throws IOException {
+    Pair<Integer, String> response = send("GET", "/status", null);
+    assertEquals((int) response.getFirst(), 200);
+    assertEquals(response.getSecond(), "Status,SnapshotVersion\nOK,0\n");
+  }
+
+  private Pair<Integer, String> send(String method, String path, String body) throws IOException {
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+    connection.setRequestMethod(method);
+    if (body != null) {
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    int status = connection.getResponseCode();
+    InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      String content = reader.lines().collect(joining("\n"));
+      return Pair.of(status, content.isEmpty() ? content : content + "\n");
+    }
+  }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2015 - present by OpenGamma Inc. and the OpenGamma group of companies
+ *
+ * Please see distribution for license.
+ */
+package com.opengamma.opensimm.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.DoubleStream;
+
+import org.testng.annotations.Test;
+
+@Test
+public class DoubleAccumulatorMapTest {
+
+  public void totalsMatchCompensatedStreamSum() {
+    Random random = new Random(42);
+    double[] values = random.doubles(10_000, -1e9, 1e9).toArray();
+    DoubleAccumulatorMap<String> map = DoubleAccumulatorMap.create();
+    for (double value : values) {
+      map.add("A", value);
+    }
+    assertEquals(map.get("A"), DoubleStream.of(values).sum());
+  }
+
+  public void keysAreIteratedInInsertionOrder() {
+    DoubleAccumulatorMap<String> map = DoubleAccumulatorMap.withExpectedSize(1);
+    map.add("C", 1);
+    map.add("A", 2);
+    map.add("C", 3);
+    map.add("B", 4);
+
+    List<String> keys = new ArrayList<>();
+    List<Double> totals = new ArrayList<>();
+    map.forEach((key, total) -> {
+      keys.add(key);
+      totals.add(total);
+    });
+    assertEquals(keys, Arrays.asList("C", "A", "B"));
+    assertEquals(totals, Arrays.asList(4d, 2d, 4d));
+    assertEquals(map.toMap().keySet(), new LinkedHashSet<>(keys));
+  }
+
+  public void mapGrowsToHoldManyKeys() {
+    DoubleAccumulatorMap<Integer> map = DoubleAccumulatorMap.create();
+    for (int i = 0; i < 1000; i++) {
+      map.add(i, i);
+      map.add(i, 0.5);
+    }
+    assertEquals(map.size(), 1000);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(map.get(i), i + 0.5);
+    }
+  }
+
+  public void missingKeyHasZeroTotal() {
+    DoubleAccumulatorMap<String> map = DoubleAccumulatorMap.create();
+    map.add("A", 1);
+    assertFalse(map.containsKey("B"));
+    assertTrue(map.containsKey("A"));
+    assertEquals(map.get("B"), 0d);
+  }
+
+  public void infiniteValuesGiveInfiniteTotal() {
+    DoubleAccumulatorMap<String> map = DoubleAccumulatorMap.create();
+    map.add("A", Double.POSITIVE_INFINITY);
+    map.add("A", 1);
+    assertEquals(map.get("A"), Double.POSITIVE_INFINITY);
+  }
+
+}
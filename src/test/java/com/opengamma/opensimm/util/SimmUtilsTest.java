@@ -14,6 +14,7 @@ import static org.testng.AssertJUnit.assertTrue;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.stream.Collectors;
 import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
@@ -59,6 +60,98 @@ public class SimmUtilsTest {
     assertEquals("SimmUtils: percentile", VAR_LEVEL, levelExpected, TOLERANCE_PERCENTILE);
   }
 
+  @Test
+  public void percentileOfArrayMatchesSortedValues() {
+    Random random = new Random(42);
+    for (int size : new int[] {2, 3, 10, 250, 1001}) {
+      // Include plenty of repeated values
+      double[] values = random.doubles(size).map(d -> Math.floor(d * size / 4)).toArray();
+      double[] sorted = values.clone();
+      Arrays.sort(sorted);
+
+      for (double level : new double[] {0.5, 0.9, 0.975, 0.99}) {
+        if (level < 1.0d - 0.5d / size) {
+          int i = (int) Math.ceil(size * level - 0.5);
+          double lower = (i - 0.5) / size;
+          double expected = sorted[i - 1] + (level - lower) * (sorted[i] - sorted[i - 1]) * size;
+          double computed = SimmUtils.percentile(values.clone(), level);
+          assertEquals("SimmUtils: percentile - " + size, expected, computed, TOLERANCE_PERCENTILE);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void percentileOfArrayLeavesValuesUnchanged() {
+    double[] values = VALUES.clone();
+    double computed = SimmUtils.percentile(values, VAR_LEVEL);
+    assertTrue("SimmUtils: percentile", Arrays.equals(VALUES, values));
+
+    double[] scratch = new double[VALUES.length + 3];
+    assertEquals("SimmUtils: percentile", computed, SimmUtils.percentile(values, VAR_LEVEL, scratch), 0d);
+    assertTrue("SimmUtils: percentile", Arrays.equals(VALUES, values));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void percentileRejectsScratchShorterThanValues() {
+    SimmUtils.percentile(VALUES, VAR_LEVEL, new double[VALUES.length - 1]);
+  }
+
+  @Test
+  public void percentileOrdersNaNAboveOtherValues() {
+    // Sorted: -3, -1, 0, 2, 4, 5, 7, 8, NaN, NaN
+    double[] values = {4, Double.NaN, -1, 8, 0, Double.NaN, 7, -3, 2, 5};
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+
+    // Interpolates between the 5th and 6th values, neither of which is NaN
+    double expected = sorted[4] + (0.5 - 0.45) * (sorted[5] - sorted[4]) * values.length;
+    assertEquals("SimmUtils: percentile", expected, SimmUtils.percentile(values, 0.5), TOLERANCE_PERCENTILE);
+    assertEquals("SimmUtils: percentile", expected,
+        SimmUtils.percentile(DoubleStream.of(values).boxed().collect(toList()), 0.5), TOLERANCE_PERCENTILE);
+
+    // Interpolates between the 8th value and the first NaN
+    assertTrue("SimmUtils: percentile", Double.isNaN(SimmUtils.percentile(values, 0.8)));
+    List<Pair<Integer, Double>> scenarios = SimmUtils.percentileScenarios(values, 0.8);
+    assertEquals("SimmUtils: percentile scenarios", 3, (int) scenarios.get(0).getFirst());
+    assertTrue("SimmUtils: percentile scenarios", Double.isNaN(values[scenarios.get(1).getFirst()]));
+  }
+
+  @Test
+  public void percentileInPlaceReordersValues() {
+    double[] values = VALUES.clone();
+    double computed = SimmUtils.percentileInPlace(values, VAR_LEVEL);
+    double[] sorted = VALUES.clone();
+    Arrays.sort(sorted);
+    double[] reordered = values.clone();
+    Arrays.sort(reordered);
+    assertTrue("SimmUtils: percentile", Arrays.equals(sorted, reordered));
+    assertEquals("SimmUtils: percentile", SimmUtils.percentile(VALUES.clone(), VAR_LEVEL), computed, 0d);
+  }
+
+  @Test
+  public void percentileScenariosReproducePercentile() {
+    Random random = new Random(3L);
+    for (int size : new int[] {25, 250, 1000}) {
+      // Include repeated values to check distinct scenarios are chosen
+      double[] values = IntStream.range(0, size).mapToDouble(i -> random.nextInt(size / 5)).toArray();
+      double[] original = values.clone();
+      List<Pair<Integer, Double>> scenarios = SimmUtils.percentileScenarios(values, VAR_LEVEL);
+
+      assertTrue("SimmUtils: percentile scenarios", Arrays.equals(values, original));
+      assertEquals("SimmUtils: percentile scenarios", 2, scenarios.size());
+      assertTrue("SimmUtils: percentile scenarios",
+          !scenarios.get(0).getFirst().equals(scenarios.get(1).getFirst()));
+      double weighted = scenarios.stream().mapToDouble(p -> p.getSecond() * values[p.getFirst()]).sum();
+      assertEquals("SimmUtils: percentile scenarios", SimmUtils.percentile(values.clone(), VAR_LEVEL), weighted, 1e-12);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void percentileOfArrayRejectsLevelOutsideData() {
+    SimmUtils.percentile(new double[] {1, 2, 3, 4}, 0.9);
+  }
+
   private static final Map<RiskFactor, Double> DELTAS = createMap(
       StandardRiskFactor.of("RF1"), 100.0,
       StandardRiskFactor.of("RF2"), 200.0,
@@ -88,5 +181,51 @@ public class SimmUtilsTest {
           assertEquals("SimmUtils: percentile", profit, profitsComputed.get(i), TOLERANCE_PL);
         });
   }
+
+  @Test
+  public void profitsIntoBuffer() {
+    double[][] movements = {
+        {0.001, -0.005, -0.009, 0.006},
+        {0.002, 0.006, -0.010, 0.007},
+        {-0.003, 0.007, 0.001, 0.004}};
+    double[] exposures = {100.0, 0.0, -200.0};
+
+    // Buffer contents from a previous use must be cleared
+    double[] buffer = {1.0, 2.0, 3.0, 4.0};
+    double[] profitsComputed = SimmUtils.profits(movements, exposures, buffer);
+    assertTrue("SimmUtils: profits", profitsComputed == buffer);
+
+    for (int i = 0; i < buffer.length; i++) {
+      double profit = movements[0][i] * exposures[0] + movements[2][i] * exposures[2];
+      assertEquals("SimmUtils: profits", profit, profitsComputed[i], TOLERANCE_PL);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void profitsIntoBufferRequiresAlignedExposures() {
+    SimmUtils.profits(new double[][] {{0.001, 0.002}}, new double[] {1.0, 2.0}, new double[2]);
+  }
   
+  @Test
+  public void descendingOrder() {
+    double[] values = {1.5, -2.0, 3.0, 1.5, 0.0, 3.0, -2.0};
+    int[] order = SimmUtils.descendingOrder(values);
+
+    // Equal values keep their original relative order
+    int[] expected = {2, 5, 0, 3, 4, 1, 6};
+    assertTrue("SimmUtils: descendingOrder", Arrays.equals(expected, order));
+  }
+
+  @Test
+  public void descendingOrderOfRandomValues() {
+    double[] values = new Random(1).doubles(1000).toArray();
+    int[] order = SimmUtils.descendingOrder(values);
+
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    for (int i = 0; i < order.length; i++) {
+      assertEquals("SimmUtils: descendingOrder", sorted[sorted.length - 1 - i], values[order[i]], 0d);
+    }
+  }
+
 }